@@ -18,11 +18,15 @@
 
 package net.mailific.mailificserverspringboot;
 
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import net.mailific.main.Main;
 import net.mailific.server.LineConsumer;
 import net.mailific.server.MailObject;
@@ -38,6 +42,7 @@ import net.mailific.server.netty.NettySmtpServer;
 import net.mailific.server.reference.BaseMailObjectFactory;
 import net.mailific.server.session.SmtpSessionFactory;
 import net.mailific.server.session.SmtpSessionFactoryImp;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
@@ -55,8 +60,8 @@ public class Autoconf {
   /**
    * Provides a Netty-based SmtpServer.
    *
-   * @param config See {@link #serverConfig(String, int, String, String, String,
-   *     SmtpSessionFactory)}
+   * @param config See {@link #serverConfig(String, int, String, String, String, long, String,
+   *     boolean, int, int, int, int, String, ObjectProvider, ObjectProvider, SmtpSessionFactory)}
    */
   @Bean
   @ConditionalOnMissingBean
@@ -78,7 +83,33 @@ public class Autoconf {
    *     property mailific.server.certKeyPath. The poperty defaults to empty.
    * @param certPass Password for the key specified by certKeyPath. Leave null if the key file is
    *     not encrypted. Taken from the property mailific.server.certPassword. Defaults to null.
-   * @param sessionFactory see {@link #smtpSesssionFactory(LineConsumer, ExtensionProvider)}
+   * @param certCheckSeconds If positive, the cert and key files are checked this often, and
+   *     reloaded if they've changed. Taken from the property mailific.server.certCheckSeconds. The
+   *     property defaults to 0, which means they're only read at startup.
+   * @param sniCertDirectory If not empty, a directory of certs to choose from by the host name a
+   *     client asks for. See {@link ServerConfig.Builder#withSniCertDirectory(File)}. Taken from
+   *     the property mailific.server.sniCertDirectory. The property defaults to empty.
+   * @param proxyProtocol If true, each connection must start with a PROXY protocol header from a
+   *     load balancer, giving the real client address. See {@link
+   *     ServerConfig.Builder#withProxyProtocol(boolean)}. Taken from the property
+   *     mailific.server.proxyProtocol. The property defaults to false.
+   * @param bossThreads Number of threads accepting connections. Taken from the property
+   *     mailific.server.bossThreads. The property defaults to 0, which leaves it to Netty.
+   * @param workerThreads Number of threads handling connections. Taken from the property
+   *     mailific.server.workerThreads. The property defaults to 0, which leaves it to Netty.
+   * @param acceptors Number of server channels to bind on the port with SO_REUSEPORT. See {@link
+   *     ServerConfig.Builder#withAcceptors(int)}. Taken from the property
+   *     mailific.server.acceptors. The property defaults to 1.
+   * @param backlog SO_BACKLOG for the server channels. Taken from the property
+   *     mailific.server.backlog. The property defaults to 0, which leaves it to Netty.
+   * @param threadNamePrefix If not empty, the server's threads are named starting with this. Taken
+   *     from the property mailific.server.threadNamePrefix. The property defaults to empty.
+   * @param bossGroup If there's an EventLoopGroup bean named "mailificBossGroup", connections are
+   *     accepted on it instead of on threads the server creates. The server won't shut it down.
+   * @param workerGroup If there's an EventLoopGroup bean named "mailificWorkerGroup", connections
+   *     are handled on it instead of on threads the server creates. The server won't shut it down.
+   * @param sessionFactory see {@link #smtpSesssionFactory(LineConsumer, ExtensionProvider,
+   *     ObjectProvider)}
    */
   @Bean
   @ConditionalOnMissingBean
@@ -88,14 +119,37 @@ public class Autoconf {
       @Value("${mailific.server.certPath:}") String certPath,
       @Value("${mailific.server.certKeyPath:}") String certKeyPath,
       @Value("${mailific.server.certPassword:#{NULL}}") String certPass,
+      @Value("${mailific.server.certCheckSeconds:0}") long certCheckSeconds,
+      @Value("${mailific.server.sniCertDirectory:}") String sniCertDirectory,
+      @Value("${mailific.server.proxyProtocol:false}") boolean proxyProtocol,
+      @Value("${mailific.server.bossThreads:0}") int bossThreads,
+      @Value("${mailific.server.workerThreads:0}") int workerThreads,
+      @Value("${mailific.server.acceptors:1}") int acceptors,
+      @Value("${mailific.server.backlog:0}") int backlog,
+      @Value("${mailific.server.threadNamePrefix:}") String threadNamePrefix,
+      @Qualifier("mailificBossGroup") ObjectProvider<EventLoopGroup> bossGroup,
+      @Qualifier("mailificWorkerGroup") ObjectProvider<EventLoopGroup> workerGroup,
       SmtpSessionFactory sessionFactory) {
 
     ServerConfig.Builder builder =
         ServerConfig.builder()
             .withListenHost(listenHost)
             .withListenPort(listenPort)
+            .withBossThreads(bossThreads)
+            .withWorkerThreads(workerThreads)
+            .withAcceptors(acceptors)
+            .withBacklog(backlog)
+            .withBossGroup(bossGroup.getIfAvailable())
+            .withWorkerGroup(workerGroup.getIfAvailable())
+            .withProxyProtocol(proxyProtocol)
             .withSessionFactory(sessionFactory);
 
+    if (threadNamePrefix != null && !threadNamePrefix.isBlank()) {
+      builder
+          .withBossThreadFactory(new DefaultThreadFactory(threadNamePrefix + "-boss"))
+          .withWorkerThreadFactory(new DefaultThreadFactory(threadNamePrefix + "-worker"));
+    }
+
     if (certPath != null && !certPath.isBlank()) {
       if (certKeyPath == null || certKeyPath.isBlank()) {
         throw new IllegalArgumentException("If you provide a cert, you must provide the key.");
@@ -109,28 +163,40 @@ public class Autoconf {
         throw new IllegalArgumentException("Cannot read cert key: " + certKeyPath);
       }
       builder.withTlsCert(certFile).withTlsCertKey(certKeyFile).withTlsCertPassword(certPass);
+      if (certCheckSeconds > 0) {
+        builder.withTlsCertCheckInterval(Duration.ofSeconds(certCheckSeconds));
+      }
+      if (sniCertDirectory != null && !sniCertDirectory.isBlank()) {
+        builder.withSniCertDirectory(new File(sniCertDirectory));
+      }
     }
     return builder.build();
   }
 
   /**
    * Provides an SmtpSessionFactory. Used by {@link #serverConfig(String, int, String, String,
-   * String, SmtpSessionFactory)}
+   * String, long, String, boolean, int, int, int, int, String, ObjectProvider, ObjectProvider,
+   * SmtpSessionFactory)}
    *
    * @param commandConsumer see {@link #mailificCommandConsumer(CommandHandlerProvider)}
    * @param extensions see {@link #extensionProvider(String)}
+   * @param completionExecutor If there's an Executor bean named "mailificCompletionExecutor", mail
+   *     objects are completed on it instead of on the I/O thread. See {@link
+   *     ServerConfig.Builder#withCompletionExecutor(Executor)}. The server won't shut it down.
    */
   @Bean
   @ConditionalOnMissingBean
   public SmtpSessionFactory smtpSesssionFactory(
       @Qualifier("mailificCommandConsumer") LineConsumer commandConsumer,
-      ExtensionProvider extensions) {
-    return new SmtpSessionFactoryImp(commandConsumer, extensions.extensions());
+      ExtensionProvider extensions,
+      @Qualifier("mailificCompletionExecutor") ObjectProvider<Executor> completionExecutor) {
+    return new SmtpSessionFactoryImp(
+        commandConsumer, extensions.extensions(), completionExecutor.getIfAvailable());
   }
 
   /**
    * Provides a list of extensions for the server to support. Used by {@link
-   * #smtpSesssionFactory(LineConsumer, ExtensionProvider)}.
+   * #smtpSesssionFactory(LineConsumer, ExtensionProvider, ObjectProvider)}.
    *
    * @param certPath If nonnull and nonblank, the return value will include the STARTTLS extension.
    *     Taken from the property mailific.server.certPath. The property defaults to empty.
@@ -148,7 +214,8 @@ public class Autoconf {
 
   /**
    * Builds an SmtpCommandMap from a CommandHandlerProvider . This is the default implementation for
-   * the LineConsumer used by {@link #smtpSesssionFactory(LineConsumer, ExtensionProvider)}.
+   * the LineConsumer used by {@link #smtpSesssionFactory(LineConsumer, ExtensionProvider,
+   * ObjectProvider)}.
    *
    * <p>This Bean is named "mailificCommandConsumer" so that it can be distinguished from other
    * possible LineConsumer Beans.
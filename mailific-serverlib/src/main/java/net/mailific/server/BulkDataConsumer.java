@@ -0,0 +1,67 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server;
+
+import java.nio.ByteBuffer;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.Transition;
+
+/**
+ * A LineConsumer that accepts message data can also implement this interface to receive the data in
+ * bulk, many lines at a time, rather than line by line.
+ *
+ * <p>By implementing it, a LineConsumer promises that while it is at the head of the session's
+ * chain, it will consume every line until the end-of-data marker (a line containing just a dot).
+ * That is what allows a transport to skip line framing altogether and deliver the data straight to
+ * it. The transport takes care of finding the end-of-data marker and removing the leading dots from
+ * dot-stuffed lines (RFC5321.4.5.2).
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public interface BulkDataConsumer {
+
+  /**
+   * Consume message data.
+   *
+   * <p>The buffer is only valid until this method returns. Don't modify its content or keep a
+   * reference to it.
+   *
+   * @param session The SmtpSession in progress
+   * @param data One or more complete lines of message data, already dot-unstuffed. Always ends in
+   *     CRLF. Never includes the end-of-data marker.
+   */
+  void consumeData(SmtpSession session, ByteBuffer data);
+
+  /**
+   * Called when the end-of-data marker has been read.
+   *
+   * @param session The SmtpSession in progress
+   * @return A Transition with the reply to the DATA command and the next state.
+   */
+  Transition endOfData(SmtpSession session);
+
+  /**
+   * Called in place of {@link #consumeData(SmtpSession, ByteBuffer)} for a line that was too long,
+   * and has been discarded. The default does nothing, so the message is delivered without it.
+   *
+   * @param session The SmtpSession in progress
+   */
+  default void lineTooLong(SmtpSession session) {}
+}
@@ -0,0 +1,63 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server;
+
+import java.nio.ByteBuffer;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.Transition;
+
+/**
+ * A LineConsumer that accepts a fixed-size chunk of message data (as sent with the BDAT command of
+ * RFC3030) can also implement this interface, so the transport can deliver the chunk as raw octets
+ * instead of lines.
+ *
+ * <p>By implementing it, a LineConsumer promises that while it is at the head of the session's
+ * chain, it will consume exactly {@link #getRemaining()} octets, and then expects the transport to
+ * call {@link #endOfChunk(SmtpSession)}. Chunk data is not dot-stuffed and need not be made of
+ * lines, so the transport must not look at its content at all.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public interface ChunkConsumer {
+
+  /**
+   * @return The number of octets of the chunk that have not yet been consumed.
+   */
+  long getRemaining();
+
+  /**
+   * Consume chunk data.
+   *
+   * <p>The buffer is only valid until this method returns. Don't modify its content or keep a
+   * reference to it.
+   *
+   * @param session The SmtpSession in progress
+   * @param data Part or all of the chunk. Never more than {@link #getRemaining()} octets.
+   */
+  void consumeChunk(SmtpSession session, ByteBuffer data);
+
+  /**
+   * Called once the whole chunk has been consumed.
+   *
+   * @param session The SmtpSession in progress
+   * @return A Transition with the reply to the BDAT command and the next state.
+   */
+  Transition endOfChunk(SmtpSession session);
+}
@@ -18,6 +18,8 @@
 
 package net.mailific.server;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
@@ -26,6 +28,16 @@ import java.util.Objects;
  * line before it's passed to the next consumer in the chain. It also caches the string version of
  * the line and the verb.
  *
+ * <p>Nearly all command lines are pure ASCII, so nothing is decoded as UTF-8 until it has to be.
+ * {@link #getChars()} reads an ASCII line straight from its bytes, and {@link #getVerb()} decodes
+ * only the verb. The whole line is decoded only when {@link #getStripped()} is called, or when a
+ * non-ASCII byte (as SMTPUTF8 allows) means the chars can't be read from the bytes one for one.
+ *
+ * <p>A Line constructed from a {@link ByteBuffer} is a view onto the network buffer, not a copy. It
+ * is only valid for the duration of the call in which it is passed to a LineConsumer. Don't hold on
+ * to it (or to the buffer returned by {@link #getBuffer()}) after that call returns. The byte array
+ * returned by {@link #getLine()} is safe to keep.
+ *
  * <p>Note that this implementation is <b>not thread safe</b>. It is also not very defensive. Don't
  * pass it unexpected stuff (like bytes with no \r\n at the end).
  *
@@ -35,18 +47,43 @@ import java.util.Objects;
  * @since 1.0.0
  */
 public class Line {
-  private final byte[] originalLine;
+  private static final byte UNKNOWN = 0;
+  private static final byte ASCII = 1;
+  private static final byte NOT_ASCII = 2;
+
+  private final ByteBuffer originalBuffer;
+  // Where the line is in originalBuffer. Read with absolute gets, so its position doesn't matter.
+  private final int start;
+  private final int end;
+  private byte[] originalLine;
   private byte[] line;
   private String stripped;
   private String verb;
+  private byte ascii = UNKNOWN;
 
   /**
    * @param line Must end in CRLF
    */
   public Line(byte[] line) {
+    this.originalBuffer = null;
+    this.start = 0;
+    this.end = 0;
     this.originalLine = line;
   }
 
+  /**
+   * Wraps the buffer without copying it. See the class comment for how long the Line remains valid.
+   *
+   * @param line The remaining bytes of the buffer are the line. Must end in CRLF. The buffer's
+   *     position and limit are not modified.
+   * @since 1.0.8
+   */
+  public Line(ByteBuffer line) {
+    this.originalBuffer = line;
+    this.start = line.position();
+    this.end = line.limit();
+  }
+
   /**
    * @param s String representation of a line. CRLF ending optional.
    */
@@ -54,6 +91,9 @@ public class Line {
     if (!s.endsWith("\r\n")) {
       s = s + "\r\n";
     }
+    this.originalBuffer = null;
+    this.start = 0;
+    this.end = 0;
     this.originalLine = s.getBytes(StandardCharsets.UTF_8);
   }
 
@@ -61,16 +101,75 @@ public class Line {
    * @return the current version of the line
    */
   public byte[] getLine() {
-    return line == null ? originalLine : line;
+    return line == null ? getOriginalLine() : line;
   }
 
   /**
    * @return the original version of the line
    */
   public byte[] getOriginalLine() {
+    if (originalLine == null) {
+      // Only copy out of the network buffer if someone actually wants an array
+      originalLine = new byte[end - start];
+      bufferView().get(originalLine);
+    }
     return originalLine;
   }
 
+  /**
+   * Provides the current version of the line without copying it out of the buffer it arrived in.
+   *
+   * @return a new buffer (sharing content with the line) whose remaining bytes are the line,
+   *     including the CRLF. Callers may change its position and limit, but must not modify its
+   *     content.
+   * @since 1.0.8
+   */
+  public ByteBuffer getBuffer() {
+    if (line != null) {
+      return ByteBuffer.wrap(line);
+    }
+    if (originalBuffer != null) {
+      return bufferView();
+    }
+    return ByteBuffer.wrap(originalLine);
+  }
+
+  private ByteBuffer bufferView() {
+    ByteBuffer view = originalBuffer.duplicate();
+    view.limit(end).position(start);
+    return view;
+  }
+
+  /**
+   * @return The length of the current version of the line in bytes, including the CRLF.
+   * @since 1.0.8
+   */
+  public int length() {
+    if (line != null) {
+      return line.length;
+    }
+    return originalBuffer != null ? end - start : originalLine.length;
+  }
+
+  /**
+   * Reads one byte of the current version of the line, without copying it out of the buffer it
+   * arrived in.
+   *
+   * @param index From 0 to {@link #length()} - 1.
+   * @return The byte at that index.
+   * @throws IndexOutOfBoundsException if index is out of range.
+   * @since 1.0.8
+   */
+  public byte byteAt(int index) {
+    if (line != null) {
+      return line[index];
+    }
+    if (originalBuffer != null) {
+      return originalBuffer.get(start + Objects.checkIndex(index, length()));
+    }
+    return originalLine[index];
+  }
+
   /**
    * @param line update the line
    */
@@ -79,6 +178,7 @@ public class Line {
     this.line = line;
     stripped = null;
     verb = null;
+    ascii = UNKNOWN;
   }
 
   /**
@@ -86,18 +186,112 @@ public class Line {
    */
   public String getStripped() {
     if (stripped == null) {
-      stripped = new String(getLine(), 0, getLine().length - 2, StandardCharsets.UTF_8);
+      stripped =
+          decode(0, length() - 2, isAscii() ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
     }
     return stripped;
   }
 
+  /**
+   * A view of the current version of the line, with the trailing CRLF removed. If the line is pure
+   * ASCII, the chars are read straight from its bytes, so nothing is decoded or copied. Otherwise
+   * this is the same as {@link #getStripped()}.
+   *
+   * <p>The view is no longer valid once the line is changed with {@link #setLine(byte[])}, and an
+   * ASCII view has the same lifetime as the Line itself (see the class comment). Call toString() on
+   * it to get something you can keep.
+   *
+   * @since 1.0.8
+   */
+  public CharSequence getChars() {
+    if (isAscii()) {
+      return new AsciiChars(0, length() - 2);
+    }
+    return getStripped();
+  }
+
+  /**
+   * @return Whether the current version of the line is all ASCII.
+   * @since 1.0.8
+   */
+  public boolean isAscii() {
+    if (ascii == UNKNOWN) {
+      ascii = ASCII;
+      for (int i = 0, n = length() - 2; i < n; i++) {
+        if (byteAt(i) < 0) {
+          ascii = NOT_ASCII;
+          break;
+        }
+      }
+    }
+    return ascii == ASCII;
+  }
+
   /**
    * @return The first word of the line
    */
   public String getVerb() {
     if (verb == null) {
-      verb = getStripped().split(" ", 2)[0];
+      int n = length() - 2;
+      int i = 0;
+      while (i < n && byteAt(i) != ' ' && byteAt(i) >= 0) {
+        i++;
+      }
+      if (i == n || byteAt(i) == ' ') {
+        // An ASCII verb can be decoded on its own
+        verb = decode(0, i, StandardCharsets.ISO_8859_1);
+      } else {
+        verb = getStripped().split(" ", 2)[0];
+      }
     }
     return verb;
   }
+
+  /*
+   * Decodes bytes from..to of the current version of the line, without copying them out of the
+   * buffer first if it has an array. Bytes known to be ASCII are decoded as ISO-8859-1, which is a
+   * straight copy.
+   */
+  private String decode(int from, int to, Charset charset) {
+    if (line == null && originalLine == null && originalBuffer.hasArray()) {
+      return new String(
+          originalBuffer.array(), originalBuffer.arrayOffset() + start + from, to - from, charset);
+    }
+    return new String(getLine(), from, to - from, charset);
+  }
+
+  /** Chars read from the bytes of a pure ASCII line. */
+  private final class AsciiChars implements CharSequence {
+    private final int from;
+    private final int to;
+
+    AsciiChars(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public int length() {
+      return to - from;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) byteAt(from + Objects.checkIndex(index, length()));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      Objects.checkFromToIndex(start, end, length());
+      return new AsciiChars(from + start, from + end);
+    }
+
+    @Override
+    public String toString() {
+      if (from == 0 && to == Line.this.length() - 2) {
+        return getStripped();
+      }
+      return decode(from, to, StandardCharsets.ISO_8859_1);
+    }
+  }
 }
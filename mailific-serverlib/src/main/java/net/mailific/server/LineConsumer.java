@@ -45,7 +45,9 @@ public interface LineConsumer {
    * @param session The SmtpSession in progress
    * @param line The incoming line, wrapped in a {@link Line}
    * @return A Transition indicating the next step in the session. To indicate that the LineComsumer
-   *     did not consume the line, return {@link Transition#UNHANDLED}.
+   *     did not consume the line, return {@link Transition#UNHANDLED}. If the answer can't be had
+   *     without blocking, return a {@link Transition#deferred(java.util.concurrent.CompletionStage)
+   *     deferred} Transition.
    */
   Transition consume(SmtpSession session, Line line);
 
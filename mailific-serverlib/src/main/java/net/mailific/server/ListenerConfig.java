@@ -0,0 +1,214 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server;
+
+import java.io.File;
+import java.util.Objects;
+import net.mailific.server.session.SmtpSessionFactory;
+
+/**
+ * An additional endpoint for a server to listen on, e.g. a submission port alongside the MX port.
+ * Each listener has its own SmtpSessionFactory (and hence its own command handlers and extensions)
+ * and its own TLS cert. Everything else, like the event loops, is shared with the rest of the
+ * server. See {@link ServerConfig.Builder#withAdditionalListener(ListenerConfig)}.
+ *
+ * <p>Unlike {@link ServerConfig}, a ListenerConfig doesn't build a SmtpSessionFactory for you. If
+ * you supply a TLS cert, remember to include the StartTls extension in the factory's extensions.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class ListenerConfig {
+
+  private final String listenHost;
+  private final int listenPort;
+  private final File tlsCert;
+  private final File tlsCertKey;
+  private final String tlsCertPassword;
+  private final boolean implicitTls;
+  private final File sniCertDirectory;
+  private final boolean proxyProtocol;
+  private final SmtpSessionFactory sessionFactory;
+
+  private ListenerConfig(Builder builder) {
+    this.listenHost = builder.listenHost;
+    this.listenPort = builder.listenPort;
+    this.tlsCert = builder.tlsCert;
+    this.tlsCertKey = builder.tlsCertKey;
+    this.tlsCertPassword = builder.tlsCertPassword;
+    this.implicitTls = builder.implicitTls;
+    if (implicitTls && tlsCert == null) {
+      throw new IllegalArgumentException("Implicit TLS requires a TLS cert.");
+    }
+    this.sniCertDirectory = builder.sniCertDirectory;
+    if (sniCertDirectory != null && tlsCert == null) {
+      throw new IllegalArgumentException("SNI requires a default TLS cert.");
+    }
+    this.proxyProtocol = builder.proxyProtocol;
+    this.sessionFactory =
+        Objects.requireNonNull(builder.sessionFactory, "SessionFactory must not be null.");
+  }
+
+  public String getListenHost() {
+    return listenHost;
+  }
+
+  public int getListenPort() {
+    return listenPort;
+  }
+
+  public File getTlsCert() {
+    return tlsCert;
+  }
+
+  public File getTlsCertKey() {
+    return tlsCertKey;
+  }
+
+  public String getTlsCertPassword() {
+    return tlsCertPassword;
+  }
+
+  /**
+   * @return true if connections are TLS from the start (SMTPS), rather than plain text with
+   *     STARTTLS.
+   */
+  public boolean isImplicitTls() {
+    return implicitTls;
+  }
+
+  /**
+   * @return A directory of certs to choose from by the host name a client asks for, or null to
+   *     always use the TLS cert.
+   */
+  public File getSniCertDirectory() {
+    return sniCertDirectory;
+  }
+
+  /**
+   * @return true if each connection starts with a PROXY protocol header giving the real client's
+   *     address.
+   */
+  public boolean isProxyProtocol() {
+    return proxyProtocol;
+  }
+
+  public SmtpSessionFactory getSessionFactory() {
+    return sessionFactory;
+  }
+
+  /**
+   * Creates builder to build {@link ListenerConfig}.
+   *
+   * @return created builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Builder to build {@link ListenerConfig}. */
+  public static final class Builder {
+    private String listenHost;
+    private int listenPort;
+    private File tlsCert;
+    private File tlsCertKey;
+    private String tlsCertPassword;
+    private boolean implicitTls;
+    private File sniCertDirectory;
+    private boolean proxyProtocol;
+    private SmtpSessionFactory sessionFactory;
+
+    private Builder() {}
+
+    public Builder withListenHost(String listenHost) {
+      this.listenHost = listenHost;
+      return this;
+    }
+
+    public Builder withListenPort(int listenPort) {
+      this.listenPort = listenPort;
+      return this;
+    }
+
+    public Builder withTlsCert(File tlsCert) {
+      this.tlsCert = tlsCert;
+      return this;
+    }
+
+    public Builder withTlsCertKey(File tlsCertKey) {
+      this.tlsCertKey = tlsCertKey;
+      return this;
+    }
+
+    public Builder withTlsCertPassword(String tlsCertPassword) {
+      this.tlsCertPassword = tlsCertPassword;
+      return this;
+    }
+
+    /**
+     * Optional. If true, the TLS handshake starts as soon as a client connects, before the
+     * greeting, as on the SMTPS submission port 465 (RFC 8314). STARTTLS is then never offered.
+     * Requires a TLS cert. Defaults to false.
+     *
+     * @param implicitTls whether connections are TLS from the start.
+     */
+    public Builder withImplicitTls(boolean implicitTls) {
+      this.implicitTls = implicitTls;
+      return this;
+    }
+
+    /**
+     * Optional. See {@link ServerConfig.Builder#withSniCertDirectory(File)}.
+     *
+     * @param sniCertDirectory directory of certs to choose from by host name.
+     */
+    public Builder withSniCertDirectory(File sniCertDirectory) {
+      this.sniCertDirectory = sniCertDirectory;
+      return this;
+    }
+
+    /**
+     * Optional. See {@link ServerConfig.Builder#withProxyProtocol(boolean)}.
+     *
+     * @param proxyProtocol whether connections start with a PROXY protocol header.
+     */
+    public Builder withProxyProtocol(boolean proxyProtocol) {
+      this.proxyProtocol = proxyProtocol;
+      return this;
+    }
+
+    /**
+     * Required.
+     *
+     * @param sessionFactory to use for building sessions on this listener.
+     */
+    public Builder withSessionFactory(SmtpSessionFactory sessionFactory) {
+      this.sessionFactory = sessionFactory;
+      return this;
+    }
+
+    /**
+     * @throws NullPointerException if no SessionFactory was supplied.
+     * @throws IllegalArgumentException if implicit TLS or SNI was requested without a TLS cert.
+     */
+    public ListenerConfig build() {
+      return new ListenerConfig(this);
+    }
+  }
+}
@@ -19,8 +19,12 @@
 package net.mailific.server;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import net.mailific.server.commands.ParsedCommandLine;
 import net.mailific.server.session.Reply;
@@ -37,8 +41,9 @@ import net.mailific.server.session.SmtpSession;
  * <ol>
  *   <li>{@link #mailFrom(ParsedCommandLine, SmtpSession)}
  *   <li>{@link #rcptTo(ParsedCommandLine, SmtpSession)}
- *   <li>{@link #writeLine(byte[], int, int)}
- *   <li>{@link #complete(SmtpSession)}
+ *   <li>{@link #writeLine(byte[], int, int)} / {@link #writeLine(ByteBuffer)} / {@link
+ *       #writeChunk(ByteBuffer)}
+ *   <li>{@link #complete(SmtpSession)} / {@link #completeAsync(SmtpSession, Executor)}
  *   <li>{@link #dispose()}
  * </ol>
  *
@@ -46,10 +51,10 @@ import net.mailific.server.session.SmtpSession;
  *   <li>{@link #dispose()} may be called at any time, after which none of the other methods will be
  *       called.
  *   <li>Otherwise, the methods will only be called in the order given above.
- *   <li>{@link #mailFrom(ParsedCommandLine, SmtpSession)} and {@link #complete(SmtpSession)} will
- *       be called only once.
- *   <li>{@link #rcptTo(ParsedCommandLine, SmtpSession)}, {@link #writeLine(byte[], int, int)}, and
- *       {@link #dispose()} may be called any number of times.
+ *   <li>{@link #mailFrom(ParsedCommandLine, SmtpSession)} will be called only once, and so will
+ *       either {@link #complete(SmtpSession)} or {@link #completeAsync(SmtpSession, Executor)}.
+ *   <li>{@link #rcptTo(ParsedCommandLine, SmtpSession)}, {@link #writeLine(byte[], int, int)},
+ *       {@link #writeChunk(ByteBuffer)}, and {@link #dispose()} may be called any number of times.
  * </ul>
  *
  * @author jhumphreys
@@ -96,6 +101,65 @@ public interface MailObject {
   /** Handle a line of data. Should end in \r\n. */
   void writeLine(byte[] line, int offset, int length) throws IOException;
 
+  /**
+   * Handle one or more complete lines of data. Always ends in \r\n. This is what the framework
+   * actually calls. Transports that read message data in bulk pass many lines at once.
+   *
+   * <p>The buffer is a view onto the network buffer and is only valid until this method returns.
+   * Don't modify its content or keep a reference to it.
+   *
+   * <p>The default implementation splits the data into lines and passes each one to {@link
+   * #writeLine(byte[], int, int)}, without a copy if the buffer is backed by an accessible array.
+   * Override it if you don't care about line boundaries (e.g. you just append the data to a file)
+   * and want to avoid the per-line calls and, for direct buffers, the copy.
+   *
+   * @param data The remaining bytes of the buffer are the data.
+   * @since 1.0.8
+   */
+  default void writeLine(ByteBuffer data) throws IOException {
+    byte[] array;
+    int start;
+    if (data.hasArray()) {
+      array = data.array();
+      start = data.arrayOffset() + data.position();
+    } else {
+      array = new byte[data.remaining()];
+      data.duplicate().get(array);
+      start = 0;
+    }
+    int end = start + data.remaining();
+    int lineStart = start;
+    for (int i = start + 1; i < end; i++) {
+      if (array[i] == '\n' && array[i - 1] == '\r' && i > lineStart) {
+        writeLine(array, lineStart, i + 1 - lineStart);
+        lineStart = i + 1;
+      }
+    }
+    if (lineStart < end) {
+      // Not expected, but don't lose data that lacks a final CRLF
+      writeLine(array, lineStart, end - lineStart);
+    }
+  }
+
+  /**
+   * Handle message data sent with the BDAT command (RFC3030). Unlike {@link
+   * #writeLine(ByteBuffer)}, the data is whatever octets the client put in the chunk: it may start
+   * or end in the middle of a line (even between the CR and the LF), and if the client declared
+   * BODY=BINARYMIME it needn't be made of lines at all.
+   *
+   * <p>The buffer is a view onto the network buffer and is only valid until this method returns.
+   * Don't modify its content or keep a reference to it.
+   *
+   * <p>The default implementation passes the data to {@link #writeLine(ByteBuffer)}.
+   * Implementations that care about line boundaries should override it.
+   *
+   * @param data The remaining bytes of the buffer are the data.
+   * @since 1.0.8
+   */
+  default void writeChunk(ByteBuffer data) throws IOException {
+    writeLine(data);
+  }
+
   // TODO: document some guarantees about what will or won't be done by the framework after
   // complete()
   // is called.
@@ -110,6 +174,27 @@ public interface MailObject {
    */
   Reply complete(SmtpSession session);
 
+  /**
+   * Called instead of {@link #complete(SmtpSession)} when the server has been configured with an
+   * executor for completing mail objects (see {@link ServerConfig.Builder#withCompletionExecutor}).
+   * The reply to the end of data isn't sent, and nothing more is read from the client, until the
+   * returned stage completes. Meanwhile the I/O thread is free to serve other sessions.
+   *
+   * <p>The default implementation runs {@link #complete(SmtpSession)} on the executor. Override it
+   * if the work is naturally asynchronous already (e.g. handing off to a queue that returns a
+   * future), so as not to tie up an executor thread.
+   *
+   * <p>{@link #dispose()} is called once the stage completes.
+   *
+   * @param session The current SmtpSession.
+   * @param executor The executor configured for completing mail objects.
+   * @return A stage that completes with the same reply {@link #complete(SmtpSession)} would return.
+   * @since 1.0.8
+   */
+  default CompletionStage<Reply> completeAsync(SmtpSession session, Executor executor) {
+    return CompletableFuture.supplyAsync(() -> complete(session), executor);
+  }
+
   /**
    * Clean up any resources that were allocated to handle the mail object. The framework will try to
    * call this at least once for each mail object, but may call it more than once, so be sure it is
@@ -18,13 +18,24 @@
 
 package net.mailific.server;
 
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslProvider;
 import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import net.mailific.server.commands.CommandHandler;
 import net.mailific.server.extension.Extension;
 import net.mailific.server.extension.starttls.StartTls;
+import net.mailific.server.netty.Transport;
+import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSessionFactory;
 import net.mailific.server.session.SmtpSessionFactoryImp;
 
@@ -39,17 +50,57 @@ import net.mailific.server.session.SmtpSessionFactoryImp;
  * the extensions. However, if you have your own extension implementation , just add it to the
  * extensions yourself, and it will be used instead.
  *
+ * <p>The host, port, TLS cert and SessionFactory describe the server's first listener. More can be
+ * added with {@link Builder#withAdditionalListener(ListenerConfig)}.
+ *
  * @author jhumphreys
  * @since 1.0.0
  */
 public class ServerConfig {
 
+  public static final long DEFAULT_DATA_LOW_WATER_MARK = 32 * 1024;
+  public static final long DEFAULT_DATA_HIGH_WATER_MARK = 64 * 1024;
+  public static final int DEFAULT_SNI_CACHE_SIZE = 1000;
+  public static final int DEFAULT_MAX_LINE_LENGTH = 2048;
+  public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+  public static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(15);
+
   private final String listenHost;
   private final int listenPort;
   private final File tlsCert;
   private final File tlsCertKey;
   private final String tlsCertPassword;
+  private final boolean implicitTls;
+  private final File sniCertDirectory;
+  private final int sniCacheSize;
+  private final boolean proxyProtocol;
+  private final SslProvider sslProvider;
+  private final long tlsSessionCacheSize;
+  private final long tlsSessionTimeout;
+  private final Duration tlsTicketKeyRotation;
+  private final Executor tlsTaskExecutor;
+  private final Duration tlsCertCheckInterval;
+  private final Transport transport;
+  private final int bossThreads;
+  private final int workerThreads;
+  private final int acceptors;
+  private final int backlog;
+  private final ThreadFactory bossThreadFactory;
+  private final ThreadFactory workerThreadFactory;
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
+  private final Duration eventLoopLagSampling;
+  private final Executor completionExecutor;
+  private final Executor dataExecutor;
+  private final long dataLowWaterMark;
+  private final long dataHighWaterMark;
+  private final int maxCommandLineLength;
+  private final int maxDataLineLength;
+  private final Duration idleTimeout;
+  private final Map<SessionState, Duration> idleTimeouts;
+  private final Duration drainTimeout;
   private final SmtpSessionFactory sessionFactory;
+  private final List<ListenerConfig> listeners;
 
   private ServerConfig(Builder builder) {
     this.listenHost = builder.listenHost;
@@ -57,17 +108,67 @@ public class ServerConfig {
     this.tlsCert = builder.tlsCert;
     this.tlsCertKey = builder.tlsCertKey;
     this.tlsCertPassword = builder.tlsCertPassword;
+    this.implicitTls = builder.implicitTls;
+    this.sniCertDirectory = builder.sniCertDirectory;
+    this.sniCacheSize = builder.sniCacheSize;
+    this.proxyProtocol = builder.proxyProtocol;
+    this.sslProvider = builder.sslProvider;
+    this.tlsSessionCacheSize = builder.tlsSessionCacheSize;
+    this.tlsSessionTimeout = builder.tlsSessionTimeout;
+    this.tlsTicketKeyRotation = builder.tlsTicketKeyRotation;
+    this.tlsTaskExecutor = builder.tlsTaskExecutor;
+    this.tlsCertCheckInterval = builder.tlsCertCheckInterval;
+    this.transport = builder.transport;
+    this.bossThreads = builder.bossThreads;
+    this.workerThreads = builder.workerThreads;
+    this.acceptors = builder.acceptors;
+    this.backlog = builder.backlog;
+    this.bossThreadFactory = builder.bossThreadFactory;
+    this.workerThreadFactory = builder.workerThreadFactory;
+    this.bossGroup = builder.bossGroup;
+    this.workerGroup = builder.workerGroup;
+    this.eventLoopLagSampling = builder.eventLoopLagSampling;
+    this.completionExecutor = builder.completionExecutor;
+    this.dataExecutor = builder.dataExecutor;
+    this.dataLowWaterMark = builder.dataLowWaterMark;
+    this.dataHighWaterMark = builder.dataHighWaterMark;
+    this.maxCommandLineLength = builder.maxCommandLineLength;
+    this.maxDataLineLength = builder.maxDataLineLength;
+    this.idleTimeout = builder.idleTimeout;
+    this.idleTimeouts = Collections.unmodifiableMap(new HashMap<>(builder.idleTimeouts));
+    this.drainTimeout = builder.drainTimeout;
     if (builder.sessionFactory != null) {
+      if (completionExecutor != null) {
+        throw new IllegalArgumentException(
+            "A completion executor can't be applied to a supplied SessionFactory. "
+                + "Give it to the SessionFactory instead.");
+      }
       this.sessionFactory = builder.sessionFactory;
     } else {
-      if (this.tlsCert != null) {
+      if (this.tlsCert != null && !implicitTls) {
         builder.extensions.putIfAbsent(StartTls.NAME, new StartTls());
       }
       this.sessionFactory =
           new SmtpSessionFactoryImp(
               new SmtpCommandMap(builder.commandHandlers, builder.connectHandler),
-              builder.extensions.values());
+              builder.extensions.values(),
+              completionExecutor);
     }
+    List<ListenerConfig> allListeners = new ArrayList<>();
+    allListeners.add(
+        ListenerConfig.builder()
+            .withListenHost(listenHost)
+            .withListenPort(listenPort)
+            .withTlsCert(tlsCert)
+            .withTlsCertKey(tlsCertKey)
+            .withTlsCertPassword(tlsCertPassword)
+            .withImplicitTls(implicitTls)
+            .withSniCertDirectory(sniCertDirectory)
+            .withProxyProtocol(proxyProtocol)
+            .withSessionFactory(sessionFactory)
+            .build());
+    allListeners.addAll(builder.additionalListeners);
+    this.listeners = Collections.unmodifiableList(allListeners);
   }
 
   public String getListenHost() {
@@ -90,10 +191,233 @@ public class ServerConfig {
     return tlsCertPassword;
   }
 
+  /**
+   * @return true if connections to the first listener are TLS from the start. See {@link
+   *     Builder#withImplicitTls(boolean)}.
+   */
+  public boolean isImplicitTls() {
+    return implicitTls;
+  }
+
+  /**
+   * @return The first listener's directory of certs to choose from by host name, or null. See
+   *     {@link Builder#withSniCertDirectory(File)}.
+   */
+  public File getSniCertDirectory() {
+    return sniCertDirectory;
+  }
+
+  /**
+   * @return How many SslContexts built from SNI cert directories to keep, for each listener.
+   */
+  public int getSniCacheSize() {
+    return sniCacheSize;
+  }
+
+  /**
+   * @return true if connections to the first listener start with a PROXY protocol header. See
+   *     {@link Builder#withProxyProtocol(boolean)}.
+   */
+  public boolean isProxyProtocol() {
+    return proxyProtocol;
+  }
+
+  /**
+   * @return The TLS implementation requested, or null for the JDK's.
+   */
+  public SslProvider getSslProvider() {
+    return sslProvider;
+  }
+
+  /**
+   * @return The maximum number of TLS sessions to cache for resumption, or 0 for the provider's
+   *     default.
+   */
+  public long getTlsSessionCacheSize() {
+    return tlsSessionCacheSize;
+  }
+
+  /**
+   * @return How long, in seconds, cached TLS sessions can be resumed for, or 0 for the provider's
+   *     default.
+   */
+  public long getTlsSessionTimeout() {
+    return tlsSessionTimeout;
+  }
+
+  /**
+   * @return How often TLS session ticket keys are replaced, or null to leave ticket keys to the
+   *     provider.
+   */
+  public Duration getTlsTicketKeyRotation() {
+    return tlsTicketKeyRotation;
+  }
+
+  /**
+   * @return The executor the expensive parts of TLS handshakes run on, or null if they run on the
+   *     I/O thread.
+   */
+  public Executor getTlsTaskExecutor() {
+    return tlsTaskExecutor;
+  }
+
+  /**
+   * @return How often to check the TLS cert files for changes, or null not to.
+   */
+  public Duration getTlsCertCheckInterval() {
+    return tlsCertCheckInterval;
+  }
+
+  /**
+   * @return The transport requested for the server, or null if it should be chosen automatically.
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  /**
+   * @return The number of threads the server should create for accepting connections, or 0 for
+   *     Netty's default.
+   */
+  public int getBossThreads() {
+    return bossThreads;
+  }
+
+  /**
+   * @return The number of threads the server should create for handling connections, or 0 for
+   *     Netty's default.
+   */
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * @return How many server channels to bind on each listener's port. See {@link
+   *     Builder#withAcceptors(int)}.
+   */
+  public int getAcceptors() {
+    return acceptors;
+  }
+
+  /**
+   * @return The SO_BACKLOG for each server channel, or 0 for Netty's default.
+   */
+  public int getBacklog() {
+    return backlog;
+  }
+
+  /**
+   * @return The factory for threads accepting connections, or null for Netty's default.
+   */
+  public ThreadFactory getBossThreadFactory() {
+    return bossThreadFactory;
+  }
+
+  /**
+   * @return The factory for threads handling connections, or null for Netty's default.
+   */
+  public ThreadFactory getWorkerThreadFactory() {
+    return workerThreadFactory;
+  }
+
+  /**
+   * @return An application-supplied group to accept connections on, or null if the server should
+   *     create its own.
+   */
+  public EventLoopGroup getBossGroup() {
+    return bossGroup;
+  }
+
+  /**
+   * @return An application-supplied group to handle connections on, or null if the server should
+   *     create its own.
+   */
+  public EventLoopGroup getWorkerGroup() {
+    return workerGroup;
+  }
+
+  /**
+   * @return How often to measure the lag of each worker event loop, or null not to.
+   */
+  public Duration getEventLoopLagSampling() {
+    return eventLoopLagSampling;
+  }
+
+  /**
+   * @return The executor mail objects are completed on, or null if they're completed on the I/O
+   *     thread.
+   */
+  public Executor getCompletionExecutor() {
+    return completionExecutor;
+  }
+
+  /**
+   * @return The executor message data is written on, or null if it's written on the I/O thread.
+   */
+  public Executor getDataExecutor() {
+    return dataExecutor;
+  }
+
+  public long getDataLowWaterMark() {
+    return dataLowWaterMark;
+  }
+
+  public long getDataHighWaterMark() {
+    return dataHighWaterMark;
+  }
+
+  /**
+   * @return The longest command line accepted, not counting the CRLF. See {@link
+   *     Builder#withMaxLineLengths(int, int)}.
+   */
+  public int getMaxCommandLineLength() {
+    return maxCommandLineLength;
+  }
+
+  /**
+   * @return The longest line of message data accepted, not counting the CRLF. See {@link
+   *     Builder#withMaxLineLengths(int, int)}.
+   */
+  public int getMaxDataLineLength() {
+    return maxDataLineLength;
+  }
+
+  /**
+   * @return How long a connection may be idle in states that don't have their own timeout.
+   */
+  public Duration getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * @return The states that have their own idle timeouts. See {@link
+   *     Builder#withIdleTimeout(SessionState, Duration)}.
+   */
+  public Map<SessionState, Duration> getIdleTimeouts() {
+    return idleTimeouts;
+  }
+
+  /**
+   * @return How long shutdown waits for transactions in progress before closing their connections.
+   */
+  public Duration getDrainTimeout() {
+    return drainTimeout;
+  }
+
   public SmtpSessionFactory getSessionFactory() {
     return sessionFactory;
   }
 
+  /**
+   * @return Every endpoint the server should listen on. The first is the one described by this
+   *     config's own host, port, TLS cert and SessionFactory. Any added with {@link
+   *     Builder#withAdditionalListener(ListenerConfig)} follow.
+   * @since 1.0.8
+   */
+  public List<ListenerConfig> getListeners() {
+    return listeners;
+  }
+
   /**
    * Creates builder to build {@link ServerConfig}.
    *
@@ -114,8 +438,38 @@ public class ServerConfig {
     private File tlsCert;
     private File tlsCertKey;
     private String tlsCertPassword;
+    private boolean implicitTls;
+    private File sniCertDirectory;
+    private int sniCacheSize = DEFAULT_SNI_CACHE_SIZE;
+    private boolean proxyProtocol;
+    private SslProvider sslProvider;
+    private long tlsSessionCacheSize;
+    private long tlsSessionTimeout;
+    private Duration tlsTicketKeyRotation;
+    private Executor tlsTaskExecutor;
+    private Duration tlsCertCheckInterval;
+    private Transport transport;
+    private int bossThreads;
+    private int workerThreads;
+    private int acceptors = 1;
+    private int backlog;
+    private ThreadFactory bossThreadFactory;
+    private ThreadFactory workerThreadFactory;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Duration eventLoopLagSampling;
+    private Executor completionExecutor;
+    private Executor dataExecutor;
+    private long dataLowWaterMark = DEFAULT_DATA_LOW_WATER_MARK;
+    private long dataHighWaterMark = DEFAULT_DATA_HIGH_WATER_MARK;
+    private int maxCommandLineLength = DEFAULT_MAX_LINE_LENGTH;
+    private int maxDataLineLength = DEFAULT_MAX_LINE_LENGTH;
+    private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private Map<SessionState, Duration> idleTimeouts = new HashMap<>();
+    private Duration drainTimeout = DEFAULT_DRAIN_TIMEOUT;
     private SmtpSessionFactory sessionFactory;
     private Map<String, Extension> extensions = new HashMap<>();
+    private List<ListenerConfig> additionalListeners = new ArrayList<>();
     private Collection<CommandHandler> commandHandlers;
     private CommandHandler connectHandler;
 
@@ -146,6 +500,443 @@ public class ServerConfig {
       return this;
     }
 
+    /**
+     * Optional. If true, the TLS handshake starts as soon as a client connects, before the
+     * greeting, as on the SMTPS submission port 465 (RFC 8314). The StartTls extension isn't added
+     * automatically in that case. Requires a TLS cert. Defaults to false.
+     *
+     * @param implicitTls whether connections are TLS from the start.
+     */
+    public Builder withImplicitTls(boolean implicitTls) {
+      this.implicitTls = implicitTls;
+      return this;
+    }
+
+    /**
+     * Optional. Lets one listener serve many domains, each with its own cert. When a client names
+     * the host it wants with SNI (RFC 6066), the cert for that host is used. Clients that name a
+     * host with no cert here, or no host at all, get the TLS cert set with {@link
+     * #withTlsCert(File)}, which is required.
+     *
+     * <p>Each cert chain is a PEM file named {@code <name>.pem}, with its PKCS8 key in {@code
+     * <name>.key}. Keys are decrypted with the password set by {@link
+     * #withTlsCertPassword(String)}, if any. Each cert covers the DNS names in its subject
+     * alternative names (or its CN, if it has none), and a wildcard like {@code *.example.com}
+     * covers one extra label. The certs are read at startup, but a host's SslContext is only built
+     * when a client first asks for it. The most recently used are kept; see {@link
+     * #withSniCacheSize(int)}.
+     *
+     * <p>The directory is scanned again by {@link
+     * net.mailific.server.netty.NettySmtpServer#reloadTlsCerts()}, and when any file in it changes
+     * if {@link #withTlsCertCheckInterval(Duration)} is set.
+     *
+     * @param sniCertDirectory directory of certs to choose from by host name.
+     */
+    public Builder withSniCertDirectory(File sniCertDirectory) {
+      this.sniCertDirectory = sniCertDirectory;
+      return this;
+    }
+
+    /**
+     * Optional. Defaults to {@value ServerConfig#DEFAULT_SNI_CACHE_SIZE}.
+     *
+     * @param sniCacheSize How many SslContexts built from each listener's SNI cert directory to
+     *     keep. When a client asks for a host whose context has been dropped, it's built again.
+     * @throws IllegalArgumentException if sniCacheSize is less than 1.
+     */
+    public Builder withSniCacheSize(int sniCacheSize) {
+      if (sniCacheSize < 1) {
+        throw new IllegalArgumentException("sniCacheSize must be positive: " + sniCacheSize);
+      }
+      this.sniCacheSize = sniCacheSize;
+      return this;
+    }
+
+    /**
+     * Optional. Set this when the server sits behind a load balancer or proxy that speaks the
+     * HAProxy PROXY protocol. Each connection must then start with a version 1 (text) or version 2
+     * (binary) PROXY header, which is read before the greeting is sent, and {@link
+     * net.mailific.server.session.SmtpSession#getRemoteAddress()} returns the client address it
+     * gives. A connection that doesn't start with a valid header is closed. Don't set this if
+     * clients can connect directly, since they could then claim any address. Defaults to false.
+     *
+     * @param proxyProtocol whether connections start with a PROXY protocol header.
+     */
+    public Builder withProxyProtocol(boolean proxyProtocol) {
+      this.proxyProtocol = proxyProtocol;
+      return this;
+    }
+
+    /**
+     * Optional. {@link SslProvider#OPENSSL} is much cheaper per handshake than the JDK's TLS, but
+     * needs netty-tcnative (e.g. netty-tcnative-boringssl-static) on the classpath. If the
+     * requested provider isn't available at startup, the server logs a warning and uses the JDK.
+     * Defaults to the JDK.
+     *
+     * @param sslProvider TLS implementation to use.
+     */
+    public Builder withSslProvider(SslProvider sslProvider) {
+      this.sslProvider = sslProvider;
+      return this;
+    }
+
+    /**
+     * Optional. Tune server-side TLS session resumption, which lets a returning client skip the
+     * expensive part of the handshake.
+     *
+     * @param cacheSize Maximum number of sessions to cache. 0 (the default) leaves it to the
+     *     provider.
+     * @param timeoutSeconds How long a cached session can be resumed for. 0 (the default) leaves it
+     *     to the provider.
+     * @throws IllegalArgumentException if either is negative.
+     */
+    public Builder withTlsSessionCache(long cacheSize, long timeoutSeconds) {
+      if (cacheSize < 0 || timeoutSeconds < 0) {
+        throw new IllegalArgumentException(
+            "Invalid TLS session cache: size=" + cacheSize + ", timeout=" + timeoutSeconds);
+      }
+      this.tlsSessionCacheSize = cacheSize;
+      this.tlsSessionTimeout = timeoutSeconds;
+      return this;
+    }
+
+    /**
+     * Optional. Only takes effect with {@link SslProvider#OPENSSL}. The server generates random TLS
+     * session ticket keys, keeps them in memory only, and replaces them at this interval. The
+     * previous key is still accepted, so a ticket is good for between one and two intervals. If not
+     * set, ticket keys are left to the provider.
+     *
+     * @param interval How often to replace the keys.
+     * @throws IllegalArgumentException if the interval isn't positive.
+     */
+    public Builder withTlsTicketKeyRotation(Duration interval) {
+      if (interval != null && (interval.isZero() || interval.isNegative())) {
+        throw new IllegalArgumentException("Ticket key rotation interval must be positive.");
+      }
+      this.tlsTicketKeyRotation = interval;
+      return this;
+    }
+
+    /**
+     * Optional. If set, the CPU-heavy parts of each TLS handshake (key exchange, signing with the
+     * certificate key) run on this executor, so a burst of handshakes doesn't hold up the other
+     * sessions on an I/O thread. A bounded pool, e.g. {@link
+     * java.util.concurrent.Executors#newFixedThreadPool(int)}, keeps handshakes from taking over
+     * the CPU. If not set, handshakes run entirely on the I/O thread.
+     *
+     * <p>The server does not shut the executor down.
+     *
+     * @param tlsTaskExecutor executor to run TLS handshake work on.
+     */
+    public Builder withTlsTaskExecutor(Executor tlsTaskExecutor) {
+      this.tlsTaskExecutor = tlsTaskExecutor;
+      return this;
+    }
+
+    /**
+     * Optional. If set, the server checks the TLS cert and key files of every listener at this
+     * interval, and reloads them if either has been modified. New TLS sessions then use the new
+     * cert. Existing connections are unaffected. If the files can't be loaded (e.g. because only
+     * one has been replaced so far), the current cert is kept and the server tries again at the
+     * next check. Certs can also be reloaded on demand with {@link
+     * net.mailific.server.netty.NettySmtpServer#reloadTlsCerts()}.
+     *
+     * @param interval How often to check the files.
+     * @throws IllegalArgumentException if the interval isn't positive.
+     */
+    public Builder withTlsCertCheckInterval(Duration interval) {
+      if (interval != null && (interval.isZero() || interval.isNegative())) {
+        throw new IllegalArgumentException("TLS cert check interval must be positive.");
+      }
+      this.tlsCertCheckInterval = interval;
+      return this;
+    }
+
+    /**
+     * Optional. If not set (or set to null), {@link Transport#preferred()} is used. If the
+     * requested transport isn't available at startup, the server logs a warning and falls back to
+     * the preferred one.
+     *
+     * @param transport the Netty transport the server should run on.
+     */
+    public Builder withTransport(Transport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Optional. Ignored if a boss group is supplied with {@link #withBossGroup(EventLoopGroup)}.
+     *
+     * @param bossThreads Number of threads to accept connections on. 0 (the default) leaves it to
+     *     Netty.
+     * @throws IllegalArgumentException if bossThreads is negative.
+     */
+    public Builder withBossThreads(int bossThreads) {
+      if (bossThreads < 0) {
+        throw new IllegalArgumentException("bossThreads must not be negative: " + bossThreads);
+      }
+      this.bossThreads = bossThreads;
+      return this;
+    }
+
+    /**
+     * Optional. Ignored if a worker group is supplied with {@link
+     * #withWorkerGroup(EventLoopGroup)}.
+     *
+     * @param workerThreads Number of threads to handle connections on. 0 (the default) leaves it to
+     *     Netty, which uses twice the number of available processors.
+     * @throws IllegalArgumentException if workerThreads is negative.
+     */
+    public Builder withWorkerThreads(int workerThreads) {
+      if (workerThreads < 0) {
+        throw new IllegalArgumentException("workerThreads must not be negative: " + workerThreads);
+      }
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    /**
+     * Optional. Bind this many server channels on each listener's port, with SO_REUSEPORT, so that
+     * the kernel spreads incoming connections across them. Each channel is accepted on by its own
+     * boss event loop, so accepting stops being limited to one thread during connection storms. To
+     * get the most out of it, have at least as many boss threads as acceptors.
+     *
+     * <p>Only the EPOLL and IO_URING transports support it. On NIO, the server logs a warning and
+     * binds one channel per listener. Defaults to 1.
+     *
+     * @param acceptors Number of server channels per listener.
+     * @throws IllegalArgumentException if acceptors isn't positive.
+     */
+    public Builder withAcceptors(int acceptors) {
+      if (acceptors < 1) {
+        throw new IllegalArgumentException("acceptors must be positive: " + acceptors);
+      }
+      this.acceptors = acceptors;
+      return this;
+    }
+
+    /**
+     * Optional. The SO_BACKLOG for each server channel: how many connections the kernel queues up
+     * that haven't been accepted yet. The kernel may cap it (e.g. at net.core.somaxconn on Linux).
+     *
+     * @param backlog The backlog. 0 (the default) leaves it to Netty, which uses the OS's maximum.
+     * @throws IllegalArgumentException if backlog is negative.
+     */
+    public Builder withBacklog(int backlog) {
+      if (backlog < 0) {
+        throw new IllegalArgumentException("backlog must not be negative: " + backlog);
+      }
+      this.backlog = backlog;
+      return this;
+    }
+
+    /**
+     * Optional. Ignored if a boss group is supplied with {@link #withBossGroup(EventLoopGroup)}.
+     *
+     * @param bossThreadFactory Creates the threads that accept connections. Handy for naming them.
+     */
+    public Builder withBossThreadFactory(ThreadFactory bossThreadFactory) {
+      this.bossThreadFactory = bossThreadFactory;
+      return this;
+    }
+
+    /**
+     * Optional. Ignored if a worker group is supplied with {@link
+     * #withWorkerGroup(EventLoopGroup)}.
+     *
+     * @param workerThreadFactory Creates the threads that handle connections.
+     */
+    public Builder withWorkerThreadFactory(ThreadFactory workerThreadFactory) {
+      this.workerThreadFactory = workerThreadFactory;
+      return this;
+    }
+
+    /**
+     * Optional. Accept connections on an existing event loop group instead of one created by the
+     * server, e.g. to share it with other Netty services or other servers. The server won't shut it
+     * down. It may be the same group passed to {@link #withWorkerGroup(EventLoopGroup)}.
+     *
+     * <p>The server runs on whichever {@link Transport} the group was built for, regardless of
+     * {@link #withTransport(Transport)}.
+     *
+     * @param bossGroup group to accept connections on.
+     */
+    public Builder withBossGroup(EventLoopGroup bossGroup) {
+      this.bossGroup = bossGroup;
+      return this;
+    }
+
+    /**
+     * Optional. Handle connections on an existing event loop group instead of one created by the
+     * server. The server won't shut it down, but does close its own connections when it's shut
+     * down. See also {@link #withBossGroup(EventLoopGroup)}.
+     *
+     * @param workerGroup group to handle connections on.
+     */
+    public Builder withWorkerGroup(EventLoopGroup workerGroup) {
+      this.workerGroup = workerGroup;
+      return this;
+    }
+
+    /**
+     * Optional. If set, the server measures how late tasks run on each worker event loop at this
+     * interval. The figures are available from {@link
+     * net.mailific.server.netty.NettySmtpServer#getEventLoopLagMonitor()}.
+     *
+     * @param interval How often to measure each loop.
+     * @throws IllegalArgumentException if the interval isn't positive.
+     */
+    public Builder withEventLoopLagSampling(Duration interval) {
+      if (interval != null && (interval.isZero() || interval.isNegative())) {
+        throw new IllegalArgumentException("Event loop lag sampling interval must be positive.");
+      }
+      this.eventLoopLagSampling = interval;
+      return this;
+    }
+
+    /**
+     * Optional. If set, {@link MailObject#completeAsync(net.mailific.server.session.SmtpSession,
+     * Executor)} is used to complete each mail object, and the final reply to the message is sent
+     * when it finishes. Meanwhile the session reads no more commands, but the I/O thread is free to
+     * serve other sessions. Use this when completing a mail object can block (e.g. on a disk write
+     * or a relay). If not set, mail objects are completed on the I/O thread.
+     *
+     * <p>The server does not shut the executor down.
+     *
+     * <p>Can't be used with {@link #withSessionFactory(SmtpSessionFactory)}: {@link #build()}
+     * throws IllegalArgumentException. Give the executor to the SessionFactory instead (see {@link
+     * SmtpSessionFactoryImp#SmtpSessionFactoryImp(net.mailific.server.LineConsumer, Collection,
+     * Executor)}).
+     *
+     * @param completionExecutor executor to complete mail objects on.
+     */
+    public Builder withCompletionExecutor(Executor completionExecutor) {
+      this.completionExecutor = completionExecutor;
+      return this;
+    }
+
+    /**
+     * Optional. If set, message data (from DATA or BDAT) is passed to the MailObject on this
+     * executor rather than on the I/O thread, so a slow sink doesn't hold up other sessions. Each
+     * session's data is still written in order, by one thread at a time. If a session's data backs
+     * up past the high water mark (see {@link #withDataWaterMarks(long, long)}), the server stops
+     * reading from that connection until it drains. If not set, data is written on the I/O thread.
+     *
+     * <p>The server does not shut the executor down.
+     *
+     * @param dataExecutor executor to write message data on.
+     */
+    public Builder withDataExecutor(Executor dataExecutor) {
+      this.dataExecutor = dataExecutor;
+      return this;
+    }
+
+    /**
+     * Optional. Only used with {@link #withDataExecutor(Executor)}. Defaults to 32 KiB and 64 KiB.
+     *
+     * @param lowWaterMark Reading from a connection resumes when its queued data drains to this
+     *     many bytes.
+     * @param highWaterMark Reading from a connection stops when more than this many bytes of its
+     *     data are queued.
+     * @throws IllegalArgumentException if lowWaterMark is negative or greater than highWaterMark.
+     */
+    public Builder withDataWaterMarks(long lowWaterMark, long highWaterMark) {
+      if (lowWaterMark < 0 || lowWaterMark > highWaterMark) {
+        throw new IllegalArgumentException(
+            "Invalid water marks: low=" + lowWaterMark + ", high=" + highWaterMark);
+      }
+      this.dataLowWaterMark = lowWaterMark;
+      this.dataHighWaterMark = highWaterMark;
+      return this;
+    }
+
+    /**
+     * Optional. Both default to {@value ServerConfig#DEFAULT_MAX_LINE_LENGTH}. Neither counts the
+     * CRLF, so RFC5321's limits of 512 for command lines and 1000 for text lines are 510 and 998
+     * here. A bit of slack is kind to clients, and extensions like AUTH need longer commands.
+     *
+     * <p>An over-long command line is discarded as it arrives, and answered with {@link
+     * net.mailific.server.session.Reply#_500_LINE_TOO_LONG}. An over-long line of message data is
+     * discarded too, and the standard DATA handling then rejects the message with the same reply
+     * once it ends. BDAT chunks aren't split into lines, so neither limit applies to them.
+     *
+     * @param maxCommandLineLength Longest command line accepted.
+     * @param maxDataLineLength Longest line of message data accepted.
+     * @throws IllegalArgumentException if either is less than 1.
+     */
+    public Builder withMaxLineLengths(int maxCommandLineLength, int maxDataLineLength) {
+      if (maxCommandLineLength < 1 || maxDataLineLength < 1) {
+        throw new IllegalArgumentException(
+            "Invalid line lengths: command="
+                + maxCommandLineLength
+                + ", data="
+                + maxDataLineLength);
+      }
+      this.maxCommandLineLength = maxCommandLineLength;
+      this.maxDataLineLength = maxDataLineLength;
+      return this;
+    }
+
+    /**
+     * Optional. How long a client may go without sending anything before the connection is closed,
+     * in states that don't have their own timeout. Defaults to 5 minutes, as recommended by
+     * RFC5321.4.5.3.2.7.
+     *
+     * @param idleTimeout The timeout.
+     * @throws IllegalArgumentException if the timeout isn't positive.
+     */
+    public Builder withIdleTimeout(Duration idleTimeout) {
+      this.idleTimeout = checkIdleTimeout(idleTimeout);
+      return this;
+    }
+
+    /**
+     * Optional. How long a client may go without sending anything while its session is in the given
+     * state. Idle clients hold a socket and a session each, so it can pay to be less patient than
+     * RFC5321 asks in the states where a well-behaved client never pauses. E.g. {@link
+     * net.mailific.server.session.StandardStates#CONNECTED} covers the wait for the first command
+     * after the greeting, AFTER_MAIL and AFTER_RCPT the waits for RCPT and DATA, and READING_DATA
+     * the gaps between blocks of message data. While the server is working out a reply, the client
+     * isn't expected to send anything, but the clock keeps running.
+     *
+     * <p>The deadline is counted from the last time anything was read, so when a session moves to a
+     * state with a shorter timeout, the connection may be closed soon after. Before there's a
+     * session (e.g. while waiting for a PROXY header), the timeout for {@link
+     * net.mailific.server.session.StandardStates#BEFORE_CONNECT} applies, if set. May be called
+     * once for each state.
+     *
+     * @param state The session state.
+     * @param idleTimeout The timeout for that state.
+     * @throws IllegalArgumentException if the timeout isn't positive.
+     */
+    public Builder withIdleTimeout(SessionState state, Duration idleTimeout) {
+      this.idleTimeouts.put(Objects.requireNonNull(state), checkIdleTimeout(idleTimeout));
+      return this;
+    }
+
+    private static Duration checkIdleTimeout(Duration idleTimeout) {
+      if (idleTimeout == null || idleTimeout.isZero() || idleTimeout.isNegative()) {
+        throw new IllegalArgumentException("Idle timeout must be positive: " + idleTimeout);
+      }
+      return idleTimeout;
+    }
+
+    /**
+     * Optional. When the server is shut down, it stops listening and closes each connection with a
+     * 421 as soon as it has no mail transaction in progress. This is how long it waits for the
+     * transactions to finish before closing the rest anyway. Defaults to 15 seconds.
+     *
+     * @param drainTimeout The timeout. Zero closes all connections at once.
+     * @throws IllegalArgumentException if the timeout is negative.
+     */
+    public Builder withDrainTimeout(Duration drainTimeout) {
+      if (drainTimeout == null || drainTimeout.isNegative()) {
+        throw new IllegalArgumentException("Drain timeout must not be negative: " + drainTimeout);
+      }
+      this.drainTimeout = drainTimeout;
+      return this;
+    }
+
     /**
      * In general, you will want to specify all fields except the SessionFactory. A {@link
      * SmtpSessionFactory} will then be created for you, using the other fields. However, on the off
@@ -158,6 +949,17 @@ public class ServerConfig {
       return this;
     }
 
+    /**
+     * Optional. Listen on another endpoint too, with its own SessionFactory and TLS cert, but
+     * sharing this server's event loops and other settings. May be called more than once.
+     *
+     * @param listener the extra endpoint.
+     */
+    public Builder withAdditionalListener(ListenerConfig listener) {
+      this.additionalListeners.add(Objects.requireNonNull(listener));
+      return this;
+    }
+
     public Builder withExtensions(Collection<Extension> extensions) {
       extensions.forEach(
           e -> {
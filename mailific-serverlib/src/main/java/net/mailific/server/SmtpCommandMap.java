@@ -19,8 +19,6 @@
 package net.mailific.server;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import net.mailific.server.commands.CommandHandler;
 import net.mailific.server.session.SmtpSession;
 import net.mailific.server.session.Transition;
@@ -28,8 +26,9 @@ import net.mailific.server.session.Transition;
 /**
  * A LineConsumer that handles a number of SMTP commands.
  *
- * <p>When given a line to consume, SmtpCommandMap parses out the first word, and gives the line to
- * the CommandHandler (if any) whose {@link CommandHandler#verb()} method returns that word.
+ * <p>When given a line to consume, SmtpCommandMap matches the first word, ignoring case, and gives
+ * the line to the CommandHandler (if any) whose {@link CommandHandler#verb()} method returns that
+ * word.
  *
  * <p>If constructed with a connectHandler, then any calls to {@link #connect(SmtpSession)} will be
  * passed to that CommandHandler.
@@ -39,7 +38,7 @@ import net.mailific.server.session.Transition;
  */
 public class SmtpCommandMap implements LineConsumer {
 
-  private final Map<String, CommandHandler> map = new HashMap<>();
+  private final VerbTrie<CommandHandler> verbs = new VerbTrie<>();
   private final CommandHandler connectHandler;
 
   /**
@@ -54,12 +53,12 @@ public class SmtpCommandMap implements LineConsumer {
   }
 
   private void putCommandHandler(CommandHandler handler) {
-    map.put(handler.verb().toUpperCase(), handler);
+    verbs.put(handler.verb(), handler);
   }
 
   private CommandHandler getCommandHandlerForLine(Line line) {
-    String verb = line.getVerb();
-    return map.get(verb.toUpperCase());
+    // Works on the bytes, so the line is only decoded if the handler asks for it
+    return verbs.get(line);
   }
 
   /**
@@ -22,7 +22,7 @@ import java.util.concurrent.Future;
 import javax.net.ssl.SSLException;
 
 /**
- * An SMTP listener on a single host/port.
+ * An SMTP listener on one or more host/ports.
  *
  * @author jhumphreys
  * @since 1.0.0
@@ -37,9 +37,8 @@ public interface SmtpServer {
   public abstract Future<Void> start() throws InterruptedException, SSLException;
 
   /**
-   * Stop listening for new connections. TODO: this should allow at least an option for in-flight
-   * sessions to complete. As of now, there are no guarantees except that the server will stop
-   * listening.
+   * Stop listening for new connections, and close the existing ones as their sessions finish what
+   * they're doing. Implementations may give up waiting after a while.
    *
    * @return a Future that completes when the server is no longer listening, and all in-flight
    *     connections have finished.
@@ -0,0 +1,111 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Looks up the value for a command line's verb (its first word) by walking the line's bytes, so
+ * dispatching a command doesn't decode the line or allocate anything. Verbs match ASCII letters
+ * case-insensitively, like {@link String#equalsIgnoreCase(String)} does for them.
+ *
+ * <p>Each node's children are kept in an array covering just the range of bytes that follow it, so
+ * each step of a lookup is one array index.
+ *
+ * <p>Not thread safe while being built. Lookups may run concurrently once it's built.
+ *
+ * @param <T> The type of value stored for each verb.
+ */
+final class VerbTrie<T> {
+
+  private static final class Node<T> {
+    private int base;
+    private Node<T>[] children;
+    private T value;
+
+    Node<T> child(int b) {
+      int i = b - base;
+      return children == null || i < 0 || i >= children.length ? null : children[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    Node<T> addChild(int b) {
+      if (children == null) {
+        base = b;
+        children = new Node[1];
+      } else if (b < base) {
+        Node<T>[] grown = new Node[children.length + base - b];
+        System.arraycopy(children, 0, grown, base - b, children.length);
+        children = grown;
+        base = b;
+      } else if (b - base >= children.length) {
+        children = Arrays.copyOf(children, b - base + 1);
+      }
+      Node<T> child = children[b - base];
+      if (child == null) {
+        child = new Node<>();
+        children[b - base] = child;
+      }
+      return child;
+    }
+  }
+
+  private final Node<T> root = new Node<>();
+
+  /**
+   * @param verb The verb. Replaces any value already stored for it, in any case.
+   * @param value The value to find for it.
+   */
+  void put(String verb, T value) {
+    Node<T> node = root;
+    for (byte b : verb.getBytes(StandardCharsets.UTF_8)) {
+      node = node.addChild(fold(b));
+    }
+    node.value = value;
+  }
+
+  /**
+   * @param line Must end in CRLF. The verb is everything up to the first space, or the CRLF.
+   * @return The value stored for the line's verb, or null if there isn't one.
+   * @throws IndexOutOfBoundsException if the line is too short to end in CRLF.
+   */
+  T get(Line line) {
+    int end = line.length() - 2;
+    if (end < 0) {
+      throw new IndexOutOfBoundsException("Line is shorter than a CRLF: " + line.length());
+    }
+    Node<T> node = root;
+    for (int i = 0; i < end; i++) {
+      byte b = line.byteAt(i);
+      if (b == ' ') {
+        break;
+      }
+      node = node.child(fold(b));
+      if (node == null) {
+        return null;
+      }
+    }
+    return node.value;
+  }
+
+  private static int fold(byte b) {
+    return b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b & 0xFF;
+  }
+}
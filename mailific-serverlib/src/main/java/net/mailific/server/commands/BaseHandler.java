@@ -22,6 +22,7 @@ import net.mailific.server.Line;
 import net.mailific.server.session.Reply;
 import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
 import net.mailific.server.session.Transition;
 
 /**
@@ -35,20 +36,85 @@ import net.mailific.server.session.Transition;
  *
  * <p>Override {@link #handleValidCommand(SmtpSession, String)} to do the actual work.
  *
+ * <p>A handler whose validity depends only on the session state can say so by overriding {@link
+ * #validityDependsOnlyOnState()}. It is then asked once for each of the {@link StandardStates}, and
+ * the answers are looked up from then on. Subclasses that override {@link
+ * #validForSession(SmtpSession)} are always asked.
+ *
  * @author jhumphreys
  * @since 1.0.0
  */
 public abstract class BaseHandler implements CommandHandler {
 
+  // Whether validForState's answers can be looked up in validStates. Decided once, here, so a
+  // subclass that overrides validForSession (e.g. to require AUTH or TLS) is always asked.
+  private final boolean stateOnly;
+
+  // Whether the command is valid in each of the StandardStates, by ordinal. Filled in on first use,
+  // and only if stateOnly. Racing threads would fill in the same answers.
+  private volatile boolean[] validStates;
+
+  protected BaseHandler() {
+    stateOnly = validityDependsOnlyOnState() && !overridesValidForSession(getClass());
+  }
+
+  private static boolean overridesValidForSession(Class<?> c) {
+    for (; c != BaseHandler.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("validForSession", SmtpSession.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Keep looking
+      }
+    }
+    return false;
+  }
+
   @Override
   public final Transition handleCommand(SmtpSession session, Line commandLine) {
-    if (validForSession(session)) {
+    if (isValid(session)) {
       return handleValidCommand(session, commandLine == null ? null : commandLine.getStripped());
     } else {
-      return new Transition(Reply._503_BAD_SEQUENCE, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_SEQUENCE;
     }
   }
 
+  private boolean isValid(SmtpSession session) {
+    if (stateOnly) {
+      SessionState state = session.getConnectionState();
+      if (state instanceof StandardStates) {
+        boolean[] valid = validStates;
+        if (valid == null) {
+          StandardStates[] states = StandardStates.values();
+          valid = new boolean[states.length];
+          for (StandardStates s : states) {
+            valid[s.ordinal()] = validForState(s);
+          }
+          validStates = valid;
+        }
+        return valid[((StandardStates) state).ordinal()];
+      }
+    }
+    return validForSession(session);
+  }
+
+  /**
+   * Extension point. Return true if whether the command is valid depends only on the session state,
+   * and {@link #validForState(SessionState)}'s answer for each state never changes. Then it is
+   * called once per {@link StandardStates} value and the answers are reused, instead of {@link
+   * #validForSession(SmtpSession)} being called for every command.
+   *
+   * <p>The base implementation returns false. It is called once, from the constructor, so it must
+   * not depend on the subclass's fields. If the class, or any superclass below BaseHandler,
+   * overrides {@link #validForSession(SmtpSession)}, the answer is ignored and that method is still
+   * called for every command.
+   *
+   * @since 1.0.8
+   */
+  protected boolean validityDependsOnlyOnState() {
+    return false;
+  }
+
   /**
    * Process the commandLine. Called after the command has already been validated to be callable at
    * this point in the session. This is the main extension point -- override this method to do the
@@ -60,7 +126,7 @@ public abstract class BaseHandler implements CommandHandler {
    *     line was not consumed;
    */
   protected Transition handleValidCommand(SmtpSession session, String commandLine) {
-    return new Transition(Reply._250_OK, SessionState.NO_STATE_CHANGE);
+    return Transition.OK;
   }
 
   /**
@@ -41,7 +41,8 @@ public interface CommandHandler {
    * @param session The ongoing SMTP session.
    * @param commandLine The line passed from the client.
    * @return a {@link Transition} that specifies the reply to send back to the client, and the next
-   *     session state.
+   *     session state. Handlers that would otherwise block (e.g. on a remote lookup) should return
+   *     a {@link Transition#deferred(java.util.concurrent.CompletionStage) deferred} Transition.
    */
   Transition handleCommand(SmtpSession session, Line commandLine);
 
@@ -48,7 +48,7 @@ public class Data extends BaseHandler {
     if (!(commandLine.equalsIgnoreCase(DATA))) {
       // I'm assuming if we got here it at least starts with DATA, so the problem
       // must be that there are unexpected arguments
-      return new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_ARGS;
     }
     session.addLineConsumer(DATA_FILTER_KEY, new DataLineConsumer());
     session.getMailObject().prepareForData(session);
@@ -60,6 +60,11 @@ public class Data extends BaseHandler {
     return state == StandardStates.AFTER_RCPT;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return DATA;
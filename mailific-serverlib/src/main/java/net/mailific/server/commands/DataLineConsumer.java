@@ -19,12 +19,14 @@
 package net.mailific.server.commands;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.mailific.server.BulkDataConsumer;
 import net.mailific.server.Line;
 import net.mailific.server.LineConsumer;
 import net.mailific.server.session.Reply;
-import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSession;
 import net.mailific.server.session.StandardStates;
 import net.mailific.server.session.Transition;
@@ -33,10 +35,13 @@ import net.mailific.server.session.Transition;
  * LineConsumer that handles message data. Installed by the {@link Data} command handler when
  * needed.
  *
+ * <p>Also implements {@link BulkDataConsumer}, so transports that can find the end of the data
+ * themselves may hand it many lines at once.
+ *
  * @author jhumphreys
  * @since 1.0.0
  */
-public class DataLineConsumer implements LineConsumer {
+public class DataLineConsumer implements LineConsumer, BulkDataConsumer {
 
   Logger logger = Logger.getLogger(DataLineConsumer.class.getName());
 
@@ -52,40 +57,62 @@ public class DataLineConsumer implements LineConsumer {
    */
   @Override
   public Transition consume(SmtpSession session, Line line) {
-    // We'll use this to skip any leading dot
-    int startIndex = 0;
-    byte[] data = line.getLine();
-    if (data[0] == '.') {
-      if (data.length == 3) {
+    ByteBuffer data = line.getBuffer();
+    if (data.get(data.position()) == '.') {
+      if (data.remaining() == 3) {
         // There will always be a CRLF, so this must be the end-of-data command
-        session.removeLineConsumer(Data.DATA_FILTER_KEY);
-        if (errorPending()) {
-          session.clearMailObject();
-          return new Transition(pendingErrorReply, StandardStates.AFTER_EHLO);
-        } else {
-          Reply reply = Reply._554_SERVER_ERROR;
-          try {
-            reply = session.completeMailObject();
-          } catch (Exception e) {
-            logger.log(Level.SEVERE, "MAIL_COMPLETE_ERROR", e);
-          }
-          return new Transition(reply, StandardStates.AFTER_EHLO);
-        }
+        return endOfData(session);
       } else {
         // If a dot is followed by more data, skip the leading dot. See RFC5321.4.5.2
-        startIndex = 1;
+        data.position(data.position() + 1);
       }
     }
+    consumeData(session, data);
+    return Transition.DO_NOT_REPLY;
+  }
 
+  @Override
+  public void consumeData(SmtpSession session, ByteBuffer data) {
     try {
       if (!errorPending()) {
-        session.getMailObject().writeLine(data, startIndex, data.length - startIndex);
+        session.getMailObject().writeLine(data);
       }
     } catch (IOException e) {
       logger.log(Level.SEVERE, "DATA_PHASE_ERROR", e);
       pendingErrorReply = Reply._554_SERVER_ERROR;
     }
-    return new Transition(Reply.DO_NOT_REPLY, SessionState.NO_STATE_CHANGE);
+  }
+
+  @Override
+  public void lineTooLong(SmtpSession session) {
+    if (!errorPending()) {
+      pendingErrorReply = Reply._500_LINE_TOO_LONG;
+    }
+  }
+
+  @Override
+  public Transition endOfData(SmtpSession session) {
+    session.removeLineConsumer(Data.DATA_FILTER_KEY);
+    if (errorPending()) {
+      session.clearMailObject();
+      return new Transition(pendingErrorReply, StandardStates.AFTER_EHLO);
+    }
+    CompletionStage<Reply> completion;
+    try {
+      completion = session.completeMailObjectAsync();
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "MAIL_COMPLETE_ERROR", e);
+      return new Transition(Reply._554_SERVER_ERROR, StandardStates.AFTER_EHLO);
+    }
+    return Transition.deferred(
+        completion.handle(
+            (reply, e) -> {
+              if (e != null) {
+                logger.log(Level.SEVERE, "MAIL_COMPLETE_ERROR", e);
+                reply = Reply._554_SERVER_ERROR;
+              }
+              return new Transition(reply, StandardStates.AFTER_EHLO);
+            }));
   }
 
   private boolean errorPending() {
@@ -26,7 +26,6 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import net.mailific.server.Parameters;
 import net.mailific.server.extension.Extension;
-import net.mailific.server.session.Reply;
 import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSession;
 import net.mailific.server.session.StandardStates;
@@ -83,7 +82,7 @@ public class Ehlo extends BaseHandler {
     try {
       session.setEhloCommandLine(parseCommandLine(commandLine));
     } catch (ParseException e) {
-      return new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_ARGS;
     }
     return new Transition(replyBuilder.build(), StandardStates.AFTER_EHLO);
   }
@@ -173,6 +172,11 @@ public class Ehlo extends BaseHandler {
     return state == StandardStates.CONNECTED;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return EHLO;
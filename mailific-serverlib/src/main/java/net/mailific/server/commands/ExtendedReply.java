@@ -47,9 +47,9 @@ public class ExtendedReply extends Reply {
     int i = 0;
     StringBuilder sb = new StringBuilder();
     while (i < size - 1) {
-      sb.append(String.format("%d-%s\r\n", getCode(), details.get(i++)));
+      sb.append(getCode()).append('-').append(details.get(i++)).append("\r\n");
     }
-    sb.append(String.format("%d %s\r\n", getCode(), details.get(i)));
+    sb.append(getCode()).append(' ').append(details.get(i)).append("\r\n");
     return sb.toString();
   }
 
@@ -78,7 +78,7 @@ public class ExtendedReply extends Reply {
       if (details.size() == 1) {
         return new Reply(code, details.get(0));
       }
-      return new ExtendedReply(code, details);
+      return new ExtendedReply(code, List.copyOf(details));
     }
   }
 }
@@ -56,6 +56,11 @@ public class Helo extends BaseHandler {
     return state == StandardStates.CONNECTED;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return HELO;
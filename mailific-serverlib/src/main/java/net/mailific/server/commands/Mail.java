@@ -70,7 +70,7 @@ public class Mail extends BaseHandler {
     } catch (ParseException e) {
       mailObject.dispose();
       // TODO Reply could describe the error better
-      return new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_ARGS;
     } catch (RuntimeException e) {
       mailObject.dispose();
       throw e;
@@ -82,6 +82,11 @@ public class Mail extends BaseHandler {
     return state == StandardStates.AFTER_EHLO;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return MAIL;
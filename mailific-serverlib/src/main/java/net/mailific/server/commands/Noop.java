@@ -18,7 +18,6 @@
 
 package net.mailific.server.commands;
 
-import net.mailific.server.session.Reply;
 import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSession;
 import net.mailific.server.session.Transition;
@@ -35,7 +34,7 @@ public class Noop extends BaseHandler {
 
   @Override
   public Transition handleValidCommand(SmtpSession session, String commandLine) {
-    return new Transition(Reply._250_OK, SessionState.NO_STATE_CHANGE);
+    return Transition.OK;
   }
 
   @Override
@@ -43,6 +42,11 @@ public class Noop extends BaseHandler {
     return true;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return NOOP;
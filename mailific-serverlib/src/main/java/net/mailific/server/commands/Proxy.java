@@ -27,8 +27,11 @@ import net.mailific.server.session.*;
  * address.
  *
  * <p>This command collects the client IP address from the PROXY command and stores it in the
- * SESSION_CLIENTIP_PROPERTY property of the session. (Perhaps at some point we should add the
- * ability to change the remote address of the SmtpSession.)
+ * SESSION_CLIENTIP_PROPERTY property of the session. It only understands version 1 of the protocol,
+ * and leaves the session's remote address as the proxy's. {@link
+ * net.mailific.server.ServerConfig.Builder#withProxyProtocol(boolean)} handles both versions before
+ * the greeting is sent, sets the session's remote address to the client's, and sets the same
+ * property, so prefer it to this command.
  */
 public class Proxy extends BaseHandler {
   public static final String SESSION_CLIENTIP_PROPERTY = "proxied-client.ip";
@@ -42,7 +45,7 @@ public class Proxy extends BaseHandler {
       var clientIp = parts[2];
       session.setProperty(SESSION_CLIENTIP_PROPERTY, clientIp);
     }
-    return new Transition(Reply.DO_NOT_REPLY, SessionState.NO_STATE_CHANGE);
+    return Transition.DO_NOT_REPLY;
   }
 
   @Override
@@ -50,6 +53,11 @@ public class Proxy extends BaseHandler {
     return state == StandardStates.CONNECTED;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return "PROXY";
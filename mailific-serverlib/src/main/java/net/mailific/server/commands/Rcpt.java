@@ -58,7 +58,7 @@ public class Rcpt extends BaseHandler {
         return new Transition(reply, SessionState.NO_STATE_CHANGE);
       }
     } catch (ParseException e) {
-      return new Transition(Reply._501_BAD_ARGS_BUFFERED, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_ARGS_BUFFERED;
     }
   }
 
@@ -67,6 +67,11 @@ public class Rcpt extends BaseHandler {
     return state == StandardStates.AFTER_MAIL || state == StandardStates.AFTER_RCPT;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return RCPT;
@@ -47,6 +47,11 @@ public class Rset extends BaseHandler {
     return true;
   }
 
+  @Override
+  protected boolean validityDependsOnlyOnState() {
+    return true;
+  }
+
   @Override
   public String verb() {
     return RSET;
@@ -100,7 +100,7 @@ public class AuthCommandHandler extends BaseHandler {
           initialResponse = Base64.getDecoder().decode(parts[2].trim());
         } catch (IllegalArgumentException e) {
           logger.info("SASL_INIT_ERROR: Response was not valid base64");
-          return new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+          return Transition.BAD_ARGS;
         }
       }
     }
@@ -126,7 +126,7 @@ public class AuthCommandHandler extends BaseHandler {
       }
     } catch (SaslException e) {
       // TODO Log this somewhere better
-      return new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_ARGS;
     }
   }
 
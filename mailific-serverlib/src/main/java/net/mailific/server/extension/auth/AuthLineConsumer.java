@@ -79,7 +79,7 @@ public class AuthLineConsumer implements LineConsumer {
     } catch (IllegalArgumentException e) {
       // Since it might contain secrets, best not to log the bad response. Sorry.
       logger.info("SASL_DECODE_ERROR: Response was not valid base64");
-      return new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+      return Transition.BAD_ARGS;
     }
 
     SaslServer saslServer = (SaslServer) session.getProperty(Auth.SASL_SERVER_PROPERTY);
@@ -0,0 +1,90 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.mailific.server.commands.BaseHandler;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+import net.mailific.server.session.Transition;
+
+/**
+ * Handles the BDAT command. Installed by the Chunking Extension.
+ *
+ * <p>The reply to BDAT is only sent once the chunk has been read, so this handler just installs a
+ * {@link ChunkLineConsumer} to read it, and replies with {@link Reply#DO_NOT_REPLY}.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class BdatCommandHandler extends BaseHandler {
+
+  public static final String BDAT = "BDAT";
+
+  static final String CHUNK_FILTER_KEY = BdatCommandHandler.class.getName() + ".filterKey";
+
+  // chunk-size is 1*DIGIT. 18 digits always fits in a long.
+  private static final Pattern BDAT_LINE =
+      Pattern.compile("BDAT ([0-9]{1,18})( LAST)?", Pattern.CASE_INSENSITIVE);
+
+  @Override
+  protected Transition handleValidCommand(SmtpSession session, String commandLine) {
+    Matcher m = BDAT_LINE.matcher(commandLine);
+    if (!m.matches()) {
+      // No way to know how much data follows, so all we can do is complain about each line of it.
+      return Transition.BAD_ARGS;
+    }
+    long size = Long.parseLong(m.group(1));
+    boolean last = m.group(2) != null;
+
+    ChunkLineConsumer consumer;
+    SessionState state = session.getConnectionState();
+    if (state == StandardStates.AFTER_RCPT) {
+      session.getMailObject().prepareForData(session);
+      consumer = new ChunkLineConsumer(size, last);
+    } else if (state == Chunking.RECEIVING_CHUNKS) {
+      consumer = new ChunkLineConsumer(size, last);
+    } else {
+      // RFC3030.2: the chunk must still be read, so it isn't mistaken for commands.
+      consumer = new ChunkLineConsumer(size, Reply._503_BAD_SEQUENCE);
+    }
+
+    if (size == 0) {
+      return consumer.endOfChunk(session);
+    }
+    session.addLineConsumer(CHUNK_FILTER_KEY, consumer);
+    return Transition.DO_NOT_REPLY;
+  }
+
+  /*
+   * Accepted in any state, since even a BDAT that's out of sequence has to have its chunk read.
+   */
+  @Override
+  protected boolean validForSession(SmtpSession session) {
+    return true;
+  }
+
+  @Override
+  public String verb() {
+    return BDAT;
+  }
+}
@@ -0,0 +1,76 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import java.util.Arrays;
+import java.util.Collection;
+import net.mailific.server.MailObject;
+import net.mailific.server.Parameters;
+import net.mailific.server.commands.CommandHandler;
+import net.mailific.server.commands.ParsedCommandLine;
+import net.mailific.server.extension.BaseExtension;
+
+/**
+ * Implementation of the BINARYMIME extension (RFC3030), which lets the client declare
+ * BODY=BINARYMIME in the MAIL command and then send unencoded binary MIME parts.
+ *
+ * <p>Binary data can only be sent with BDAT, so this extension should be installed alongside {@link
+ * Chunking}. It makes the server refuse DATA for a BINARYMIME transaction.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class BinaryMime extends BaseExtension {
+
+  public static final String EHLO_KEYWORD = "BINARYMIME";
+  public static final String NAME = "Binary MIME";
+
+  public static final String BODY = "BODY";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getEhloKeyword() {
+    return EHLO_KEYWORD;
+  }
+
+  @Override
+  public Collection<CommandHandler> commandHandlers() {
+    return Arrays.asList(new BinaryMimeDataHandler());
+  }
+
+  /**
+   * @param mailObject The mail object for the current transaction. May be null.
+   * @return true if the MAIL command for the transaction had BODY=BINARYMIME.
+   */
+  public static boolean isBinaryMime(MailObject mailObject) {
+    if (mailObject == null) {
+      return false;
+    }
+    ParsedCommandLine mailFrom = mailObject.getMailFromLine();
+    if (mailFrom == null) {
+      return false;
+    }
+    Parameters params = mailFrom.getParameters();
+    return params != null && EHLO_KEYWORD.equalsIgnoreCase(params.get(BODY));
+  }
+}
@@ -0,0 +1,53 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import net.mailific.server.Line;
+import net.mailific.server.commands.CommandHandler;
+import net.mailific.server.commands.Data;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.Transition;
+
+/**
+ * Installed by the BinaryMime Extension. Rejects the DATA command if the transaction was started
+ * with BODY=BINARYMIME (RFC3030.3). Otherwise lets the standard DATA handler have it.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class BinaryMimeDataHandler implements CommandHandler {
+
+  public static final Reply _503_BDAT_REQUIRED =
+      new Reply(503, "BODY=BINARYMIME requires BDAT, not DATA");
+
+  @Override
+  public Transition handleCommand(SmtpSession session, Line commandLine) {
+    if (BinaryMime.isBinaryMime(session.getMailObject())) {
+      return new Transition(_503_BDAT_REQUIRED, SessionState.NO_STATE_CHANGE);
+    }
+    return Transition.UNHANDLED;
+  }
+
+  @Override
+  public String verb() {
+    return Data.DATA;
+  }
+}
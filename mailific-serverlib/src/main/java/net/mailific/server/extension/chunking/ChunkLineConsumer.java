@@ -0,0 +1,151 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.mailific.server.ChunkConsumer;
+import net.mailific.server.Line;
+import net.mailific.server.LineConsumer;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+import net.mailific.server.session.Transition;
+
+/**
+ * Reads the chunk that follows a BDAT command and passes it to the MailObject. Installed by the
+ * {@link BdatCommandHandler}.
+ *
+ * <p>Transports that support chunking deliver the chunk through {@link ChunkConsumer}, as raw
+ * octets. If lines are offered instead, they are counted against the chunk size. A line framer
+ * can't stop in the middle of a line, though, so in that case the chunk has to end at a line
+ * boundary: any octets beyond the chunk size in its last line are thrown away.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class ChunkLineConsumer implements LineConsumer, ChunkConsumer {
+
+  private static final Logger logger = Logger.getLogger(ChunkLineConsumer.class.getName());
+
+  private final long size;
+  private final boolean last;
+  private final Reply rejection;
+  private long remaining;
+
+  // As with DATA, errors can't be reported until the whole chunk has been read.
+  private Reply pendingErrorReply;
+
+  /**
+   * A consumer for a chunk that belongs to the current mail transaction.
+   *
+   * @param size chunk size given in the BDAT command
+   * @param last true if the BDAT command had the LAST parameter
+   */
+  public ChunkLineConsumer(long size, boolean last) {
+    this(size, last, null);
+  }
+
+  /**
+   * A consumer that reads and discards a chunk, then replies with the given rejection. The session
+   * state is not changed.
+   *
+   * @param size chunk size given in the BDAT command
+   * @param rejection reply to the BDAT command
+   */
+  public ChunkLineConsumer(long size, Reply rejection) {
+    this(size, false, rejection);
+  }
+
+  private ChunkLineConsumer(long size, boolean last, Reply rejection) {
+    this.size = size;
+    this.last = last;
+    this.rejection = rejection;
+    this.remaining = size;
+  }
+
+  @Override
+  public Transition consume(SmtpSession session, Line line) {
+    ByteBuffer data = line.getBuffer();
+    if (data.remaining() > remaining) {
+      data.limit(data.position() + (int) remaining);
+    }
+    consumeChunk(session, data);
+    if (remaining == 0) {
+      return endOfChunk(session);
+    }
+    return Transition.DO_NOT_REPLY;
+  }
+
+  @Override
+  public long getRemaining() {
+    return remaining;
+  }
+
+  @Override
+  public void consumeChunk(SmtpSession session, ByteBuffer data) {
+    remaining -= data.remaining();
+    if (rejection != null || pendingErrorReply != null) {
+      return;
+    }
+    try {
+      session.getMailObject().writeChunk(data);
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "BDAT_ERROR", e);
+      pendingErrorReply = Reply._554_SERVER_ERROR;
+    }
+  }
+
+  @Override
+  public Transition endOfChunk(SmtpSession session) {
+    session.removeLineConsumer(BdatCommandHandler.CHUNK_FILTER_KEY);
+    if (rejection != null) {
+      return new Transition(rejection, SessionState.NO_STATE_CHANGE);
+    }
+    if (pendingErrorReply != null) {
+      session.clearMailObject();
+      return new Transition(pendingErrorReply, StandardStates.AFTER_EHLO);
+    }
+    if (!last) {
+      // Not immediate: BDAT commands are meant to be pipelined
+      return new Transition(
+          new Reply(250, size + " octets received", false), Chunking.RECEIVING_CHUNKS);
+    }
+    CompletionStage<Reply> completion;
+    try {
+      completion = session.completeMailObjectAsync();
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "MAIL_COMPLETE_ERROR", e);
+      return new Transition(Reply._554_SERVER_ERROR, StandardStates.AFTER_EHLO);
+    }
+    return Transition.deferred(
+        completion.handle(
+            (reply, e) -> {
+              if (e != null) {
+                logger.log(Level.SEVERE, "MAIL_COMPLETE_ERROR", e);
+                reply = Reply._554_SERVER_ERROR;
+              }
+              return new Transition(reply, StandardStates.AFTER_EHLO);
+            }));
+  }
+}
@@ -0,0 +1,67 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import java.util.Arrays;
+import java.util.Collection;
+import net.mailific.server.commands.CommandHandler;
+import net.mailific.server.extension.BaseExtension;
+import net.mailific.server.session.SessionState;
+
+/**
+ * Implementation of the CHUNKING extension (RFC3030), which lets the client send message data with
+ * one or more BDAT commands instead of DATA. Each BDAT command says exactly how many octets of data
+ * follow it, so the data needs no dot-stuffing and the server need not scan it for the end-of-data
+ * marker.
+ *
+ * <p>The transport has to support reading fixed-size chunks (see {@link
+ * net.mailific.server.session.ChunkingSession}). The Netty transport does.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class Chunking extends BaseExtension {
+
+  public static final String EHLO_KEYWORD = "CHUNKING";
+  public static final String NAME = "Chunking";
+
+  /** The state after a BDAT chunk that was not the LAST one has been accepted. */
+  public static final SessionState RECEIVING_CHUNKS =
+      new SessionState() {
+        @Override
+        public String name() {
+          return "RECEIVING_CHUNKS";
+        }
+      };
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getEhloKeyword() {
+    return EHLO_KEYWORD;
+  }
+
+  @Override
+  public Collection<CommandHandler> commandHandlers() {
+    return Arrays.asList(new BdatCommandHandler());
+  }
+}
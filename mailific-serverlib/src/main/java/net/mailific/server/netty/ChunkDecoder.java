@@ -0,0 +1,67 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.util.List;
+
+/**
+ * Replaces the line framer while a BDAT chunk is being read (see {@link
+ * net.mailific.server.ChunkConsumer}).
+ *
+ * <p>Emits slices of the inbound buffer, without looking at their content, until the given number
+ * of octets has been passed on. Then it emits {@link #END_OF_CHUNK} and stops reading. Whatever
+ * follows the chunk is left in the cumulation, to be handed to the line framer that {@link
+ * SmtpServerHandler} puts back in its place.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class ChunkDecoder extends ByteToMessageDecoder {
+
+  /** Emitted after the last octet of the chunk. */
+  public static final Object END_OF_CHUNK = new Object();
+
+  private long remaining;
+
+  /**
+   * @param size Number of octets in the chunk. Must be greater than zero.
+   */
+  public ChunkDecoder(long size) {
+    this.remaining = size;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    if (remaining == 0) {
+      return;
+    }
+    int length = (int) Math.min(remaining, in.readableBytes());
+    if (length == 0) {
+      return;
+    }
+    out.add(in.readRetainedSlice(length));
+    remaining -= length;
+    if (remaining == 0) {
+      out.add(END_OF_CHUNK);
+    }
+  }
+}
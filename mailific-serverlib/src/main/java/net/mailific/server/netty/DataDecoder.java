@@ -0,0 +1,124 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.util.List;
+
+/**
+ * Replaces the line framer while message data is being read (see {@link
+ * net.mailific.server.BulkDataConsumer}).
+ *
+ * <p>Rather than producing one frame per line, it scans everything that has arrived for line
+ * boundaries and emits slices of the inbound buffer that each hold as many complete lines as
+ * possible. The only places a slice is cut short are dot-stuffed lines, where the leading dot is
+ * skipped (RFC5321.4.5.2). When it finds the end-of-data marker, it emits {@link #END_OF_DATA} and
+ * stops reading. Whatever follows the marker is left in the cumulation, to be handed to the line
+ * framer that {@link SmtpServerHandler} puts back in its place.
+ *
+ * <p>A line longer than the limit is left out of the slices, and {@link
+ * SmtpLineDecoder#LINE_TOO_LONG} is emitted where it would have been. If it hasn't all arrived yet,
+ * the rest is discarded as it does.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class DataDecoder extends ByteToMessageDecoder {
+
+  /** Emitted after the last of the data, when the end-of-data marker has been read. */
+  public static final Object END_OF_DATA = new Object();
+
+  private final int maxLineLength;
+  private boolean done;
+  private boolean discarding;
+
+  /**
+   * @param maxLineLength Lines longer than this (not counting the CRLF) are discarded, as with the
+   *     line framer.
+   */
+  public DataDecoder(int maxLineLength) {
+    this.maxLineLength = maxLineLength;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    if (done) {
+      return;
+    }
+    int end = in.writerIndex();
+    int lineStart = in.readerIndex();
+    int chunkStart = lineStart;
+    int searchFrom = lineStart;
+
+    while (true) {
+      int lf = in.indexOf(searchFrom, end, (byte) '\n');
+      if (lf < 0) {
+        break;
+      }
+      searchFrom = lf + 1;
+      if (lf == lineStart || in.getByte(lf - 1) != '\r') {
+        // A bare LF is just part of the line
+        continue;
+      }
+      if (discarding) {
+        // Tail end of an over-long line. Drop it.
+        discarding = false;
+        chunkStart = searchFrom;
+        out.add(SmtpLineDecoder.LINE_TOO_LONG);
+      } else if (lf - 1 - lineStart > maxLineLength) {
+        addChunk(in, chunkStart, lineStart, out);
+        chunkStart = searchFrom;
+        out.add(SmtpLineDecoder.LINE_TOO_LONG);
+      } else if (in.getByte(lineStart) == '.') {
+        addChunk(in, chunkStart, lineStart, out);
+        if (lf - lineStart == 2) {
+          // Just ".\r\n"
+          in.readerIndex(searchFrom);
+          out.add(END_OF_DATA);
+          done = true;
+          return;
+        }
+        chunkStart = lineStart + 1;
+      }
+      lineStart = searchFrom;
+    }
+
+    addChunk(in, chunkStart, lineStart, out);
+    in.readerIndex(lineStart);
+
+    if (end > lineStart) {
+      // A CR at the very end may be the start of the CRLF, so it isn't counted as part of the line
+      int partial = end - lineStart - (in.getByte(end - 1) == '\r' ? 1 : 0);
+      if (discarding || partial > maxLineLength) {
+        // Same behavior as the line framer: throw away what we have, skip to the next CRLF. The CR
+        // is kept, in case it is the start of that CRLF.
+        in.skipBytes(partial);
+        discarding = true;
+      }
+    }
+  }
+
+  private void addChunk(ByteBuf in, int from, int to, List<Object> out) {
+    if (to > from) {
+      out.add(in.retainedSlice(from, to - from));
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SmtpSession;
+
+/**
+ * Passes message data (from DATA or BDAT) to the session on a separate executor, so that a slow
+ * MailObject ties up a worker thread instead of the event loop. There's one per channel, and its
+ * tasks run one at a time, in order.
+ *
+ * <p>The bytes waiting to be handed over are counted. Above the high water mark, the offload is
+ * throttled, and {@link SmtpServerHandler} stops reading from the channel, so that TCP pushes back
+ * on the client. Reading resumes once the queue has drained to the low water mark.
+ *
+ * <p>Apart from the task bodies, everything here runs on the event loop.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class DataOffload {
+
+  private static final Logger logger = Logger.getLogger(DataOffload.class.getName());
+
+  private final ChannelHandlerContext ctx;
+  private final SerialExecutor executor;
+  private final long lowWaterMark;
+  private final long highWaterMark;
+  private final Runnable onThrottleChange;
+  private final AtomicLong queued = new AtomicLong();
+  private volatile boolean throttled;
+  private volatile boolean closed;
+
+  /**
+   * @param ctx Context of the handler the data is read by.
+   * @param executor Where the data is handed to the session. Shared between channels.
+   * @param lowWaterMark Reading resumes when the queued bytes drain to this.
+   * @param highWaterMark Reading stops when the queued bytes exceed this.
+   * @param onThrottleChange Called on the event loop whenever {@link #isThrottled()} changes.
+   */
+  DataOffload(
+      ChannelHandlerContext ctx,
+      Executor executor,
+      long lowWaterMark,
+      long highWaterMark,
+      Runnable onThrottleChange) {
+    this.ctx = ctx;
+    this.executor = new SerialExecutor(executor);
+    this.lowWaterMark = lowWaterMark;
+    this.highWaterMark = highWaterMark;
+    this.onThrottleChange = onThrottleChange;
+  }
+
+  /**
+   * @return true if too much data is queued, and the channel shouldn't be read from.
+   */
+  boolean isThrottled() {
+    return throttled;
+  }
+
+  long getQueued() {
+    return queued.get();
+  }
+
+  /**
+   * Queue data to be passed to the session. The buffer is retained until it has been.
+   *
+   * @param buf The data.
+   * @param consumer Session method that takes the data.
+   */
+  void consume(ByteBuf buf, Consumer<ByteBuffer> consumer) {
+    final int size = buf.readableBytes();
+    buf.retain();
+    queued.addAndGet(size);
+    try {
+      executor.execute(() -> consumeNow(buf, size, consumer));
+    } catch (RejectedExecutionException e) {
+      queued.addAndGet(-size);
+      buf.release();
+      throw e;
+    }
+    if (!throttled && queued.get() > highWaterMark) {
+      throttled = true;
+      onThrottleChange.run();
+      // In case the queue drained before the worker could see the flag
+      resume();
+    }
+  }
+
+  private void consumeNow(ByteBuf buf, int size, Consumer<ByteBuffer> consumer) {
+    try {
+      if (!closed) {
+        consumer.accept(buf.nioBuffer());
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "DATA_OFFLOAD_ERROR", e);
+    } finally {
+      buf.release();
+      if (queued.addAndGet(-size) <= lowWaterMark && throttled) {
+        ctx.executor().execute(this::resume);
+      }
+    }
+  }
+
+  private void resume() {
+    if (throttled && queued.get() <= lowWaterMark) {
+      throttled = false;
+      onThrottleChange.run();
+    }
+  }
+
+  /**
+   * Queue a task, to run after whatever data is already queued.
+   *
+   * @param task Calls into the session.
+   */
+  void execute(Runnable task) {
+    executor.execute(
+        () -> {
+          try {
+            if (!closed) {
+              task.run();
+            }
+          } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "DATA_OFFLOAD_ERROR", e);
+          }
+        });
+  }
+
+  /**
+   * Queue the end of the data, after whatever data is already queued.
+   *
+   * @param session The session the data is for.
+   * @param end Session method that ends the data.
+   * @return The reply to the end of the data, including any reply the session deferred. Fails
+   *     without ending the data if the channel closes first.
+   */
+  CompletionStage<Reply> end(SmtpSession session, Supplier<Reply> end) {
+    return CompletableFuture.supplyAsync(
+            () -> {
+              if (closed) {
+                // Some of the data was dropped, so the message mustn't be completed
+                return CompletableFuture.<Reply>failedFuture(new ClosedChannelException());
+              }
+              Reply reply = end.get();
+              CompletionStage<Reply> pending = session.getPendingReply();
+              return pending == null ? CompletableFuture.completedFuture(reply) : pending;
+            },
+            executor)
+        .thenCompose(Function.identity());
+  }
+
+  /**
+   * The channel has closed. Data that's still queued is dropped, and then the session's mail object
+   * is cleared.
+   */
+  void close(SmtpSession session) {
+    closed = true;
+    try {
+      executor.execute(session::clearMailObject);
+    } catch (RejectedExecutionException e) {
+      session.clearMailObject();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how long tasks wait for the event loops of a group, which is roughly how long a
+ * connection that has something to say waits to be heard. At each interval, every loop is given a
+ * task that is due at once, and the lag is how long after that it actually ran. Anything hogging a
+ * loop, such as TLS handshakes or a blocking MailObject, shows up here.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class EventLoopLagMonitor {
+
+  private final long intervalNanos;
+  private final List<Sampler> samplers = new ArrayList<>();
+  private final AtomicLong maxLagNanos = new AtomicLong();
+  private final LongAdder totalLagNanos = new LongAdder();
+  private final LongAdder samples = new LongAdder();
+  private volatile boolean stopped;
+
+  /**
+   * @param group The loops to measure.
+   * @param interval How often to measure each loop.
+   */
+  EventLoopLagMonitor(EventLoopGroup group, Duration interval) {
+    this.intervalNanos = interval.toNanos();
+    for (EventExecutor loop : group) {
+      samplers.add(new Sampler(loop));
+    }
+  }
+
+  void start() {
+    samplers.forEach(Sampler::schedule);
+  }
+
+  /** Stops measuring. The figures gathered so far can still be read. */
+  void stop() {
+    stopped = true;
+    samplers.forEach(Sampler::cancel);
+  }
+
+  public Duration getInterval() {
+    return Duration.ofNanos(intervalNanos);
+  }
+
+  /**
+   * @return The worst of each loop's most recent measurement.
+   */
+  public Duration getLastLag() {
+    long worst = 0;
+    for (Sampler sampler : samplers) {
+      worst = Math.max(worst, sampler.lastLagNanos);
+    }
+    return Duration.ofNanos(worst);
+  }
+
+  /**
+   * @return The worst lag measured on any loop since the monitor started, or since {@link
+   *     #resetMaxLag()} was last called.
+   */
+  public Duration getMaxLag() {
+    return Duration.ofNanos(maxLagNanos.get());
+  }
+
+  /**
+   * @return The average of every measurement so far, on all loops.
+   */
+  public Duration getMeanLag() {
+    long count = samples.sum();
+    return count == 0 ? Duration.ZERO : Duration.ofNanos(totalLagNanos.sum() / count);
+  }
+
+  public long getSampleCount() {
+    return samples.sum();
+  }
+
+  public void resetMaxLag() {
+    maxLagNanos.set(0);
+  }
+
+  private void record(long lagNanos) {
+    maxLagNanos.accumulateAndGet(lagNanos, Math::max);
+    totalLagNanos.add(lagNanos);
+    samples.increment();
+  }
+
+  /** Repeatedly schedules itself on one loop, noting how late it runs each time. */
+  private class Sampler implements Runnable {
+    private final EventExecutor loop;
+    private volatile long lastLagNanos;
+    private volatile ScheduledFuture<?> next;
+    private long dueNanos;
+
+    Sampler(EventExecutor loop) {
+      this.loop = loop;
+    }
+
+    void schedule() {
+      if (stopped || loop.isShuttingDown()) {
+        return;
+      }
+      dueNanos = System.nanoTime() + intervalNanos;
+      next = loop.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void cancel() {
+      ScheduledFuture<?> f = next;
+      if (f != null) {
+        f.cancel(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      long lag = Math.max(0, System.nanoTime() - dueNanos);
+      lastLagNanos = lag;
+      record(lag);
+      schedule();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import java.util.List;
+
+/**
+ * Stands in for the current decoder while the session works out a deferred reply (see {@link
+ * net.mailific.server.session.SmtpSession#getPendingReply()}). It decodes nothing, just holds on to
+ * whatever the client has already sent, so that pipelined commands aren't looked at until the reply
+ * to the earlier one has gone out. When {@link SmtpServerHandler} replaces it with the right
+ * decoder for the session's new state, the held bytes are passed on to that decoder.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class HoldDecoder extends ByteToMessageDecoder {
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    // Hold everything
+  }
+
+  /*
+   * ByteToMessageDecoder asks for another read if autoRead is off and it produced nothing, on
+   * the theory that it needs more input. We don't, and reading more would defeat the point.
+   */
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    discardSomeReadBytes();
+    ctx.fireChannelReadComplete();
+  }
+}
@@ -0,0 +1,170 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+
+/**
+ * Closes connections that have been idle for longer than their session state allows. Stays at the
+ * head of the pipeline for the life of the connection, whatever decoders come and go behind it.
+ *
+ * <p>A read just records the time. There's only ever one timeout scheduled per connection. When it
+ * fires, the deadline is worked out again from the last read and the current state, and if it
+ * hasn't passed, the timeout is scheduled for it. A change of state can bring the deadline forward,
+ * so the state is checked after each read, and the timeout is rescheduled if the new deadline is
+ * sooner. When the deadline passes, a {@link ReadTimeoutException} is fired, as Netty's
+ * ReadTimeoutHandler would.
+ *
+ * <p>Only time the server spends waiting for input counts. While reading is turned off (the data
+ * offload is backed up, or a reply is pending) the deadline is pushed back, and the clock starts
+ * again when the server next asks to read.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class IdleTimeoutHandler extends ChannelDuplexHandler implements TimerTask {
+
+  private final IdleTimeouts timeouts;
+  private ChannelHandlerContext ctx;
+  private SessionState state;
+  private long lastRead;
+  private long deadline;
+  private Timeout timeout;
+  private boolean stopped;
+
+  IdleTimeoutHandler(IdleTimeouts timeouts) {
+    this.timeouts = timeouts;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+    if (ctx.channel().isActive()) {
+      start();
+    }
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) throws Exception {
+    start();
+    ctx.fireChannelActive();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    lastRead = timeouts.nanoTime();
+    ctx.fireChannelRead(msg);
+    SessionState current = currentState();
+    if (current != state) {
+      state = current;
+      long newDeadline = lastRead + timeouts.timeoutNanos(state);
+      if (newDeadline - deadline < 0) {
+        schedule(newDeadline);
+      }
+    }
+  }
+
+  @Override
+  public void read(ChannelHandlerContext ctx) throws Exception {
+    // Also called when reading is turned back on, which is when the client's time starts again
+    lastRead = timeouts.nanoTime();
+    ctx.read();
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    stop();
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    stop();
+  }
+
+  private void start() {
+    if (timeout != null || stopped) {
+      return;
+    }
+    lastRead = timeouts.nanoTime();
+    state = currentState();
+    schedule(lastRead + timeouts.timeoutNanos(state));
+  }
+
+  private void stop() {
+    stopped = true;
+    if (timeout != null) {
+      timeout.cancel();
+    }
+  }
+
+  private void schedule(long newDeadline) {
+    if (timeout != null) {
+      timeout.cancel();
+    }
+    deadline = newDeadline;
+    timeout = timeouts.schedule(ctx, this, newDeadline - timeouts.nanoTime());
+  }
+
+  /**
+   * Runs on the timer thread, or on the event loop if there's no timer. Everything else happens on
+   * the event loop.
+   */
+  @Override
+  public void run(Timeout expired) {
+    if (ctx.executor().inEventLoop()) {
+      check(expired);
+    } else {
+      ctx.executor().execute(() -> check(expired));
+    }
+  }
+
+  private void check(Timeout expired) {
+    if (stopped || expired != timeout || !ctx.channel().isOpen()) {
+      // Closed, or rescheduled since
+      return;
+    }
+    state = currentState();
+    long now = timeouts.nanoTime();
+    if (!ctx.channel().config().isAutoRead()) {
+      // The server isn't reading, so the client can't be blamed for the silence
+      schedule(now + timeouts.timeoutNanos(state));
+      return;
+    }
+    long due = lastRead + timeouts.timeoutNanos(state);
+    if (due - now <= 0) {
+      stopped = true;
+      ctx.fireExceptionCaught(ReadTimeoutException.INSTANCE);
+    } else {
+      schedule(due);
+    }
+  }
+
+  private SessionState currentState() {
+    SmtpSession session = ctx.channel().attr(SmtpServerHandler.SESSION_KEY).get();
+    return session == null ? StandardStates.BEFORE_CONNECT : session.getConnectionState();
+  }
+}
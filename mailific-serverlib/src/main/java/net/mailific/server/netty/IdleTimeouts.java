@@ -0,0 +1,168 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import net.mailific.server.ServerConfig;
+import net.mailific.server.session.SessionState;
+
+/**
+ * How long a connection may sit idle in each session state, and the one timer that enforces it for
+ * all of a server's connections. See {@link ServerConfig.Builder#withIdleTimeout(SessionState,
+ * Duration)}.
+ *
+ * <p>The timer is a hashed wheel with a 100ms tick, so a timeout fires up to a tick late. That
+ * costs far less than scheduling a task on the event loop for each read.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class IdleTimeouts {
+
+  // Per channel, on the event loop, for initializers that weren't given any
+  private static final IdleTimeouts DEFAULTS =
+      new IdleTimeouts(ServerConfig.DEFAULT_IDLE_TIMEOUT, Map.of(), null, System::nanoTime);
+
+  private final long defaultNanos;
+  private final Map<SessionState, Long> nanos = new HashMap<>();
+  private final Timer timer;
+  private final LongSupplier clock;
+
+  /**
+   * Starts a timer thread, which runs until {@link #stop()}.
+   *
+   * @param defaultTimeout For states that don't have their own.
+   * @param timeouts Timeouts for particular states.
+   */
+  public IdleTimeouts(Duration defaultTimeout, Map<SessionState, Duration> timeouts) {
+    this(
+        defaultTimeout,
+        timeouts,
+        new HashedWheelTimer(
+            new DefaultThreadFactory("mailific-idle", true), 100, TimeUnit.MILLISECONDS),
+        System::nanoTime);
+  }
+
+  /**
+   * @param timer Runs the timeouts. If null, each is scheduled on its channel's event loop.
+   * @param clock Gives the time in nanoseconds, as System.nanoTime does.
+   */
+  IdleTimeouts(
+      Duration defaultTimeout,
+      Map<SessionState, Duration> timeouts,
+      Timer timer,
+      LongSupplier clock) {
+    this.defaultNanos = defaultTimeout.toNanos();
+    timeouts.forEach((state, timeout) -> nanos.put(state, timeout.toNanos()));
+    this.timer = timer;
+    this.clock = clock;
+  }
+
+  /**
+   * @return {@link ServerConfig#DEFAULT_IDLE_TIMEOUT} for every state. There's no timer thread to
+   *     stop: each timeout is scheduled on its channel's event loop, as Netty's ReadTimeoutHandler
+   *     does.
+   */
+  static IdleTimeouts defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * @param state A session state.
+   * @return How long a connection in that state may go without sending anything.
+   */
+  long timeoutNanos(SessionState state) {
+    return nanos.getOrDefault(state, defaultNanos);
+  }
+
+  long nanoTime() {
+    return clock.getAsLong();
+  }
+
+  Timeout schedule(ChannelHandlerContext ctx, TimerTask task, long delayNanos) {
+    if (timer == null) {
+      return new LoopTimeout(ctx.executor(), task, delayNanos);
+    }
+    return timer.newTimeout(task, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Stops the timer. Pending timeouts never fire. */
+  public void stop() {
+    if (timer != null) {
+      timer.stop();
+    }
+  }
+
+  /** A timeout scheduled on an event loop rather than a Timer. */
+  private static class LoopTimeout implements Timeout {
+
+    private final TimerTask task;
+    private final ScheduledFuture<?> future;
+
+    LoopTimeout(EventExecutor executor, TimerTask task, long delayNanos) {
+      this.task = task;
+      this.future = executor.schedule(this::expire, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void expire() {
+      try {
+        task.run(this);
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public Timer timer() {
+      return null;
+    }
+
+    @Override
+    public TimerTask task() {
+      return task;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return future.isDone() && !future.isCancelled();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return future.isCancelled();
+    }
+
+    @Override
+    public boolean cancel() {
+      return future.cancel(false);
+    }
+  }
+}
@@ -19,19 +19,42 @@
 package net.mailific.server.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseCombiner;
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.net.ssl.SSLException;
+import net.mailific.server.ListenerConfig;
 import net.mailific.server.ServerConfig;
 import net.mailific.server.SmtpServer;
-import net.mailific.util.ChainedFuture;
 
 /**
  * Netty-based implementation of SmtpServer
@@ -41,11 +64,31 @@ import net.mailific.util.ChainedFuture;
  */
 public class NettySmtpServer implements SmtpServer {
 
+  private static final Logger logger = Logger.getLogger(NettySmtpServer.class.getName());
+
   private EventLoopGroup bossGroup;
   private EventLoopGroup workerGroup;
+  // Groups supplied in the config belong to the application, and aren't shut down here
+  private boolean ownsBossGroup;
+  private boolean ownsWorkerGroup;
+  private final List<Channel> serverChannels = new ArrayList<>();
+  private final ChannelGroup connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+  private final List<Promise<Void>> listenersReleased = new ArrayList<>();
 
   private boolean started = false;
   private ChannelFuture startFuture;
+  private Transport transport;
+  private SslProvider sslProvider;
+  private TicketKeyRotator ticketKeyRotator = new TicketKeyRotator();
+  private ScheduledFuture<?> ticketKeyRotation;
+  private EventLoopLagMonitor eventLoopLagMonitor;
+  // One per listener. Null for those without a cert.
+  private final List<ReloadableSslContext> sslContexts = new ArrayList<>();
+  // One per listener. Null for those without an SNI cert directory.
+  private final List<SniContextMapping> sniMappings = new ArrayList<>();
+  private Future<?> tlsCertCheck;
+  private IdleTimeouts idleTimeouts;
+  private CompletableFuture<Void> shutdownFuture;
 
   private ServerConfig config;
 
@@ -53,6 +96,13 @@ public class NettySmtpServer implements SmtpServer {
     this.config = config;
   }
 
+  /**
+   * Binds every listener in the config. If any of them can't be bound, the ones already bound are
+   * closed and the server is shut down before the exception is thrown. start() can then be called
+   * again.
+   *
+   * @return The close future of the first listener's channel.
+   */
   @Override
   public synchronized ChannelFuture start() throws InterruptedException, SSLException {
     if (started) {
@@ -60,44 +110,483 @@ public class NettySmtpServer implements SmtpServer {
     }
     started = true;
 
-    SslContext sslContext = buildSslContext();
+    sslProvider = resolveSslProvider(config.getSslProvider());
+    List<ListenerConfig> listeners = config.getListeners();
+    for (ListenerConfig listener : listeners) {
+      ReloadableSslContext sslContext = null;
+      if (listener.getTlsCert() != null) {
+        sslContext =
+            new ReloadableSslContext(
+                listener.getTlsCert(),
+                listener.getTlsCertKey(),
+                () -> buildSslContext(listener, listener.getTlsCert(), listener.getTlsCertKey()));
+        startTicketKeys(sslContext.get());
+      }
+      sslContexts.add(sslContext);
+      SniContextMapping sni = null;
+      if (listener.getSniCertDirectory() != null) {
+        sni =
+            new SniContextMapping(
+                listener.getSniCertDirectory(),
+                sslContext,
+                (cert, key) -> {
+                  SslContext built = buildSslContext(listener, cert, key);
+                  startTicketKeys(built);
+                  return built;
+                },
+                config.getSniCacheSize(),
+                config.getTlsTaskExecutor(),
+                this::stopTicketKeys);
+      }
+      sniMappings.add(sni);
+    }
+
+    transport = resolveTransport();
+    logger.log(Level.INFO, "SERVER_TRANSPORT: Using {0} transport", transport);
 
-    bossGroup = new NioEventLoopGroup();
-    workerGroup = new NioEventLoopGroup();
+    bossGroup = config.getBossGroup();
+    ownsBossGroup = bossGroup == null;
+    if (ownsBossGroup) {
+      bossGroup = newGroup(config.getBossThreads(), config.getBossThreadFactory());
+    }
+    workerGroup = config.getWorkerGroup();
+    ownsWorkerGroup = workerGroup == null;
+    if (ownsWorkerGroup) {
+      workerGroup = newGroup(config.getWorkerThreads(), config.getWorkerThreadFactory());
+    }
+    scheduleTicketKeyRotation();
+    scheduleTlsCertCheck();
+    if (config.getEventLoopLagSampling() != null) {
+      eventLoopLagMonitor = new EventLoopLagMonitor(workerGroup, config.getEventLoopLagSampling());
+      eventLoopLagMonitor.start();
+    }
+    idleTimeouts = new IdleTimeouts(config.getIdleTimeout(), config.getIdleTimeouts());
     ServerBootstrap b = new ServerBootstrap();
     b.group(bossGroup, workerGroup)
-        .channel(NioServerSocketChannel.class)
-        .handler(new LoggingHandler(LogLevel.INFO))
-        .childHandler(new SmtpSessionInitializer(config.getSessionFactory(), sslContext));
-    startFuture =
-        b.bind(config.getListenHost(), config.getListenPort()).sync().channel().closeFuture();
+        .channel(transport.serverChannelClass())
+        .handler(
+            new ChannelInitializer<Channel>() {
+              @Override
+              protected void initChannel(Channel ch) {
+                ConnectionTracker tracker = new ConnectionTracker();
+                listenersReleased.add(tracker.released);
+                ch.pipeline().addLast(new LoggingHandler(LogLevel.INFO), tracker);
+              }
+            });
+    if (config.getBacklog() > 0) {
+      b.option(ChannelOption.SO_BACKLOG, config.getBacklog());
+    }
+    int acceptors = acceptors();
+    if (acceptors > 1) {
+      b.option(transport.reusePortOption(), true);
+    }
+    for (int i = 0; i < listeners.size(); i++) {
+      ListenerConfig listener = listeners.get(i);
+      ServerBootstrap listenerBootstrap =
+          b.clone()
+              .childHandler(
+                  new SmtpSessionInitializer(
+                      listener.getSessionFactory(),
+                      listener.isProxyProtocol(),
+                      sslContexts.get(i) == null ? () -> null : sslContexts.get(i),
+                      sniMappings.get(i),
+                      listener.isImplicitTls(),
+                      config.getTlsTaskExecutor(),
+                      config.getDataExecutor(),
+                      config.getDataLowWaterMark(),
+                      config.getDataHighWaterMark(),
+                      config.getMaxCommandLineLength(),
+                      config.getMaxDataLineLength(),
+                      idleTimeouts));
+      // With SO_REUSEPORT, each bind makes another channel on the same port, registered on the
+      // next boss event loop.
+      for (int j = 0; j < acceptors; j++) {
+        try {
+          serverChannels.add(
+              listenerBootstrap
+                  .bind(listener.getListenHost(), listener.getListenPort())
+                  .sync()
+                  .channel());
+        } catch (Exception e) {
+          logger.log(
+              Level.SEVERE,
+              "BIND_FAILED: {0}:{1}",
+              new Object[] {listener.getListenHost(), String.valueOf(listener.getListenPort())});
+          // Don't leave the listeners bound so far, or the event loops, running
+          shutdown(Duration.ZERO).join();
+          reset();
+          throw e;
+        }
+      }
+    }
+    startFuture = serverChannels.get(0).closeFuture();
     return startFuture;
   }
 
-  private SslContext buildSslContext() throws SSLException {
-    SslContext sslContext = null;
-    if (config.getTlsCert() != null) {
-      sslContext =
-          SslContextBuilder.forServer(
-                  config.getTlsCert(), config.getTlsCertKey(), config.getTlsCertPassword())
-              .startTls(true)
-              .build();
+  /** Forgets a failed start, once it has been shut down, so that start() can be tried again. */
+  private void reset() {
+    started = false;
+    startFuture = null;
+    shutdownFuture = null;
+    serverChannels.clear();
+    listenersReleased.clear();
+    sslContexts.clear();
+    sniMappings.clear();
+    bossGroup = null;
+    workerGroup = null;
+    ticketKeyRotation = null;
+    ticketKeyRotator = new TicketKeyRotator();
+    tlsCertCheck = null;
+    eventLoopLagMonitor = null;
+    idleTimeouts = null;
+  }
+
+  /**
+   * @return The number of server channels to bind per listener, which is 1 if the transport can't
+   *     share a port between them.
+   */
+  private int acceptors() {
+    int acceptors = config.getAcceptors();
+    if (acceptors > 1 && transport.reusePortOption() == null) {
+      logger.log(
+          Level.WARNING,
+          "REUSEPORT_UNAVAILABLE: {0} transport can't bind {1} acceptors to one port. Using one.",
+          new Object[] {transport, acceptors});
+      return 1;
+    }
+    return acceptors;
+  }
+
+  /**
+   * @param requested The TLS implementation asked for in the config. May be null.
+   * @return requested, if it's available. Otherwise the JDK's.
+   */
+  static SslProvider resolveSslProvider(SslProvider requested) {
+    if (requested == null) {
+      return SslProvider.JDK;
+    }
+    // OPENSSL and OPENSSL_REFCNT both need netty-tcnative
+    if (requested == SslProvider.JDK || OpenSsl.isAvailable()) {
+      return requested;
+    }
+    logger.log(
+        Level.WARNING,
+        "SSL_PROVIDER_UNAVAILABLE: {0} is not available. Falling back to JDK.",
+        requested);
+    return SslProvider.JDK;
+  }
+
+  private void scheduleTicketKeyRotation() {
+    Duration interval = config.getTlsTicketKeyRotation();
+    if (interval == null) {
+      return;
+    }
+    if (ticketKeyRotator.isEmpty()) {
+      logger.log(
+          Level.WARNING,
+          "TLS_TICKET_ROTATION_UNSUPPORTED: Ticket key rotation needs the OPENSSL provider.");
+      return;
+    }
+    // Install the first keys before anyone can connect
+    ticketKeyRotator.run();
+    long millis = interval.toMillis();
+    ticketKeyRotation =
+        workerGroup
+            .next()
+            .scheduleAtFixedRate(ticketKeyRotator, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Reads the TLS cert and key files of every listener again, e.g. after a certificate has been
+   * renewed, and scans their SNI cert directories again. TLS sessions started from now on use the
+   * new certs. Sessions already encrypted are unaffected.
+   *
+   * @throws SSLException if a listener's files can't be loaded. That listener keeps its current
+   *     cert, and later listeners aren't reloaded.
+   */
+  public void reloadTlsCerts() throws SSLException {
+    for (ReloadableSslContext sslContext : sslContexts) {
+      if (sslContext != null) {
+        reload(sslContext);
+      }
+    }
+    for (SniContextMapping sni : sniMappings) {
+      if (sni != null) {
+        sni.reload();
+      }
+    }
+  }
+
+  private synchronized void reload(ReloadableSslContext sslContext) throws SSLException {
+    stopTicketKeys(sslContext.reload());
+    startTicketKeys(sslContext.get());
+    logger.log(Level.INFO, "TLS_CERT_RELOADED: {0}", sslContext.getCert());
+  }
+
+  private void scheduleTlsCertCheck() {
+    Duration interval = config.getTlsCertCheckInterval();
+    if (interval == null || sslContexts.stream().allMatch(c -> c == null)) {
+      return;
+    }
+    long millis = interval.toMillis();
+    // Not on the worker group, to keep file reads off the I/O threads
+    tlsCertCheck =
+        GlobalEventExecutor.INSTANCE.scheduleAtFixedRate(
+            this::checkTlsCerts, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  private void checkTlsCerts() {
+    for (ReloadableSslContext sslContext : sslContexts) {
+      if (sslContext != null && sslContext.isStale()) {
+        try {
+          reload(sslContext);
+        } catch (SSLException | RuntimeException e) {
+          // Most likely caught halfway through being replaced. Try again next time.
+          logger.log(
+              Level.WARNING,
+              "TLS_CERT_RELOAD_FAILED: Keeping the current cert for " + sslContext.getCert(),
+              e);
+        }
+      }
+    }
+    for (SniContextMapping sni : sniMappings) {
+      if (sni != null && sni.isStale()) {
+        try {
+          sni.reload();
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "TLS_CERT_RELOAD_FAILED: Can't scan " + sni.getDir(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The TLS implementation the server is using, or null if it hasn't been started.
+   */
+  public SslProvider getSslProvider() {
+    return sslProvider;
+  }
+
+  /**
+   * @return Lag figures for the worker event loops, or null if the server hasn't been started or
+   *     wasn't configured to measure them (see {@link
+   *     ServerConfig.Builder#withEventLoopLagSampling(Duration)}).
+   */
+  public EventLoopLagMonitor getEventLoopLagMonitor() {
+    return eventLoopLagMonitor;
+  }
+
+  /*
+   * An application-supplied group dictates the transport. Otherwise it's whatever was asked for,
+   * if available.
+   */
+  private Transport resolveTransport() {
+    EventLoopGroup supplied =
+        config.getWorkerGroup() != null ? config.getWorkerGroup() : config.getBossGroup();
+    if (supplied != null) {
+      Transport suppliedTransport = Transport.of(supplied);
+      if (suppliedTransport != null) {
+        return suppliedTransport;
+      }
+      logger.log(
+          Level.WARNING,
+          "UNKNOWN_EVENT_LOOP_GROUP: Can't tell the transport of the supplied {0}.",
+          supplied.getClass().getName());
     }
-    return sslContext;
+    return Transport.resolve(config.getTransport());
   }
 
-  /** Just shuts down the socket. */
+  private EventLoopGroup newGroup(int threads, ThreadFactory threadFactory) {
+    if (threadFactory == null) {
+      return new MultiThreadIoEventLoopGroup(threads, transport.ioHandlerFactory());
+    }
+    return new MultiThreadIoEventLoopGroup(threads, threadFactory, transport.ioHandlerFactory());
+  }
+
+  /**
+   * Keeps track of accepted connections, so they can be drained and closed on a shared worker
+   * group.
+   */
+  private class ConnectionTracker extends ChannelInboundHandlerAdapter {
+
+    // Completes once the listening socket has been let go of, so the port can be bound again
+    final Promise<Void> released = GlobalEventExecutor.INSTANCE.newPromise();
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      if (msg instanceof Channel) {
+        connections.add((Channel) msg);
+      }
+      ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelUnregistered(ChannelHandlerContext ctx) {
+      // NIO doesn't release the socket until the event loop next selects. A task scheduled now
+      // can't run until after that.
+      ctx.executor().schedule(() -> released.setSuccess(null), 0, TimeUnit.NANOSECONDS);
+      ctx.fireChannelUnregistered();
+    }
+  }
+
+  /**
+   * @return The transport the server is running on, or null if it hasn't been started.
+   */
+  public Transport getTransport() {
+    return transport;
+  }
+
+  private SslContext buildSslContext(ListenerConfig listener, File cert, File key)
+      throws SSLException {
+    return SslContextBuilder.forServer(cert, key, listener.getTlsCertPassword())
+        .startTls(!listener.isImplicitTls())
+        .sslProvider(sslProvider)
+        .sessionCacheSize(config.getTlsSessionCacheSize())
+        .sessionTimeout(config.getTlsSessionTimeout())
+        .build();
+  }
+
+  /** Hands the context over to the ticket key rotator, if there is one and it can use it. */
+  private void startTicketKeys(SslContext sslContext) {
+    if (config.getTlsTicketKeyRotation() != null
+        && sslContext.sessionContext() instanceof OpenSslSessionContext) {
+      ticketKeyRotator.add((OpenSslSessionContext) sslContext.sessionContext());
+    }
+  }
+
+  private void stopTicketKeys(SslContext sslContext) {
+    if (sslContext.sessionContext() instanceof OpenSslSessionContext) {
+      ticketKeyRotator.remove((OpenSslSessionContext) sslContext.sessionContext());
+    }
+  }
+
+  /**
+   * Shuts down in drain mode, waiting up to the config's drain timeout. See {@link
+   * #shutdown(Duration)}.
+   */
   @Override
-  public Future<?> shutdown() {
-    ChainedFuture f = new ChainedFuture();
-    if (bossGroup != null) {
-      f.chain(bossGroup.shutdownGracefully());
+  public CompletableFuture<Void> shutdown() {
+    return shutdown(config == null ? ServerConfig.DEFAULT_DRAIN_TIMEOUT : config.getDrainTimeout());
+  }
+
+  /**
+   * Stops accepting connections, then closes each open one with a 421 as soon as it has no mail
+   * transaction in progress and isn't waiting on a reply. Clients that are in the middle of a
+   * transaction get to finish it first, until the drain timeout is up; whatever is still open then
+   * is closed without a reply. Event loop groups that were supplied in the config are left running,
+   * but the server's listeners and connections on them are closed.
+   *
+   * <p>Calling this again returns the same future, and doesn't change the deadline.
+   *
+   * @param drainTimeout How long to wait for transactions in progress. Zero closes all connections
+   *     at once.
+   * @return A future that completes when the listeners and connections are closed, and event loop
+   *     groups the server created have terminated.
+   */
+  public synchronized CompletableFuture<Void> shutdown(Duration drainTimeout) {
+    if (shutdownFuture != null) {
+      return shutdownFuture;
+    }
+    shutdownFuture = new CompletableFuture<>();
+    if (ticketKeyRotation != null) {
+      ticketKeyRotation.cancel(false);
+    }
+    if (eventLoopLagMonitor != null) {
+      eventLoopLagMonitor.stop();
+    }
+    if (tlsCertCheck != null) {
+      tlsCertCheck.cancel(false);
+    }
+    for (Channel serverChannel : serverChannels) {
+      serverChannel.close();
     }
-    if (workerGroup != null) {
-      // TODO: This results in the socket just closing :(
-      workerGroup.terminationFuture();
-      f.chain(workerGroup.shutdownGracefully());
+    // Once nothing more can be accepted, every connection that will ever be tracked has been. The
+    // drain event is queued on each one's event loop behind its registration, so it always finds a
+    // pipeline that has been set up.
+    allOf(listenersReleased).addListener(f -> drain(drainTimeout));
+    return shutdownFuture;
+  }
+
+  private void drain(Duration drainTimeout) {
+    logger.log(Level.INFO, "DRAIN_STARTED: {0} connections open", connections.size());
+    ChannelGroupFuture drained = connections.newCloseFuture();
+    ScheduledFuture<?> deadline = null;
+    if (drainTimeout.isZero()) {
+      connections.close();
+    } else {
+      for (Channel connection : connections) {
+        connection.pipeline().fireUserEventTriggered(SmtpServerHandler.DRAIN);
+      }
+      deadline =
+          GlobalEventExecutor.INSTANCE.schedule(
+              this::drainTimedOut, drainTimeout.toMillis(), TimeUnit.MILLISECONDS);
     }
-    return f;
+    ScheduledFuture<?> cancelable = deadline;
+    drained.addListener(
+        f -> {
+          if (cancelable != null) {
+            cancelable.cancel(false);
+          }
+          stopEventLoops();
+        });
+  }
+
+  private void drainTimedOut() {
+    logger.log(
+        Level.WARNING,
+        "DRAIN_TIMEOUT: Closing {0} connections with transactions in progress",
+        connections.size());
+    connections.close();
+  }
+
+  private void stopEventLoops() {
+    List<io.netty.util.concurrent.Future<?>> stopped = new ArrayList<>();
+    // There's nothing left to run on them, so no quiet period is needed
+    if (bossGroup != null && ownsBossGroup) {
+      stopped.add(bossGroup.shutdownGracefully(0, 15, TimeUnit.SECONDS));
+    }
+    if (workerGroup != null && ownsWorkerGroup) {
+      stopped.add(workerGroup.shutdownGracefully(0, 15, TimeUnit.SECONDS));
+    }
+    allOf(stopped)
+        .addListener(
+            f -> {
+              if (idleTimeouts != null) {
+                idleTimeouts.stop();
+              }
+              logger.log(Level.INFO, "SHUTDOWN_COMPLETE");
+              shutdownFuture.complete(null);
+            });
+  }
+
+  /**
+   * @return A future that completes when all of futures have, whether they succeeded or not.
+   */
+  private static io.netty.util.concurrent.Future<Void> allOf(
+      List<? extends io.netty.util.concurrent.Future<?>> futures) {
+    Promise<Void> all = GlobalEventExecutor.INSTANCE.newPromise();
+    // PromiseCombiner must only be used on its executor's thread
+    GlobalEventExecutor.INSTANCE.execute(
+        () -> {
+          PromiseCombiner combiner = new PromiseCombiner(GlobalEventExecutor.INSTANCE);
+          futures.forEach(combiner::add);
+          combiner.finish(all);
+        });
+    return all;
+  }
+
+  /**
+   * @return The channels listening for connections: one per listener, or more with {@link
+   *     ServerConfig.Builder#withAcceptors(int)}.
+   */
+  List<Channel> getServerChannels() {
+    return serverChannels;
+  }
+
+  /**
+   * @return The number of connections currently open.
+   */
+  public int getConnectionCount() {
+    return connections.size();
   }
 }
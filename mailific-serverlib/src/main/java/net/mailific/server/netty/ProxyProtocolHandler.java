@@ -0,0 +1,141 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.haproxy.HAProxyCommand;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
+import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol.AddressFamily;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.NetUtil;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.mailific.server.commands.Proxy;
+import net.mailific.server.session.SmtpSession;
+
+/**
+ * Waits for the HAProxyMessage decoded from the PROXY protocol header at the start of a connection,
+ * then sets up the session with the client address it gives and lets the greeting go out. Until
+ * then, channelActive is held back, since there's no session to greet with.
+ *
+ * <p>Any bytes that arrived after the header (e.g. a TLS ClientHello) are passed on to the handlers
+ * added for the session.
+ */
+class ProxyProtocolHandler extends ChannelInboundHandlerAdapter {
+
+  private static final Logger logger = Logger.getLogger(ProxyProtocolHandler.class.getName());
+
+  private final SmtpSessionInitializer initializer;
+
+  // The server started draining before there was a session to tell
+  private boolean draining;
+
+  ProxyProtocolHandler(SmtpSessionInitializer initializer) {
+    this.initializer = initializer;
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) {
+    // Fired again once the header has been read.
+  }
+
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt == SmtpServerHandler.DRAIN) {
+      // Passed on once the session is set up
+      draining = true;
+    } else {
+      ctx.fireUserEventTriggered(evt);
+    }
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (!(msg instanceof HAProxyMessage)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    SocketChannel channel = (SocketChannel) ctx.channel();
+    InetSocketAddress remoteAddress;
+    HAProxyMessage header = (HAProxyMessage) msg;
+    try {
+      remoteAddress = clientAddress(header, channel.remoteAddress());
+    } finally {
+      header.release();
+    }
+    logger.log(
+        Level.FINE,
+        "PROXY_HEADER: {0} is proxying for {1}",
+        new Object[] {channel.remoteAddress(), remoteAddress});
+    SmtpSession session = initializer.initSession(channel, remoteAddress);
+    // So handlers written for the PROXY verb still find it
+    session.setProperty(
+        Proxy.SESSION_CLIENTIP_PROPERTY, remoteAddress.getAddress().getHostAddress());
+    ctx.fireChannelActive();
+    if (draining) {
+      ctx.fireUserEventTriggered(SmtpServerHandler.DRAIN);
+    }
+    ctx.pipeline().remove(this);
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    if (cause instanceof ReadTimeoutException) {
+      // The IdleTimeoutHandler runs from the start, so a proxy that never sends the header is
+      // just an idle connection.
+      logger.log(
+          Level.INFO,
+          "CHANNEL_TIMEOUT: Timeout waiting for PROXY header. Closed connection from {0}",
+          ctx.channel().remoteAddress());
+      ctx.close();
+      return;
+    }
+    logger.log(
+        Level.INFO,
+        "PROXY_PROTOCOL_ERROR: No valid PROXY header. Closed connection from "
+            + ctx.channel().remoteAddress(),
+        cause);
+    ctx.close();
+  }
+
+  /**
+   * @param header The decoded PROXY header.
+   * @param socketAddress The address of the other end of the connection, which is the proxy.
+   * @return The client address given in the header. Or socketAddress, if the proxy says the
+   *     connection is its own (e.g. a health check), or the client isn't on IPv4 or IPv6.
+   */
+  static InetSocketAddress clientAddress(HAProxyMessage header, InetSocketAddress socketAddress)
+      throws UnknownHostException {
+    if (header.command() == HAProxyCommand.LOCAL) {
+      return socketAddress;
+    }
+    AddressFamily family = header.proxiedProtocol().addressFamily();
+    if (family != AddressFamily.AF_IPv4 && family != AddressFamily.AF_IPv6) {
+      return socketAddress;
+    }
+    // The decoder has already checked it's a literal address, so there's no lookup.
+    byte[] address = NetUtil.createByteArrayFromIpAddressString(header.sourceAddress());
+    return new InetSocketAddress(InetAddress.getByAddress(address), header.sourcePort());
+  }
+}
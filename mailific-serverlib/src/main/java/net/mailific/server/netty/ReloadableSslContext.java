@@ -0,0 +1,96 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.handler.ssl.SslContext;
+import java.io.File;
+import java.util.function.Supplier;
+import javax.net.ssl.SSLException;
+
+/**
+ * Holds a listener's current SslContext, which can be swapped for one freshly built from the cert
+ * files without a restart. Each new TLS session uses whichever context is current when it starts.
+ * Sessions that are already encrypted carry on with the context they started with.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class ReloadableSslContext implements Supplier<SslContext> {
+
+  /** Builds a context from the cert files. */
+  interface Loader {
+    SslContext load() throws SSLException;
+  }
+
+  private final File cert;
+  private final File key;
+  private final Loader loader;
+  private volatile SslContext current;
+  private long certModified;
+  private long keyModified;
+
+  ReloadableSslContext(File cert, File key, Loader loader) throws SSLException {
+    this.cert = cert;
+    this.key = key;
+    this.loader = loader;
+    this.certModified = cert.lastModified();
+    this.keyModified = key.lastModified();
+    this.current = loader.load();
+  }
+
+  @Override
+  public SslContext get() {
+    return current;
+  }
+
+  File getCert() {
+    return cert;
+  }
+
+  /**
+   * Builds a new context from the files and makes it current. If that fails, the current context is
+   * kept.
+   *
+   * @return The context that was replaced.
+   */
+  synchronized SslContext reload() throws SSLException {
+    // Noted before loading, so a file written during the load is picked up by the next check
+    long newCertModified = cert.lastModified();
+    long newKeyModified = key.lastModified();
+    SslContext next;
+    try {
+      next = loader.load();
+    } catch (IllegalArgumentException e) {
+      // What SslContextBuilder throws for unreadable or mismatched files
+      throw new SSLException("Can't load TLS cert " + cert, e);
+    }
+    SslContext previous = current;
+    current = next;
+    certModified = newCertModified;
+    keyModified = newKeyModified;
+    return previous;
+  }
+
+  /**
+   * @return true if the cert or key file has been modified since the context was last loaded.
+   */
+  synchronized boolean isStale() {
+    return cert.lastModified() != certModified || key.lastModified() != keyModified;
+  }
+}
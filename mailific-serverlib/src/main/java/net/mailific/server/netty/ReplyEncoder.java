@@ -0,0 +1,47 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import java.util.List;
+import net.mailific.server.session.Reply;
+
+/**
+ * Writes Replies to the wire. The encoded bytes are cached by the Reply itself (see {@link
+ * Reply#replyBytes()}), so all this does is wrap them -- no formatting, charset encoding, or
+ * copying happens here.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+@Sharable
+public class ReplyEncoder extends MessageToMessageEncoder<Reply> {
+
+  public ReplyEncoder() {
+    super(Reply.class);
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, Reply reply, List<Object> out) {
+    out.add(Unpooled.wrappedBuffer(reply.replyBytes()));
+  }
+}
@@ -0,0 +1,99 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on a shared executor. This is how the
+ * work for a single session can be taken off the event loop without the session ever being used by
+ * two threads at once.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class SerialExecutor implements Executor {
+
+  private static final Logger logger = Logger.getLogger(SerialExecutor.class.getName());
+
+  private final Executor delegate;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    try {
+      schedule();
+    } catch (RejectedExecutionException e) {
+      // The caller cleans up after a rejected task, so it mustn't be left to run later
+      tasks.remove(task);
+      throw e;
+    }
+  }
+
+  private void schedule() {
+    if (running.compareAndSet(false, true)) {
+      try {
+        delegate.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        running.set(false);
+        throw e;
+      }
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      try {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "SERIAL_TASK_ERROR", e);
+          }
+        }
+      } finally {
+        running.set(false);
+      }
+      // A task may have been added after the last poll but before running was cleared
+      if (tasks.isEmpty() || !running.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        delegate.execute(this::drain);
+        return;
+      } catch (RejectedExecutionException e) {
+        // The executor is shutting down. Nobody is waiting to hear about it here, so run what's
+        // left on this thread rather than strand it, along with any buffers it holds.
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.ByteProcessor;
+import java.util.List;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+
+/**
+ * The line framer. Emits one frame per CRLF-terminated line, including the CRLF. A bare CR or LF is
+ * just part of the line.
+ *
+ * <p>Lines read while the session is in {@link StandardStates#READING_DATA} (which only happens if
+ * the data isn't read in bulk by a {@link DataDecoder}) have their own length limit, since RFC5321
+ * allows text lines to be longer than command lines.
+ *
+ * <p>An over-long line is discarded as it arrives, never buffered. Once its CRLF has been read,
+ * {@link #LINE_TOO_LONG} is emitted in its place, so that the line can be answered in turn.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public class SmtpLineDecoder extends ByteToMessageDecoder {
+
+  /** Emitted in place of a line that was longer than the limit, after it has been discarded. */
+  public static final Object LINE_TOO_LONG = new Object();
+
+  private final SmtpSession session;
+  private final int maxCommandLineLength;
+  private final int maxDataLineLength;
+
+  // How far into the cumulation has already been searched for a CRLF
+  private int searched;
+  private boolean discarding;
+
+  /**
+   * @param session The session the lines are for. Its state determines which limit applies.
+   * @param maxCommandLineLength Longest line allowed, not counting the CRLF, in any state but
+   *     READING_DATA.
+   * @param maxDataLineLength Longest line allowed, not counting the CRLF, in READING_DATA.
+   */
+  public SmtpLineDecoder(SmtpSession session, int maxCommandLineLength, int maxDataLineLength) {
+    this.session = session;
+    this.maxCommandLineLength = maxCommandLineLength;
+    this.maxDataLineLength = maxDataLineLength;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    int start = in.readerIndex();
+    int end = in.writerIndex();
+    int cr = findCrlf(in, start + searched, end);
+    if (cr >= 0) {
+      searched = 0;
+      if (discarding) {
+        discarding = false;
+        in.readerIndex(cr + 2);
+        out.add(LINE_TOO_LONG);
+      } else if (cr - start > maxLineLength()) {
+        in.readerIndex(cr + 2);
+        out.add(LINE_TOO_LONG);
+      } else {
+        out.add(in.readRetainedSlice(cr + 2 - start));
+      }
+      return;
+    }
+
+    // A CR at the very end may be the start of a CRLF, so it's searched again next time
+    int unsearched = in.getByte(end - 1) == '\r' ? 1 : 0;
+    if (discarding || end - unsearched - start > maxLineLength()) {
+      discarding = true;
+      in.skipBytes(end - unsearched - start);
+      searched = 0;
+    } else {
+      searched = end - unsearched - start;
+    }
+  }
+
+  private int maxLineLength() {
+    return session.getConnectionState() == StandardStates.READING_DATA
+        ? maxDataLineLength
+        : maxCommandLineLength;
+  }
+
+  /**
+   * @return The index of the CR of the first CRLF in [from, to), or -1.
+   */
+  private static int findCrlf(ByteBuf in, int from, int to) {
+    while (from < to - 1) {
+      int i = in.forEachByte(from, to - from, ByteProcessor.FIND_CRLF);
+      if (i < 0) {
+        return -1;
+      }
+      if (in.getByte(i) == '\r' && i + 1 < to && in.getByte(i + 1) == '\n') {
+        return i;
+      }
+      from = i + 1;
+    }
+    return -1;
+  }
+}
@@ -19,6 +19,7 @@
 package net.mailific.server.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -28,16 +29,23 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.AsyncMapping;
 import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.mailific.server.ServerConfig;
 import net.mailific.server.extension.starttls.StartTls;
+import net.mailific.server.session.BulkDataSession;
+import net.mailific.server.session.ChunkingSession;
 import net.mailific.server.session.Reply;
+import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
 
 /**
  * Passes each incoming line to an SmtpSession retrieved from the connection context. Returns the
@@ -50,15 +58,95 @@ public class SmtpServerHandler extends ChannelInboundHandlerAdapter {
 
   private static final Logger logger = Logger.getLogger(SmtpServerHandler.class.getName());
 
-  private final SslContext sslContext;
+  private final Supplier<SslContext> sslContext;
+  private final AsyncMapping<String, SslContext> sni;
+  private final Executor tlsTaskExecutor;
+
+  // True while the DataDecoder is in the pipeline
+  private boolean readingData;
+
+  // True while the ChunkDecoder is in the pipeline
+  private boolean readingChunk;
+
+  // True while the HoldDecoder is in the pipeline
+  private boolean holding;
+
+  // True once the server has asked for the connection to be closed when there's no transaction
+  private boolean draining;
+
+  // True once the 421 has been sent
+  private boolean closing;
+
+  private final Executor dataExecutor;
+  private final long dataLowWaterMark;
+  private final long dataHighWaterMark;
+  private DataOffload offload;
+  private final int maxCommandLineLength;
+  private final int maxDataLineLength;
 
   SmtpServerHandler(SslContext sslContext) {
+    this(
+        () -> sslContext,
+        null,
+        null,
+        null,
+        0,
+        0,
+        ServerConfig.DEFAULT_MAX_LINE_LENGTH,
+        ServerConfig.DEFAULT_MAX_LINE_LENGTH);
+  }
+
+  /**
+   * @param sslContext Supplies the context for STARTTLS. Asked each time, so that a reloaded cert
+   *     is picked up.
+   * @param sni If not null, STARTTLS uses the cert this picks for the host name the client sends,
+   *     instead of sslContext's.
+   * @param tlsTaskExecutor If not null, the expensive parts of the TLS handshake after STARTTLS run
+   *     on this executor rather than the event loop.
+   * @param dataExecutor If not null, message data is passed to the session on this executor rather
+   *     than the event loop. See {@link DataOffload}.
+   * @param dataLowWaterMark Reading resumes when the queued data drains to this many bytes.
+   * @param dataHighWaterMark Reading stops when more than this many bytes of data are queued.
+   * @param maxCommandLineLength Longest command line accepted, not counting the CRLF.
+   * @param maxDataLineLength Longest line of message data accepted, not counting the CRLF.
+   */
+  SmtpServerHandler(
+      Supplier<SslContext> sslContext,
+      AsyncMapping<String, SslContext> sni,
+      Executor tlsTaskExecutor,
+      Executor dataExecutor,
+      long dataLowWaterMark,
+      long dataHighWaterMark,
+      int maxCommandLineLength,
+      int maxDataLineLength) {
     this.sslContext = sslContext;
+    this.sni = sni;
+    this.tlsTaskExecutor = tlsTaskExecutor;
+    this.dataExecutor = dataExecutor;
+    this.dataLowWaterMark = dataLowWaterMark;
+    this.dataHighWaterMark = dataHighWaterMark;
+    this.maxCommandLineLength = maxCommandLineLength;
+    this.maxDataLineLength = maxDataLineLength;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    if (dataExecutor != null) {
+      offload =
+          new DataOffload(
+              ctx, dataExecutor, dataLowWaterMark, dataHighWaterMark, () -> updateAutoRead(ctx));
+    }
   }
 
   static final AttributeKey<SmtpSession> SESSION_KEY =
       AttributeKey.valueOf(SmtpServerHandler.class, "SMTP_SESSION");
 
+  /**
+   * User event that puts a connection in drain mode. If the session is between transactions, it's
+   * closed with a 421 at once. Otherwise, it's closed that way as soon as its transaction is over.
+   */
+  static final Object DRAIN = new Object();
+
   @Override
   public void channelActive(ChannelHandlerContext ctx) throws Exception {
     SocketChannel channel = (SocketChannel) ctx.channel();
@@ -67,63 +155,260 @@ public class SmtpServerHandler extends ChannelInboundHandlerAdapter {
     } else {
       SmtpSession session = channel.attr(SESSION_KEY).get();
       Reply result = session.connect();
-      ctx.write(result.replyString());
+      ctx.write(result);
       ctx.flush();
     }
   }
 
   private void shutdown(ChannelHandlerContext ctx) {
-    ChannelFuture future = ctx.write(Reply._421_SHUTTING_DOWN.replyString());
+    if (closing) {
+      return;
+    }
+    closing = true;
+    ChannelFuture future = ctx.write(Reply._421_SHUTTING_DOWN);
     future.addListener(ChannelFutureListener.CLOSE);
     ctx.flush();
   }
 
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt == DRAIN) {
+      draining = true;
+      drainIfIdle(ctx, ctx.channel().attr(SESSION_KEY).get());
+    } else {
+      ctx.fireUserEventTriggered(evt);
+    }
+  }
+
+  /*
+   * In drain mode, close the connection if there's no transaction in progress and no reply is
+   * being worked out.
+   */
+  private boolean drainIfIdle(ChannelHandlerContext ctx, SmtpSession session) {
+    if (!draining || readingData || readingChunk || holding) {
+      return false;
+    }
+    SessionState state = session.getConnectionState();
+    if (state == StandardStates.CONNECTED
+        || state == StandardStates.AFTER_EHLO
+        || state == StandardStates.BEFORE_CONNECT) {
+      shutdown(ctx);
+      return true;
+    }
+    return false;
+  }
+
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    Channel channel = ctx.channel();
+    final SmtpSession session = channel.attr(SESSION_KEY).get();
+    if (msg == DataDecoder.END_OF_DATA) {
+      readingData = false;
+      BulkDataSession bulk = (BulkDataSession) session;
+      if (offload != null) {
+        holdInput(
+            ctx,
+            session,
+            SmtpSessionInitializer.DATA_DECODER,
+            offload.end(session, bulk::endOfData));
+        return;
+      }
+      sendReply(ctx, bulk.endOfData());
+      afterReply(ctx, session, SmtpSessionInitializer.DATA_DECODER);
+      return;
+    }
+    if (msg == ChunkDecoder.END_OF_CHUNK) {
+      readingChunk = false;
+      ChunkingSession chunking = (ChunkingSession) session;
+      if (offload != null) {
+        holdInput(
+            ctx,
+            session,
+            SmtpSessionInitializer.CHUNK_DECODER,
+            offload.end(session, chunking::endOfChunk));
+        return;
+      }
+      sendReply(ctx, chunking.endOfChunk());
+      afterReply(ctx, session, SmtpSessionInitializer.CHUNK_DECODER);
+      return;
+    }
+    if (msg == SmtpLineDecoder.LINE_TOO_LONG) {
+      lineTooLong(ctx, session);
+      return;
+    }
     final ByteBuf buf = (ByteBuf) msg;
     try {
-      if (ctx.executor().isShuttingDown() || ctx.executor().isShutdown()) {
+      if (ctx.executor().isShuttingDown() || ctx.executor().isShutdown() || closing) {
         shutdown(ctx);
         return;
       }
-      Reply reply = Reply._451_LOCAL_ERROR;
-
-      Channel channel = ctx.channel();
-      final SmtpSession session = channel.attr(SESSION_KEY).get();
-      byte[] line = byteBufToArray(buf);
-      reply = session.consumeLine(line);
-
-      if (reply == StartTls._220_READY) {
-        SslHandler sslHandler = sslContext.newHandler(channel.alloc());
-        ctx.pipeline().addFirst(sslHandler);
-        sslHandler.handshakeFuture().addListener(new TlsStartListener(session, sslHandler));
+      // The decoders that set these flags are only put in place for sessions that can take it
+      if (readingData) {
+        BulkDataSession bulk = (BulkDataSession) session;
+        if (offload != null) {
+          offload.consume(buf, bulk::consumeData);
+        } else {
+          bulk.consumeData(buf.nioBuffer());
+        }
+        return;
       }
-      if (reply != Reply.DO_NOT_REPLY) {
-        ChannelFuture future = ctx.write(reply.replyString());
-        // In most cases, the response is turned immediately. But to support buffered responses when
-        // clients
-        // use Pipelining, certain replies do not cause an immediate flush. Those will be flushed
-        // when the
-        // input buffer is empty, which results in a call to #channelReadComplete. That also takes
-        // care of
-        // the case where a non-Pipelining client has issued a command with a non-immediate
-        // response. If we
-        // trusted clients to only pipeline the commands they should, we could dispense with this
-        // flush entirely.
-        if (reply.isImmediate()) {
-          ctx.flush();
+      if (readingChunk) {
+        ChunkingSession chunking = (ChunkingSession) session;
+        if (offload != null) {
+          offload.consume(buf, chunking::consumeChunk);
+        } else {
+          chunking.consumeChunk(buf.nioBuffer());
         }
-        if (reply.getCode() == 221) {
-          // TODO: instead of being triggered by a code, there should probably
-          // be a shouldShutDown method in session
-          future.addListener(ChannelFutureListener.CLOSE);
+        return;
+      }
+      if (drainIfIdle(ctx, session)) {
+        return;
+      }
+
+      // A view onto the frame, not a copy. The frame is released below, so nothing downstream may
+      // hold on to it.
+      Reply reply = session.consumeLine(buf.nioBuffer());
+
+      if (reply == StartTls._220_READY && sni != null) {
+        // The SniHandler doesn't encrypt anything, so the reply goes out first, in the clear
+        sendReply(ctx, reply);
+        ctx.pipeline().addFirst(new SmtpSniHandler(sni, session, tlsTaskExecutor));
+      } else {
+        if (reply == StartTls._220_READY) {
+          SslHandler sslHandler = newSslHandler(sslContext.get(), channel.alloc(), tlsTaskExecutor);
+          ctx.pipeline().addFirst(sslHandler);
+          sslHandler.handshakeFuture().addListener(new TlsStartListener(session, sslHandler));
         }
+        sendReply(ctx, reply);
       }
+      afterReply(ctx, session, SmtpSessionInitializer.FRAME_DECODER);
     } finally {
       buf.release();
     }
   }
 
+  /*
+   * A line was discarded for being too long. Mid-data the client isn't listening for replies, so
+   * the session is told instead, after any data that came before the line.
+   */
+  private void lineTooLong(ChannelHandlerContext ctx, SmtpSession session) {
+    if (readingData && offload != null) {
+      offload.execute(session::dataLineTooLong);
+    } else if (readingData || session.getConnectionState() == StandardStates.READING_DATA) {
+      session.dataLineTooLong();
+    } else {
+      sendReply(ctx, Reply._500_LINE_TOO_LONG);
+    }
+  }
+
+  private void sendReply(ChannelHandlerContext ctx, Reply reply) {
+    if (reply != Reply.DO_NOT_REPLY) {
+      ChannelFuture future = ctx.write(reply);
+      // In most cases, the response is turned immediately. But to support buffered responses when
+      // clients
+      // use Pipelining, certain replies do not cause an immediate flush. Those will be flushed
+      // when the
+      // input buffer is empty, which results in a call to #channelReadComplete. That also takes
+      // care of
+      // the case where a non-Pipelining client has issued a command with a non-immediate
+      // response. If we
+      // trusted clients to only pipeline the commands they should, we could dispense with this
+      // flush entirely.
+      if (reply.isImmediate()) {
+        ctx.flush();
+      }
+      if (reply.getCode() == 221) {
+        // TODO: instead of being triggered by a code, there should probably
+        // be a shouldShutDown method in session
+        future.addListener(ChannelFutureListener.CLOSE);
+      }
+    }
+  }
+
+  /*
+   * Called after each reply. If the session is still working out the reply, hold the input until
+   * it's ready. Otherwise carry on with the decoder for whatever comes next, unless the server is
+   * draining and that was the end of a transaction.
+   */
+  private void afterReply(ChannelHandlerContext ctx, SmtpSession session, String current) {
+    CompletionStage<Reply> pending = session.getPendingReply();
+    if (pending != null) {
+      holdInput(ctx, session, current, pending);
+    } else {
+      nextDecoder(ctx, session, current);
+      drainIfIdle(ctx, session);
+    }
+  }
+
+  /*
+   * Put the right decoder in place for whatever the session expects next: the line framer, a
+   * DataDecoder for message data, or a ChunkDecoder for a BDAT chunk. Whatever bytes the current
+   * decoder has buffered are passed on to the new one synchronously, which is why the reply has
+   * to be written first.
+   */
+  private void nextDecoder(ChannelHandlerContext ctx, SmtpSession session, String current) {
+    long chunkSize =
+        session instanceof ChunkingSession ? ((ChunkingSession) session).getPendingChunkSize() : 0;
+    if (chunkSize > 0) {
+      readingChunk = true;
+      ctx.pipeline()
+          .replace(current, SmtpSessionInitializer.CHUNK_DECODER, new ChunkDecoder(chunkSize));
+    } else if (session instanceof BulkDataSession
+        && ((BulkDataSession) session).isReadingBulkData()) {
+      readingData = true;
+      ctx.pipeline()
+          .replace(
+              current, SmtpSessionInitializer.DATA_DECODER, new DataDecoder(maxDataLineLength));
+    } else if (!SmtpSessionInitializer.FRAME_DECODER.equals(current)) {
+      ctx.pipeline()
+          .replace(
+              current,
+              SmtpSessionInitializer.FRAME_DECODER,
+              new SmtpLineDecoder(session, maxCommandLineLength, maxDataLineLength));
+    }
+  }
+
+  /*
+   * Stop reading until the reply is ready. Pipelined input that has already arrived is parked in a
+   * HoldDecoder, so that nothing the client sent after this command is looked at before its reply
+   * has gone out.
+   */
+  private void holdInput(
+      ChannelHandlerContext ctx,
+      SmtpSession session,
+      String current,
+      CompletionStage<Reply> pending) {
+    holding = true;
+    updateAutoRead(ctx);
+    ctx.pipeline().replace(current, SmtpSessionInitializer.HOLD_DECODER, new HoldDecoder());
+    // Always hop back onto the event loop, even if the stage is already complete, so that the held
+    // input is never processed from inside this channelRead.
+    pending.whenComplete(
+        (reply, error) ->
+            ctx.executor()
+                .execute(() -> pendingReplyReady(ctx, session, error == null ? reply : null)));
+  }
+
+  private void pendingReplyReady(ChannelHandlerContext ctx, SmtpSession session, Reply reply) {
+    if (!ctx.channel().isActive()) {
+      return;
+    }
+    sendReply(ctx, reply == null ? Reply._451_LOCAL_ERROR : reply);
+    // Before the decoder is swapped, since the held input may lead to another deferred reply
+    holding = false;
+    updateAutoRead(ctx);
+    nextDecoder(ctx, session, SmtpSessionInitializer.HOLD_DECODER);
+    drainIfIdle(ctx, session);
+    ctx.flush();
+  }
+
+  /*
+   * Read from the channel unless a reply is pending or offloaded data is backed up.
+   */
+  private void updateAutoRead(ChannelHandlerContext ctx) {
+    ctx.channel().config().setAutoRead(!holding && (offload == null || !offload.isThrottled()));
+  }
+
   /**
    * If there are buffered responses (because Pipelining is being used by the client) then they
    * should be flushed whenever the input buffer is empty.
@@ -133,34 +418,34 @@ public class SmtpServerHandler extends ChannelInboundHandlerAdapter {
     ctx.flush();
   }
 
-  private byte[] byteBufToArray(ByteBuf buf) throws IOException {
-    byte[] line;
-    if (buf.hasArray()) {
-      line = new byte[buf.readableBytes()];
-      buf.readBytes(line);
-    } else {
-      ByteArrayOutputStream copyStream = new ByteArrayOutputStream(buf.readableBytes());
-      buf.readBytes(copyStream, buf.readableBytes());
-      line = copyStream.toByteArray();
-    }
-    return line;
-  }
-
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     if (cause instanceof ReadTimeoutException) {
       logger.log(
           Level.INFO,
-          "CHANNEL_TIMEOUT: Timeout waiting for data from client. Closed connection from %s",
-          ctx.channel().remoteAddress());
+          "CHANNEL_TIMEOUT: Timeout waiting for data from client. Closed connection from {0}",
+          ctx.channel().attr(SESSION_KEY).get().getRemoteAddress());
       ctx.close();
       return;
     }
     logger.log(Level.SEVERE, "CHANNEL_ERROR: UnhandledException", cause);
-    ctx.write(Reply._451_LOCAL_ERROR.replyString());
+    ctx.write(Reply._451_LOCAL_ERROR);
     ctx.flush();
   }
 
+  /**
+   * @param tlsTaskExecutor If not null, the SSLEngine's delegated tasks (key exchange, certificate
+   *     signing and verification) run here, so they don't hold up the other channels on the event
+   *     loop.
+   */
+  static SslHandler newSslHandler(
+      SslContext sslContext, ByteBufAllocator alloc, Executor tlsTaskExecutor) {
+    if (tlsTaskExecutor == null) {
+      return sslContext.newHandler(alloc);
+    }
+    return sslContext.newHandler(alloc, tlsTaskExecutor);
+  }
+
   static class TlsStartListener implements GenericFutureListener<Future<? super Channel>> {
     private final SmtpSession session;
     private SslHandler sslHandler;
@@ -182,7 +467,11 @@ public class SmtpServerHandler extends ChannelInboundHandlerAdapter {
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
     SocketChannel channel = (SocketChannel) ctx.channel();
     SmtpSession session = channel.attr(SESSION_KEY).get();
-    session.clearMailObject();
+    if (offload != null) {
+      offload.close(session);
+    } else {
+      session.clearMailObject();
+    }
     super.channelInactive(ctx);
   }
 }
@@ -18,23 +18,27 @@
 
 package net.mailific.server.netty;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.timeout.ReadTimeoutHandler;
-import java.nio.charset.StandardCharsets;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AsyncMapping;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.mailific.server.ServerConfig;
+import net.mailific.server.session.SmtpSession;
 import net.mailific.server.session.SmtpSessionFactory;
 
 /**
  * For each incoming connection, creates and associates a new SmtpSession.Sets up the channel
- * pipeline with a 5-minute timeout, CRLF-based frame decoder, and SmtpServerHandler.
+ * pipeline with an idle timeout, CRLF-based line decoder, and SmtpServerHandler. If the connections
+ * come through a proxy using the PROXY protocol, the session isn't created until the header has
+ * been read.
  *
  * @author jhumphreys
  * @since 1.0.0
@@ -43,29 +47,152 @@ public class SmtpSessionInitializer extends ChannelInitializer<SocketChannel> {
 
   private static final Logger logger = Logger.getLogger(SmtpSessionInitializer.class.getName());
 
-  private static final StringEncoder STRING_ENCODER = new StringEncoder(StandardCharsets.UTF_8);
-  private static final ByteBuf CRLF = Unpooled.wrappedBuffer(new byte[] {'\r', '\n'});
-  private SslContext sslContext;
+  private static final ReplyEncoder REPLY_ENCODER = new ReplyEncoder();
+  static final String FRAME_DECODER = "frame";
+  static final String DATA_DECODER = "data";
+  static final String CHUNK_DECODER = "chunk";
+  static final String HOLD_DECODER = "hold";
+  static final String SSL_HANDLER = "ssl";
+  static final String SNI_HANDLER = "sni";
+  static final String IDLE_TIMEOUT_HANDLER = "idleTimeout";
+  static final String PROXY_DECODER = "proxyDecoder";
+  static final String PROXY_HANDLER = "proxy";
+
+  private Supplier<SslContext> sslContext;
+  private AsyncMapping<String, SslContext> sni;
   private SmtpSessionFactory sessionFactory;
+  private boolean proxyProtocol;
+  private boolean implicitTls;
+  private Executor tlsTaskExecutor;
+  private Executor dataExecutor;
+  private long dataLowWaterMark;
+  private long dataHighWaterMark;
+  private int maxCommandLineLength;
+  private int maxDataLineLength;
+  private IdleTimeouts idleTimeouts;
 
   public SmtpSessionInitializer(SmtpSessionFactory sessionFactory, SslContext sslContext) {
+    this(
+        sessionFactory,
+        false,
+        () -> sslContext,
+        null,
+        false,
+        null,
+        null,
+        0,
+        0,
+        ServerConfig.DEFAULT_MAX_LINE_LENGTH,
+        ServerConfig.DEFAULT_MAX_LINE_LENGTH,
+        null);
+  }
+
+  /**
+   * @param proxyProtocol If true, each connection must start with a PROXY protocol header, and the
+   *     session is given the client address from it.
+   * @param sslContext Supplies the context for each new TLS session, so a reloaded cert is picked
+   *     up by new connections. May supply null if TLS isn't offered.
+   * @param sni If not null, picks the cert for the host name a client sends with SNI, in place of
+   *     sslContext's. sslContext must still supply a context.
+   * @param implicitTls If true, each connection starts with a TLS handshake using sslContext, which
+   *     must supply a context.
+   * @param tlsTaskExecutor If not null, the expensive parts of TLS handshakes run on this executor
+   *     instead of the I/O thread.
+   * @param dataExecutor If not null, message data is written to the MailObject on this executor
+   *     instead of the I/O thread.
+   * @param dataLowWaterMark Reading from a connection whose data is backed up resumes when its
+   *     queued data drains to this many bytes.
+   * @param dataHighWaterMark Reading from a connection stops when more than this many bytes of its
+   *     data are queued.
+   * @param maxCommandLineLength Longest command line accepted, not counting the CRLF.
+   * @param maxDataLineLength Longest line of message data accepted, not counting the CRLF.
+   * @param idleTimeouts How long connections may be idle in each state. If null, {@link
+   *     ServerConfig#DEFAULT_IDLE_TIMEOUT} for all of them.
+   * @since 1.0.8
+   */
+  public SmtpSessionInitializer(
+      SmtpSessionFactory sessionFactory,
+      boolean proxyProtocol,
+      Supplier<SslContext> sslContext,
+      AsyncMapping<String, SslContext> sni,
+      boolean implicitTls,
+      Executor tlsTaskExecutor,
+      Executor dataExecutor,
+      long dataLowWaterMark,
+      long dataHighWaterMark,
+      int maxCommandLineLength,
+      int maxDataLineLength,
+      IdleTimeouts idleTimeouts) {
     this.sessionFactory = sessionFactory;
+    this.proxyProtocol = proxyProtocol;
     this.sslContext = sslContext;
+    this.sni = sni;
+    this.implicitTls = implicitTls;
+    this.tlsTaskExecutor = tlsTaskExecutor;
+    this.dataExecutor = dataExecutor;
+    this.dataLowWaterMark = dataLowWaterMark;
+    this.dataHighWaterMark = dataHighWaterMark;
+    this.maxCommandLineLength = maxCommandLineLength;
+    this.maxDataLineLength = maxDataLineLength;
+    this.idleTimeouts = idleTimeouts == null ? IdleTimeouts.defaults() : idleTimeouts;
   }
 
   @Override
   protected void initChannel(SocketChannel ch) throws Exception {
 
     logger.log(Level.FINE, "INIT_CHANNEL");
-    ch.attr(SmtpServerHandler.SESSION_KEY).set(sessionFactory.newSmtpSession(ch.remoteAddress()));
+    ChannelPipeline pipeline = ch.pipeline();
+
+    pipeline.addLast(IDLE_TIMEOUT_HANDLER, new IdleTimeoutHandler(idleTimeouts));
+    if (proxyProtocol) {
+      pipeline.addLast(PROXY_DECODER, new HAProxyMessageDecoder());
+      pipeline.addLast(PROXY_HANDLER, new ProxyProtocolHandler(this));
+    } else {
+      initSession(ch, ch.remoteAddress());
+    }
+  }
+
+  /**
+   * Creates the session and adds the handlers that serve it.
+   *
+   * @param remoteAddress The client's address. Not the channel's if a proxy is in between.
+   */
+  SmtpSession initSession(SocketChannel ch, InetSocketAddress remoteAddress) {
+    SmtpSession session = sessionFactory.newSmtpSession(remoteAddress);
+    ch.attr(SmtpServerHandler.SESSION_KEY).set(session);
 
     ChannelPipeline pipeline = ch.pipeline();
 
-    // TODO: allow to enforce shorter line limits.
-    // TODO: allow variable timeouts. For now, 300s is recommended by RFC5321.4.5.3.2.7
-    pipeline.addLast("readTimeoutHandler", new ReadTimeoutHandler(300));
-    pipeline.addLast("frame", new DelimiterBasedFrameDecoder(2048, false, true, CRLF));
-    pipeline.addLast(STRING_ENCODER);
-    pipeline.addLast("smtp", new SmtpServerHandler(sslContext));
+    if (implicitTls && sni != null) {
+      // The greeting written in channelActive is held until there's an SslHandler to encrypt it
+      // It also marks the session as TLS, once it has an engine to take the SSLSession from
+      pipeline.addLast(SNI_HANDLER, new SmtpSniHandler(sni, session, tlsTaskExecutor));
+    } else if (implicitTls) {
+      // The greeting written in channelActive is held by the SslHandler until the handshake is done
+      SslHandler sslHandler =
+          SmtpServerHandler.newSslHandler(sslContext.get(), ch.alloc(), tlsTaskExecutor);
+      pipeline.addLast(SSL_HANDLER, sslHandler);
+      // A placeholder until the handshake completes, but enough to stop STARTTLS being offered
+      session.setSslSession(sslHandler.engine().getSession());
+      sslHandler
+          .handshakeFuture()
+          .addListener(new SmtpServerHandler.TlsStartListener(session, sslHandler));
+    }
+
+    pipeline.addLast(
+        FRAME_DECODER, new SmtpLineDecoder(session, maxCommandLineLength, maxDataLineLength));
+    pipeline.addLast(REPLY_ENCODER);
+    pipeline.addLast(
+        "smtp",
+        new SmtpServerHandler(
+            sslContext,
+            sni,
+            tlsTaskExecutor,
+            dataExecutor,
+            dataLowWaterMark,
+            dataHighWaterMark,
+            maxCommandLineLength,
+            maxDataLineLength));
+    return session;
   }
 }
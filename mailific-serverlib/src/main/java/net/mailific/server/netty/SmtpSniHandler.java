@@ -0,0 +1,126 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ssl.SniHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AsyncMapping;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import javax.net.ssl.SSLException;
+import net.mailific.server.session.SmtpSession;
+
+/**
+ * Waits for the client's hello, then swaps itself for an SslHandler using the cert for the host
+ * name the client asked for.
+ *
+ * <p>Unlike an SslHandler, Netty's SniHandler lets writes straight through. So anything written
+ * before the swap (e.g. the greeting on an implicit TLS connection) is held here, and passed to the
+ * SslHandler once it's in place.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class SmtpSniHandler extends SniHandler {
+
+  private final SmtpSession session;
+  private final Executor tlsTaskExecutor;
+  private Queue<PendingWrite> pendingWrites = new ArrayDeque<>();
+
+  private static class PendingWrite {
+    final Object msg;
+    final ChannelPromise promise;
+
+    PendingWrite(Object msg, ChannelPromise promise) {
+      this.msg = msg;
+      this.promise = promise;
+    }
+  }
+
+  SmtpSniHandler(
+      AsyncMapping<String, SslContext> mapping, SmtpSession session, Executor tlsTaskExecutor) {
+    super(mapping);
+    this.session = session;
+    this.tlsTaskExecutor = tlsTaskExecutor;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    pendingWrites.add(new PendingWrite(msg, promise));
+  }
+
+  @Override
+  protected SslHandler newSslHandler(SslContext context, ByteBufAllocator allocator) {
+    // Built directly, because the context may be a STARTTLS one, whose handlers let the first
+    // write out unencrypted. Here, that write has already gone.
+    SslHandler sslHandler =
+        tlsTaskExecutor == null
+            ? new SslHandler(context.newEngine(allocator))
+            : new SslHandler(context.newEngine(allocator), tlsTaskExecutor);
+    // A placeholder until the handshake completes, but enough to stop STARTTLS being offered. No
+    // command can have been read yet: the client's first bytes were its hello.
+    session.setSslSession(sslHandler.engine().getSession());
+    sslHandler
+        .handshakeFuture()
+        .addListener(new SmtpServerHandler.TlsStartListener(session, sslHandler));
+    return sslHandler;
+  }
+
+  @Override
+  protected void replaceHandler(ChannelHandlerContext ctx, String hostname, SslContext sslContext)
+      throws Exception {
+    // Taken now, because this handler is removed (see handlerRemoved0) during the replacement
+    Queue<PendingWrite> writes = pendingWrites;
+    pendingWrites = new ArrayDeque<>();
+    try {
+      super.replaceHandler(ctx, hostname, sslContext);
+    } catch (Exception e) {
+      discard(writes);
+      throw e;
+    }
+    // From the tail, so they pass through the new SslHandler
+    Channel channel = ctx.channel();
+    for (PendingWrite write : writes) {
+      channel.write(write.msg, write.promise);
+    }
+    channel.flush();
+  }
+
+  @Override
+  protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+    super.handlerRemoved0(ctx);
+    // Anything still here was never going to be sent, e.g. the client gave up before its hello
+    discard(pendingWrites);
+  }
+
+  private static void discard(Queue<PendingWrite> writes) {
+    for (PendingWrite write : writes) {
+      ReferenceCountUtil.release(write.msg);
+      write.promise.tryFailure(new SSLException("TLS handshake did not start"));
+    }
+    writes.clear();
+  }
+}
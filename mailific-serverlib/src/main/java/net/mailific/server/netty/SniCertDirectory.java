@@ -0,0 +1,185 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+/**
+ * An index of the certs in a directory, by the host names they're good for. Each cert chain is a
+ * PEM file named {@code <name>.pem}, with its PKCS8 key alongside in {@code <name>.key}. The host
+ * names are read from the cert's DNS subject alternative names, or from its CN if it has none.
+ * Wildcard names like {@code *.example.com} cover exactly one extra label, as in RFC 6125.
+ *
+ * <p>Only the certs themselves are read. Building an SslContext from them is left until a client
+ * asks for one.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class SniCertDirectory {
+
+  private static final Logger logger = Logger.getLogger(SniCertDirectory.class.getName());
+
+  static final String CERT_SUFFIX = ".pem";
+  static final String KEY_SUFFIX = ".key";
+
+  // The subjectAltName type for a DNS name
+  private static final int DNS_NAME = 2;
+
+  /** A cert chain and its key. */
+  static class CertFiles {
+    final File cert;
+    final File key;
+
+    CertFiles(File cert, File key) {
+      this.cert = cert;
+      this.key = key;
+    }
+  }
+
+  private final File dir;
+  private final Map<String, CertFiles> byHost = new HashMap<>();
+  // What the directory looked like when it was scanned, to tell when it changes
+  private final Map<String, Long> modified = new HashMap<>();
+
+  private SniCertDirectory(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * @throws IllegalArgumentException if dir isn't a readable directory.
+   */
+  static SniCertDirectory scan(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException("Cannot read SNI cert directory: " + dir);
+    }
+    SniCertDirectory scanned = new SniCertDirectory(dir);
+    CertificateFactory factory;
+    try {
+      factory = CertificateFactory.getInstance("X.509");
+    } catch (CertificateException e) {
+      // Every JRE has to support X.509
+      throw new IllegalStateException(e);
+    }
+    for (File file : files) {
+      scanned.modified.put(file.getName(), file.lastModified());
+      if (!file.getName().endsWith(CERT_SUFFIX)) {
+        continue;
+      }
+      String name = file.getName();
+      File key =
+          new File(dir, name.substring(0, name.length() - CERT_SUFFIX.length()) + KEY_SUFFIX);
+      if (!key.isFile()) {
+        logger.log(Level.WARNING, "SNI_CERT_SKIPPED: No key {0} for {1}", new Object[] {key, file});
+        continue;
+      }
+      CertFiles certFiles = new CertFiles(file, key);
+      try (InputStream in = new FileInputStream(file)) {
+        for (String host : hostNames((X509Certificate) factory.generateCertificate(in))) {
+          scanned.byHost.putIfAbsent(host, certFiles);
+        }
+      } catch (IOException | CertificateException e) {
+        logger.log(Level.WARNING, "SNI_CERT_SKIPPED: Can't read " + file, e);
+      }
+    }
+    return scanned;
+  }
+
+  static List<String> hostNames(X509Certificate cert) throws CertificateParsingException {
+    List<String> names = new ArrayList<>();
+    Collection<List<?>> altNames = cert.getSubjectAlternativeNames();
+    if (altNames != null) {
+      for (List<?> altName : altNames) {
+        if (((Integer) altName.get(0)) == DNS_NAME) {
+          names.add(((String) altName.get(1)).toLowerCase(Locale.ROOT));
+        }
+      }
+    }
+    if (names.isEmpty()) {
+      try {
+        for (Rdn rdn : new LdapName(cert.getSubjectX500Principal().getName()).getRdns()) {
+          if ("CN".equalsIgnoreCase(rdn.getType())) {
+            names.add(rdn.getValue().toString().toLowerCase(Locale.ROOT));
+          }
+        }
+      } catch (InvalidNameException e) {
+        throw new CertificateParsingException(e);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * @param host The name the client asked for.
+   * @return The cert for the host, or null if there isn't one.
+   */
+  CertFiles find(String host) {
+    if (host == null) {
+      return null;
+    }
+    host = host.toLowerCase(Locale.ROOT);
+    CertFiles exact = byHost.get(host);
+    if (exact != null) {
+      return exact;
+    }
+    int dot = host.indexOf('.');
+    return dot < 0 ? null : byHost.get("*" + host.substring(dot));
+  }
+
+  int size() {
+    return byHost.size();
+  }
+
+  /**
+   * @return true if a file has been added to, removed from, or modified in the directory since it
+   *     was scanned.
+   */
+  boolean isStale() {
+    File[] files = dir.listFiles();
+    if (files == null || files.length != modified.size()) {
+      return true;
+    }
+    for (File file : files) {
+      Long then = modified.get(file.getName());
+      if (then == null || then != file.lastModified()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,186 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.AsyncMapping;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLException;
+import net.mailific.server.netty.SniCertDirectory.CertFiles;
+
+/**
+ * Picks the SslContext for the host name a client sent with SNI, from a {@link SniCertDirectory}.
+ * Contexts are built the first time they're asked for, and the most recently used are kept, up to a
+ * limit. Hosts that aren't in the directory, and clients that don't send a name, get the default
+ * context. Each context is built only once, however many handshakes ask for it at the same time.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class SniContextMapping implements AsyncMapping<String, SslContext> {
+
+  private static final Logger logger = Logger.getLogger(SniContextMapping.class.getName());
+
+  /** Builds a context from a cert chain and key. */
+  interface Loader {
+    SslContext load(File cert, File key) throws SSLException;
+  }
+
+  private final File dir;
+  private final Supplier<SslContext> defaultContext;
+  private final Loader loader;
+  private final Executor executor;
+  private final Consumer<SslContext> evicted;
+  private final Map<File, SslContext> cache;
+  // Handshakes waiting for a context that's being built, by cert. Guarded by cache.
+  private final Map<File, List<Promise<SslContext>>> building = new HashMap<>();
+  private volatile SniCertDirectory certs;
+
+  /**
+   * @param defaultContext For hosts without a cert of their own.
+   * @param cacheSize How many built contexts to keep.
+   * @param executor If not null, contexts are built on this rather than the I/O thread.
+   * @param evicted Told about each context dropped from the cache.
+   * @throws IllegalArgumentException if dir can't be read.
+   */
+  SniContextMapping(
+      File dir,
+      Supplier<SslContext> defaultContext,
+      Loader loader,
+      int cacheSize,
+      Executor executor,
+      Consumer<SslContext> evicted) {
+    this.dir = dir;
+    this.defaultContext = defaultContext;
+    this.loader = loader;
+    this.executor = executor;
+    this.evicted = evicted;
+    this.cache =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<File, SslContext> eldest) {
+            if (size() > cacheSize) {
+              evicted.accept(eldest.getValue());
+              return true;
+            }
+            return false;
+          }
+        };
+    this.certs = SniCertDirectory.scan(dir);
+  }
+
+  @Override
+  public Future<SslContext> map(String host, Promise<SslContext> promise) {
+    CertFiles certFiles = certs.find(host);
+    if (certFiles == null) {
+      return promise.setSuccess(defaultContext.get());
+    }
+    SslContext cached;
+    synchronized (cache) {
+      cached = cache.get(certFiles.cert);
+      if (cached == null) {
+        List<Promise<SslContext>> waiting = building.get(certFiles.cert);
+        if (waiting != null) {
+          // Someone else is already building it
+          waiting.add(promise);
+          return promise;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(promise);
+        building.put(certFiles.cert, waiting);
+      }
+    }
+    if (cached != null) {
+      return promise.setSuccess(cached);
+    }
+    if (executor == null) {
+      build(certFiles);
+    } else {
+      try {
+        executor.execute(() -> build(certFiles));
+      } catch (RejectedExecutionException e) {
+        // Don't leave the waiters hanging
+        build(certFiles);
+      }
+    }
+    return promise;
+  }
+
+  private void build(CertFiles certFiles) {
+    SslContext built = null;
+    try {
+      built = loader.load(certFiles.cert, certFiles.key);
+    } catch (SSLException | RuntimeException e) {
+      logger.log(Level.WARNING, "SNI_CERT_LOAD_FAILED: " + certFiles.cert, e);
+    }
+    List<Promise<SslContext>> waiting;
+    synchronized (cache) {
+      waiting = building.remove(certFiles.cert);
+      if (built != null) {
+        SslContext replaced = cache.put(certFiles.cert, built);
+        if (replaced != null && replaced != built) {
+          evicted.accept(replaced);
+        }
+      }
+    }
+    // Better the default cert than no TLS at all
+    SslContext context = built != null ? built : defaultContext.get();
+    for (Promise<SslContext> promise : waiting) {
+      promise.setSuccess(context);
+    }
+  }
+
+  /** Scans the directory again, and forgets the contexts built so far. */
+  void reload() {
+    certs = SniCertDirectory.scan(dir);
+    synchronized (cache) {
+      cache.values().forEach(evicted);
+      cache.clear();
+    }
+    logger.log(
+        Level.INFO, "SNI_CERTS_RELOADED: {0} host names in {1}", new Object[] {certs.size(), dir});
+  }
+
+  boolean isStale() {
+    return certs.isStale();
+  }
+
+  File getDir() {
+    return dir;
+  }
+
+  int cachedContexts() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the TLS session ticket keys of OpenSSL contexts in memory, and replaces them each time it's
+ * run. The key from the previous run is kept alongside the new one, so tickets issued just before a
+ * rotation can still be used to resume.
+ *
+ * <p>Keys are never written anywhere, so tickets don't survive a restart and aren't shared between
+ * servers.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+class TicketKeyRotator implements Runnable {
+
+  private static final Logger logger = Logger.getLogger(TicketKeyRotator.class.getName());
+
+  private final SecureRandom random = new SecureRandom();
+  private final List<OpenSslSessionContext> contexts = new CopyOnWriteArrayList<>();
+  private OpenSslSessionTicketKey[] keys;
+
+  /** If keys have already been generated, the context starts using them straight away. */
+  synchronized void add(OpenSslSessionContext context) {
+    contexts.add(context);
+    if (keys != null) {
+      context.setTicketKeys(keys);
+    }
+  }
+
+  /** For a context that has been replaced, e.g. by a reloaded cert. */
+  void remove(OpenSslSessionContext context) {
+    contexts.remove(context);
+  }
+
+  boolean isEmpty() {
+    return contexts.isEmpty();
+  }
+
+  @Override
+  public synchronized void run() {
+    OpenSslSessionTicketKey current = newKey();
+    keys =
+        keys == null
+            ? new OpenSslSessionTicketKey[] {current}
+            : new OpenSslSessionTicketKey[] {current, keys[0]};
+    // The first key is used to issue new tickets. All of them are tried when resuming.
+    contexts.forEach(c -> c.setTicketKeys(keys));
+    logger.log(Level.FINE, "TLS_TICKET_KEYS_ROTATED");
+  }
+
+  private OpenSslSessionTicketKey newKey() {
+    byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+    byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+    byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+    random.nextBytes(name);
+    random.nextBytes(hmacKey);
+    random.nextBytes(aesKey);
+    return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+  }
+}
@@ -0,0 +1,203 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.IoEventLoopGroup;
+import io.netty.channel.IoHandler;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.UnixChannelOption;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Netty transports the server can run on.
+ *
+ * <p>NIO works everywhere. EPOLL and IO_URING are Linux-only and need the corresponding native
+ * library on the classpath (netty-all pulls in the common architectures at runtime). If a native
+ * transport is requested but can't be loaded, the server falls back to the best available one
+ * rather than failing to start.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public enum Transport {
+  NIO {
+    @Override
+    public boolean isAvailable() {
+      return true;
+    }
+
+    @Override
+    IoHandlerFactory ioHandlerFactory() {
+      return NioIoHandler.newFactory();
+    }
+
+    @Override
+    Class<? extends IoHandler> ioHandlerClass() {
+      return NioIoHandler.class;
+    }
+
+    @Override
+    Class<? extends ServerChannel> serverChannelClass() {
+      return NioServerSocketChannel.class;
+    }
+  },
+
+  EPOLL {
+    @Override
+    public boolean isAvailable() {
+      try {
+        return Epoll.isAvailable();
+      } catch (LinkageError e) {
+        // transport classes not on the classpath at all
+        return false;
+      }
+    }
+
+    @Override
+    IoHandlerFactory ioHandlerFactory() {
+      return EpollIoHandler.newFactory();
+    }
+
+    @Override
+    Class<? extends IoHandler> ioHandlerClass() {
+      return EpollIoHandler.class;
+    }
+
+    @Override
+    Class<? extends ServerChannel> serverChannelClass() {
+      return EpollServerSocketChannel.class;
+    }
+
+    @Override
+    ChannelOption<Boolean> reusePortOption() {
+      return UnixChannelOption.SO_REUSEPORT;
+    }
+  },
+
+  IO_URING {
+    @Override
+    public boolean isAvailable() {
+      try {
+        return IoUring.isAvailable();
+      } catch (LinkageError e) {
+        return false;
+      }
+    }
+
+    @Override
+    IoHandlerFactory ioHandlerFactory() {
+      return IoUringIoHandler.newFactory();
+    }
+
+    @Override
+    Class<? extends IoHandler> ioHandlerClass() {
+      return IoUringIoHandler.class;
+    }
+
+    @Override
+    Class<? extends ServerChannel> serverChannelClass() {
+      return IoUringServerSocketChannel.class;
+    }
+
+    @Override
+    ChannelOption<Boolean> reusePortOption() {
+      return UnixChannelOption.SO_REUSEPORT;
+    }
+  },
+  ;
+
+  private static final Logger logger = Logger.getLogger(Transport.class.getName());
+
+  /**
+   * @return true if this transport can be used in the current JVM/OS.
+   */
+  public abstract boolean isAvailable();
+
+  abstract IoHandlerFactory ioHandlerFactory();
+
+  abstract Class<? extends IoHandler> ioHandlerClass();
+
+  abstract Class<? extends ServerChannel> serverChannelClass();
+
+  /**
+   * @return The option that lets several server channels bind the same port, or null if the
+   *     transport doesn't have one.
+   */
+  ChannelOption<Boolean> reusePortOption() {
+    return null;
+  }
+
+  /**
+   * @param group An event loop group supplied by the application.
+   * @return The transport the group's event loops run, or null if it isn't one of these.
+   */
+  static Transport of(EventLoopGroup group) {
+    if (group instanceof IoEventLoopGroup) {
+      for (Transport transport : values()) {
+        // Check availability first, so that missing native classes aren't touched
+        if (transport.isAvailable()
+            && ((IoEventLoopGroup) group).isIoType(transport.ioHandlerClass())) {
+          return transport;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The transport chosen when none is configured. EPOLL if it's available, otherwise NIO.
+   *
+   * <p>IO_URING is never chosen automatically: many kernels and container runtimes disable it, so
+   * it has to be asked for explicitly.
+   */
+  public static Transport preferred() {
+    return EPOLL.isAvailable() ? EPOLL : NIO;
+  }
+
+  /**
+   * @param requested The transport asked for in the config. May be null.
+   * @return requested, if it's available. Otherwise {@link #preferred()}.
+   */
+  public static Transport resolve(Transport requested) {
+    if (requested == null) {
+      return preferred();
+    }
+    if (requested.isAvailable()) {
+      return requested;
+    }
+    Transport fallback = preferred();
+    logger.log(
+        Level.WARNING,
+        "TRANSPORT_UNAVAILABLE: {0} transport is not available. Falling back to {1}.",
+        new Object[] {requested, fallback});
+    return fallback;
+  }
+}
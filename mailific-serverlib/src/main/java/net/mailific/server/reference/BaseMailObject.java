@@ -31,6 +31,7 @@ import java.util.stream.Collectors;
 import net.mailific.server.MailObject;
 import net.mailific.server.commands.ParsedCommandLine;
 import net.mailific.server.session.Reply;
+import net.mailific.server.session.ReplyTemplate;
 import net.mailific.server.session.SmtpSession;
 import net.mailific.util.Distinguisher;
 
@@ -50,11 +51,15 @@ public class BaseMailObject implements MailObject {
 
   public static final Reply COMPLETE_MAIL_OK = new Reply(250, "Message accepted.", false);
 
+  private static final ReplyTemplate SENDER_OK = new ReplyTemplate(250, "sender %s OK", false);
+  private static final ReplyTemplate RECIPIENT_OK =
+      new ReplyTemplate(250, "recipient %s OK", false);
+
   @Override
   public Reply mailFrom(ParsedCommandLine mailFrom, SmtpSession session) {
     Objects.requireNonNull(mailFrom, "MAIL FROM line may not be null");
     this.mailFrom = mailFrom;
-    return new Reply(250, String.format("sender %s OK", mailFrom.getPath()), false);
+    return SENDER_OK.with(mailFrom.getPath());
   }
 
   @Override
@@ -89,7 +94,7 @@ public class BaseMailObject implements MailObject {
    *     should be rejected.
    */
   public Reply offerRecipient(ParsedCommandLine rcpt) {
-    return new Reply(250, String.format("recipient %s OK", rcpt.getPath()), false);
+    return RECIPIENT_OK.with(rcpt.getPath());
   }
 
   @Override
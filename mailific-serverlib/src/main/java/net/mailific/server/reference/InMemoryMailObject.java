@@ -20,6 +20,7 @@ package net.mailific.server.reference;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import net.mailific.server.session.Reply;
 import net.mailific.server.session.SmtpSession;
 
@@ -67,4 +68,16 @@ public abstract class InMemoryMailObject extends BaseMailObject {
   public void writeLine(byte[] line, int offset, int length) throws IOException {
     data.write(line, offset, length);
   }
+
+  /** Appends the data in one go, since line boundaries don't matter here. */
+  @Override
+  public void writeLine(ByteBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      data.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      byte[] copy = new byte[buffer.remaining()];
+      buffer.duplicate().get(copy);
+      data.write(copy);
+    }
+  }
 }
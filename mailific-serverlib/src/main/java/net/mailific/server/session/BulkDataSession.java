@@ -0,0 +1,57 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.session;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An SmtpSession that can take message data in bulk, rather than line by line through {@link
+ * #consumeLine(ByteBuffer)}. Transports that know how should check for this interface and use it
+ * while {@link #isReadingBulkData()} is true. Others, and sessions that don't implement it, carry
+ * on with the line-based path.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public interface BulkDataSession extends SmtpSession {
+
+  /**
+   * @return true if the session is reading message data and can take it in bulk through {@link
+   *     #consumeData(ByteBuffer)} and {@link #endOfData()}, instead of line by line.
+   */
+  boolean isReadingBulkData();
+
+  /**
+   * Consume message data in bulk. Only call this while {@link #isReadingBulkData()} is true.
+   *
+   * <p>The buffer is only valid for the duration of the call.
+   *
+   * @param data One or more complete lines of message data, already dot-unstuffed, not including
+   *     the end-of-data marker.
+   */
+  void consumeData(ByteBuffer data);
+
+  /**
+   * Signal that the end-of-data marker has been read. Only call this while {@link
+   * #isReadingBulkData()} is true.
+   *
+   * @return the Reply that should go back to the client.
+   */
+  Reply endOfData();
+}
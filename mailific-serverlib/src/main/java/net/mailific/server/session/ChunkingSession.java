@@ -0,0 +1,56 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.session;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An SmtpSession that can take BDAT chunks (RFC3030) as raw octets, rather than as lines through
+ * {@link #consumeLine(ByteBuffer)}. Transports that know how should check for this interface and
+ * use it while {@link #getPendingChunkSize()} is greater than zero.
+ *
+ * @author jhumphreys
+ * @since 1.0.8
+ */
+public interface ChunkingSession extends SmtpSession {
+
+  /**
+   * @return the number of octets of a BDAT chunk that the session is waiting for. While this is
+   *     greater than zero, the transport should deliver exactly that many octets, as they arrive,
+   *     to {@link #consumeChunk(ByteBuffer)}, and then call {@link #endOfChunk()}.
+   */
+  long getPendingChunkSize();
+
+  /**
+   * Consume BDAT chunk data. Only call this while {@link #getPendingChunkSize()} is greater than
+   * zero, and never pass more octets than it returns.
+   *
+   * <p>The buffer is only valid for the duration of the call.
+   *
+   * @param data Raw chunk data. Not necessarily made of complete lines.
+   */
+  void consumeChunk(ByteBuffer data);
+
+  /**
+   * Signal that the last octet of a BDAT chunk has been consumed.
+   *
+   * @return the Reply to the BDAT command.
+   */
+  Reply endOfChunk();
+}
@@ -18,21 +18,31 @@
 
 package net.mailific.server.session;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.Map;
+import net.mailific.server.BulkDataConsumer;
+import net.mailific.server.ChunkConsumer;
 import net.mailific.server.Line;
 import net.mailific.server.LineConsumer;
 
 /**
  * LineConsumer that tries a list of other LineConsumers in order.
  *
+ * <p>The list is an array that's replaced, never modified, when consumers are added or removed. So
+ * trying the consumers for each line allocates nothing, and a consumer can change the chain while
+ * it's being tried without affecting that pass.
+ *
  * @author jhumphreys
  * @since 1.0.0
  */
 public class LineConsumerChain implements LineConsumer {
 
-  private List<Filter> filters = new LinkedList<>();
+  private static final Filter[] EMPTY = new Filter[0];
+
+  private Filter[] filters = EMPTY;
+
+  // The same filters, by selector, so adding a consumer needn't search for one to replace
+  private final Map<String, Filter> bySelector = new HashMap<>();
 
   @Override
   public Transition connect(SmtpSession session) {
@@ -56,13 +66,43 @@ public class LineConsumerChain implements LineConsumer {
     return Transition.UNHANDLED;
   }
 
+  /**
+   * @return The consumer at the head of the chain, if it is a {@link BulkDataConsumer}. Otherwise
+   *     null. (Since a BulkDataConsumer consumes every line, nothing behind it would see the data
+   *     anyway.)
+   */
+  public BulkDataConsumer getBulkDataConsumer() {
+    LineConsumer head = head();
+    return head instanceof BulkDataConsumer ? (BulkDataConsumer) head : null;
+  }
+
+  /**
+   * @return The consumer at the head of the chain, if it is a {@link ChunkConsumer}. Otherwise
+   *     null.
+   */
+  public ChunkConsumer getChunkConsumer() {
+    LineConsumer head = head();
+    return head instanceof ChunkConsumer ? (ChunkConsumer) head : null;
+  }
+
+  private LineConsumer head() {
+    Filter[] current = filters;
+    return current.length == 0 ? null : current[0].consumer;
+  }
+
   /**
    * @param selector A key that can be used to remove the consumer later. The new consumer will
    *     replace any existing consumer with the same key.
    */
   public void addLineConsumer(String selector, LineConsumer consumer) {
     removeLineConsumer(selector);
-    filters.add(0, new Filter(selector, consumer));
+    Filter filter = new Filter(consumer);
+    Filter[] current = filters;
+    Filter[] added = new Filter[current.length + 1];
+    added[0] = filter;
+    System.arraycopy(current, 0, added, 1, current.length);
+    filters = added;
+    bySelector.put(selector, filter);
   }
 
   /**
@@ -72,16 +112,29 @@ public class LineConsumerChain implements LineConsumer {
    * @param selector Selector that was used to add the consumer you want to remove.
    */
   public void removeLineConsumer(String selector) {
-    filters =
-        filters.stream().filter(f -> !f.selector.equals(selector)).collect(Collectors.toList());
+    Filter filter = bySelector.remove(selector);
+    if (filter == null) {
+      return;
+    }
+    Filter[] current = filters;
+    int i = 0;
+    while (current[i] != filter) {
+      i++;
+    }
+    if (current.length == 1) {
+      filters = EMPTY;
+      return;
+    }
+    Filter[] removed = new Filter[current.length - 1];
+    System.arraycopy(current, 0, removed, 0, i);
+    System.arraycopy(current, i + 1, removed, i, removed.length - i);
+    filters = removed;
   }
 
   private static class Filter {
-    String selector;
-    LineConsumer consumer;
+    final LineConsumer consumer;
 
-    Filter(String selector, LineConsumer consumer) {
-      this.selector = selector;
+    Filter(LineConsumer consumer) {
       this.consumer = consumer;
     }
   }
@@ -18,6 +18,8 @@
 
 package net.mailific.server.session;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Represents an SMTP reply.
  *
@@ -42,6 +44,7 @@ public class Reply {
   public static final Reply _500_UNRECOGNIZED = new Reply(500, "unrecognized command");
   public static final Reply _500_UNRECOGNIZED_BUFFERED =
       new Reply(500, "unrecognized command", false);
+  public static final Reply _500_LINE_TOO_LONG = new Reply(500, "Line too long");
 
   public static final Reply _501_BAD_ARGS =
       new Reply(501, "Syntax error in parameters or arguments");
@@ -59,6 +62,9 @@ public class Reply {
   private final String detail;
   private final boolean immediate;
 
+  // Lazily encoded wire format. Replies are immutable, so this never needs to be recomputed.
+  private volatile byte[] replyBytes;
+
   public Reply(int code, String detail, boolean immediate) {
     this.code = code;
     this.detail = detail;
@@ -94,12 +100,29 @@ public class Reply {
    * @return The reply formatted per the SMTP specification.
    */
   public String replyString() {
-    return String.format("%d %s\r\n", code, detail);
+    return code + " " + getDetail() + "\r\n";
+  }
+
+  /**
+   * The reply encoded for the wire. Computed from {@link #replyString()} the first time it's called
+   * and cached after that, so the constants in this class are only ever encoded once. Subclasses
+   * that override replyString() get this for free, but must be immutable.
+   *
+   * @return The bytes of {@link #replyString()}, encoded as UTF-8. Do not modify the array.
+   * @since 1.0.8
+   */
+  public byte[] replyBytes() {
+    byte[] bytes = replyBytes;
+    if (bytes == null) {
+      bytes = replyString().getBytes(StandardCharsets.UTF_8);
+      replyBytes = bytes;
+    }
+    return bytes;
   }
 
   /** A representation for logging and debugging -- NOT in SMTP format. */
   @Override
   public String toString() {
-    return "Reply [" + code + ", " + detail + "]";
+    return "Reply [" + code + ", " + getDetail() + "]";
   }
 }
@@ -0,0 +1,104 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.session;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Makes Replies whose detail is fixed text around one value, such as "sender &lt;a@example.com&gt;
+ * OK". The fixed parts are encoded once, when the template is made. Each Reply made from it only
+ * encodes its value, and only when it's written to the wire, so making one costs about as much as
+ * using a constant.
+ *
+ * @since 1.0.8
+ */
+public final class ReplyTemplate {
+
+  private static final String PLACEHOLDER = "%s";
+
+  private final int code;
+  private final boolean immediate;
+  private final String before;
+  private final String after;
+  // The wire format up to the value, and after it
+  private final byte[] head;
+  private final byte[] tail;
+
+  /**
+   * @param code The reply code.
+   * @param detail The detail, with %s where the value goes.
+   * @param immediate See {@link Reply#isImmediate()}.
+   * @throws IllegalArgumentException if the detail doesn't have exactly one %s.
+   */
+  public ReplyTemplate(int code, String detail, boolean immediate) {
+    int i = detail.indexOf(PLACEHOLDER);
+    if (i < 0 || detail.indexOf(PLACEHOLDER, i + 1) >= 0) {
+      throw new IllegalArgumentException("Detail must have exactly one %s: " + detail);
+    }
+    this.code = code;
+    this.immediate = immediate;
+    this.before = detail.substring(0, i);
+    this.after = detail.substring(i + PLACEHOLDER.length());
+    this.head = (code + " " + before).getBytes(StandardCharsets.UTF_8);
+    this.tail = (after + "\r\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param value Goes where the %s is. null is shown as "null", like String.format would.
+   * @return A Reply with the value filled in.
+   */
+  public Reply with(String value) {
+    return new TemplateReply(this, String.valueOf(value));
+  }
+
+  private static final class TemplateReply extends Reply {
+    private final ReplyTemplate template;
+    private final String value;
+    private String detail;
+    private byte[] bytes;
+
+    TemplateReply(ReplyTemplate template, String value) {
+      super(template.code, null, template.immediate);
+      this.template = template;
+      this.value = value;
+    }
+
+    @Override
+    public String getDetail() {
+      if (detail == null) {
+        detail = template.before + value + template.after;
+      }
+      return detail;
+    }
+
+    @Override
+    public byte[] replyBytes() {
+      if (bytes == null) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        byte[] b = new byte[template.head.length + encoded.length + template.tail.length];
+        System.arraycopy(template.head, 0, b, 0, template.head.length);
+        System.arraycopy(encoded, 0, b, template.head.length, encoded.length);
+        System.arraycopy(
+            template.tail, 0, b, template.head.length + encoded.length, template.tail.length);
+        bytes = b;
+      }
+      return bytes;
+    }
+  }
+}
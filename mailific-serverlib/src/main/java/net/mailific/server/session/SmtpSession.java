@@ -19,7 +19,10 @@
 package net.mailific.server.session;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import javax.net.ssl.SSLSession;
 import net.mailific.server.LineConsumer;
 import net.mailific.server.MailObject;
@@ -64,6 +67,54 @@ public interface SmtpSession {
    */
   Reply consumeLine(byte[] line);
 
+  /**
+   * Consume one line of input from the client, without copying it out of the buffer it arrived in.
+   *
+   * <p>The buffer is only valid for the duration of the call: neither the session nor any
+   * LineConsumer may keep a reference to it afterwards. See {@link net.mailific.server.Line}.
+   *
+   * <p>The default implementation copies the line and calls {@link #consumeLine(byte[])}, so
+   * existing implementations keep working.
+   *
+   * @param line The remaining bytes of the buffer are the line. Should end in \r\n.
+   * @return the Reply that should go back to the client, or {@link Reply#DO_NOT_REPLY} if nothing
+   *     should be sent back to the client.
+   * @since 1.0.8
+   */
+  default Reply consumeLine(ByteBuffer line) {
+    byte[] copy = new byte[line.remaining()];
+    line.duplicate().get(copy);
+    return consumeLine(copy);
+  }
+
+  /**
+   * Check whether the reply to the last line (or end of data or chunk) is still being worked out,
+   * because a LineConsumer returned a {@link
+   * Transition#deferred(java.util.concurrent.CompletionStage) deferred Transition}. In that case
+   * {@link #consumeLine(ByteBuffer)} and friends return {@link Reply#DO_NOT_REPLY}, and the
+   * transport must send the reply this stage completes with, without passing the session any more
+   * input until it has done so.
+   *
+   * <p>The stage may complete on any thread. The session's state has already been updated by the
+   * time it does. It keeps being returned, even once complete, until the next line is consumed.
+   *
+   * @return the pending reply, or null if there is none. The default implementation returns null.
+   * @since 1.0.8
+   */
+  default CompletionStage<Reply> getPendingReply() {
+    return null;
+  }
+
+  /**
+   * Signal that a line of message data was too long, and has been discarded. The client isn't
+   * listening for a reply until the data ends, so the session should remember it and fail the
+   * message then. Called whether the data is being read line by line or in bulk (see {@link
+   * BulkDataSession}). The default does nothing.
+   *
+   * @since 1.0.8
+   */
+  default void dataLineTooLong() {}
+
   /**
    * Adds a LineConsumer to the front of the chain of existing line consumers.
    *
@@ -125,6 +176,19 @@ public interface SmtpSession {
    */
   Reply completeMailObject();
 
+  /**
+   * Like {@link #completeMailObject()}, but the mail object may finish its work off the I/O thread
+   * (see {@link MailObject#completeAsync(SmtpSession, java.util.concurrent.Executor)}). The default
+   * implementation just calls {@link #completeMailObject()}.
+   *
+   * @return A stage that completes with the response that should be given to the DATA command just
+   *     completed.
+   * @since 1.0.8
+   */
+  default CompletionStage<Reply> completeMailObjectAsync() {
+    return CompletableFuture.completedFuture(completeMailObject());
+  }
+
   /** Discard any existing mail object being worked on. */
   void clearMailObject();
 
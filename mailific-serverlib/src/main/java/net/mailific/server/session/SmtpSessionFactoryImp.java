@@ -21,6 +21,7 @@ package net.mailific.server.session;
 import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.Executor;
 import net.mailific.server.LineConsumer;
 import net.mailific.server.extension.Extension;
 
@@ -34,15 +35,30 @@ public class SmtpSessionFactoryImp implements SmtpSessionFactory {
 
   private LineConsumer lineConsumer;
   private Collection<Extension> extensions;
+  private Executor completionExecutor;
 
   public SmtpSessionFactoryImp(LineConsumer lineConsumer, Collection<Extension> extensions) {
+    this(lineConsumer, extensions, null);
+  }
+
+  /**
+   * @param completionExecutor Passed to each session. See {@link SmtpSessionImp#SmtpSessionImp(
+   *     InetSocketAddress, LineConsumer, Collection, Executor)}.
+   * @since 1.0.8
+   */
+  public SmtpSessionFactoryImp(
+      LineConsumer lineConsumer, Collection<Extension> extensions, Executor completionExecutor) {
     this.lineConsumer = lineConsumer;
     this.extensions = extensions;
+    this.completionExecutor = completionExecutor;
   }
 
   @Override
   public SmtpSession newSmtpSession(InetSocketAddress remoteAddress) {
     return new SmtpSessionImp(
-        remoteAddress, this.lineConsumer, Collections.unmodifiableCollection(this.extensions));
+        remoteAddress,
+        this.lineConsumer,
+        Collections.unmodifiableCollection(this.extensions),
+        completionExecutor);
   }
 }
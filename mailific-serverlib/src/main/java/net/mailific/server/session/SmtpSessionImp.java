@@ -19,13 +19,20 @@
 package net.mailific.server.session;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLSession;
+import net.mailific.server.BulkDataConsumer;
+import net.mailific.server.ChunkConsumer;
 import net.mailific.server.Line;
 import net.mailific.server.LineConsumer;
 import net.mailific.server.MailObject;
@@ -38,7 +45,7 @@ import net.mailific.server.extension.Extension;
  * @author jhumphreys
  * @since 1.0.0
  */
-public class SmtpSessionImp implements SmtpSession {
+public class SmtpSessionImp implements BulkDataSession, ChunkingSession {
 
   private static final Logger logger = Logger.getLogger(SmtpSessionImp.class.getName());
 
@@ -47,19 +54,39 @@ public class SmtpSessionImp implements SmtpSession {
       SmtpSessionImp.class.getName() + ".commandMapFilterKey";
 
   private final InetSocketAddress remoteAddress;
-  private SessionState state = StandardStates.BEFORE_CONNECT;
+  // Volatile because a deferred Transition sets it on whatever thread completes the stage, while
+  // the
+  // transport's idle timeout may be reading it on the event loop.
+  private volatile SessionState state = StandardStates.BEFORE_CONNECT;
   private ParsedCommandLine ehlo;
   private MailObject currentMailObject;
   private Collection<Extension> supportedExtensions;
   private SSLSession tlsSession;
   private final Map<String, Object> properties = new HashMap<>();
   private LineConsumerChain consumerChain = new LineConsumerChain();
+  private CompletionStage<Reply> pendingReply;
+  private final Executor completionExecutor;
 
   public SmtpSessionImp(
       InetSocketAddress remoteAddress,
       LineConsumer commandMap,
       Collection<Extension> supportedExtensions) {
+    this(remoteAddress, commandMap, supportedExtensions, null);
+  }
+
+  /**
+   * @param completionExecutor If not null, mail objects are completed using {@link
+   *     MailObject#completeAsync(SmtpSession, Executor)} with this executor. If null, they are
+   *     completed synchronously on the I/O thread.
+   * @since 1.0.8
+   */
+  public SmtpSessionImp(
+      InetSocketAddress remoteAddress,
+      LineConsumer commandMap,
+      Collection<Extension> supportedExtensions,
+      Executor completionExecutor) {
     this.remoteAddress = remoteAddress;
+    this.completionExecutor = completionExecutor;
     this.supportedExtensions =
         supportedExtensions == null
             ? Collections.emptyList()
@@ -117,6 +144,24 @@ public class SmtpSessionImp implements SmtpSession {
     }
   }
 
+  @Override
+  public CompletionStage<Reply> completeMailObjectAsync() {
+    if (completionExecutor == null || currentMailObject == null) {
+      return CompletableFuture.completedFuture(completeMailObject());
+    }
+    // Detach the mail object so the session can move on while it completes
+    MailObject mailObject = currentMailObject;
+    currentMailObject = null;
+    try {
+      return mailObject
+          .completeAsync(this, completionExecutor)
+          .whenComplete((reply, e) -> mailObject.dispose());
+    } catch (RuntimeException e) {
+      mailObject.dispose();
+      throw e;
+    }
+  }
+
   @Override
   public void clearMailObject() {
     if (currentMailObject != null) {
@@ -180,7 +225,89 @@ public class SmtpSessionImp implements SmtpSession {
 
   @Override
   public Reply consumeLine(byte[] line) {
-    Transition transition = consumerChain.consume(this, new Line(line));
+    return consume(new Line(line));
+  }
+
+  @Override
+  public Reply consumeLine(ByteBuffer line) {
+    return consume(new Line(line));
+  }
+
+  private Reply consume(Line line) {
+    return apply(consumerChain.consume(this, line));
+  }
+
+  @Override
+  public boolean isReadingBulkData() {
+    return consumerChain.getBulkDataConsumer() != null;
+  }
+
+  @Override
+  public void consumeData(ByteBuffer data) {
+    consumerChain.getBulkDataConsumer().consumeData(this, data);
+  }
+
+  @Override
+  public Reply endOfData() {
+    return apply(consumerChain.getBulkDataConsumer().endOfData(this));
+  }
+
+  @Override
+  public void dataLineTooLong() {
+    BulkDataConsumer consumer = consumerChain.getBulkDataConsumer();
+    if (consumer != null) {
+      consumer.lineTooLong(this);
+    }
+  }
+
+  @Override
+  public long getPendingChunkSize() {
+    ChunkConsumer consumer = consumerChain.getChunkConsumer();
+    return consumer == null ? 0 : consumer.getRemaining();
+  }
+
+  @Override
+  public void consumeChunk(ByteBuffer data) {
+    consumerChain.getChunkConsumer().consumeChunk(this, data);
+  }
+
+  @Override
+  public Reply endOfChunk() {
+    return apply(consumerChain.getChunkConsumer().endOfChunk(this));
+  }
+
+  @Override
+  public CompletionStage<Reply> getPendingReply() {
+    return pendingReply;
+  }
+
+  private Reply apply(Transition transition) {
+    if (transition.isDeferred()) {
+      pendingReply = transition.getDeferred().handle(this::applyDeferred);
+      return Reply.DO_NOT_REPLY;
+    }
+    pendingReply = null;
+    return applyState(transition);
+  }
+
+  /*
+   * Runs on whatever thread completes the stage. That's safe because the transport reads
+   * nothing more from the client until it has the reply, and the state, which it may still look at
+   * in the meantime, is volatile.
+   */
+  private Reply applyDeferred(Transition transition, Throwable error) {
+    if (error != null) {
+      logger.log(Level.SEVERE, "DEFERRED_TRANSITION_FAILED", error);
+      return Reply._451_LOCAL_ERROR;
+    }
+    if (transition == null || transition.isDeferred()) {
+      logger.log(Level.SEVERE, "DEFERRED_TRANSITION_INVALID: {0}", transition);
+      return Reply._451_LOCAL_ERROR;
+    }
+    return applyState(transition);
+  }
+
+  private Reply applyState(Transition transition) {
     if (transition.getNextState() != SessionState.NO_STATE_CHANGE) {
       setConnectionState(transition.getNextState());
     }
@@ -19,11 +19,17 @@
 package net.mailific.server.session;
 
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Represents the result of processing a line, which may include a reply back to the client and/or a
  * change in the session state.
  *
+ * <p>A LineConsumer or CommandHandler that can't produce its result without blocking (say, it has
+ * to look up a recipient in a remote directory) should return a {@link #deferred(CompletionStage)}
+ * Transition instead, so the thread that called it can get on with other sessions.
+ *
  * @author jhumphreys
  * @since 1.0.0
  */
@@ -33,14 +39,118 @@ public class Transition {
   public static final Transition UNHANDLED =
       new Transition(Reply._500_UNRECOGNIZED, StandardStates.NO_STATE_CHANGE);
 
+  /*
+   * Shared instances of common results, so returning them allocates nothing. Transitions are
+   * immutable, so they're safe to share. Note that they're distinct from UNHANDLED even where the
+   * reply is the same: returning one of them means the line was handled.
+   */
+
+  /**
+   * No reply, and no state change. E.g. for each line of message data.
+   *
+   * @since 1.0.8
+   */
+  public static final Transition DO_NOT_REPLY =
+      new Transition(Reply.DO_NOT_REPLY, SessionState.NO_STATE_CHANGE);
+
+  /**
+   * {@link Reply#_250_OK}, and no state change.
+   *
+   * @since 1.0.8
+   */
+  public static final Transition OK = new Transition(Reply._250_OK, SessionState.NO_STATE_CHANGE);
+
+  /**
+   * {@link Reply#_501_BAD_ARGS}, and no state change.
+   *
+   * @since 1.0.8
+   */
+  public static final Transition BAD_ARGS =
+      new Transition(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE);
+
+  /**
+   * {@link Reply#_501_BAD_ARGS_BUFFERED}, and no state change.
+   *
+   * @since 1.0.8
+   */
+  public static final Transition BAD_ARGS_BUFFERED =
+      new Transition(Reply._501_BAD_ARGS_BUFFERED, SessionState.NO_STATE_CHANGE);
+
+  /**
+   * {@link Reply#_503_BAD_SEQUENCE}, and no state change. For a command that isn't valid at this
+   * point in the session.
+   *
+   * @since 1.0.8
+   */
+  public static final Transition BAD_SEQUENCE =
+      new Transition(Reply._503_BAD_SEQUENCE, SessionState.NO_STATE_CHANGE);
+
   private final Reply reply;
   private final SessionState nextState;
+  private final CompletionStage<Transition> deferred;
 
   public Transition(Reply reply, SessionState nextState) {
     Objects.requireNonNull(reply, "Reply must not be null.");
     Objects.requireNonNull(nextState, "NextState must not be null.");
     this.reply = reply;
     this.nextState = nextState;
+    this.deferred = null;
+  }
+
+  private Transition(CompletionStage<Transition> deferred) {
+    Objects.requireNonNull(deferred, "Deferred stage must not be null.");
+    this.reply = Reply.DO_NOT_REPLY;
+    this.nextState = SessionState.NO_STATE_CHANGE;
+    this.deferred = deferred;
+  }
+
+  /**
+   * Creates a Transition whose real value isn't known yet. The session reads no further input until
+   * the stage completes, at which point the Transition it completes with is applied as if it had
+   * been returned directly. So replies stay in order even when the client is pipelining.
+   *
+   * <p>The Line that was being consumed is only valid until the consumer returns. Take whatever is
+   * needed from it before returning the deferred Transition.
+   *
+   * <p>The stage may complete on any thread. If it completes exceptionally, or with null or another
+   * deferred Transition, the client gets {@link Reply#_451_LOCAL_ERROR}. If it completes with
+   * {@link #UNHANDLED}, the client gets UNHANDLED's reply: the other consumers in the chain don't
+   * get another look at the line.
+   *
+   * <p>If the stage is a CompletableFuture that has already completed normally, there's nothing to
+   * wait for, so the Transition it completed with is returned instead.
+   *
+   * @param stage Completes with the Transition to apply.
+   * @since 1.0.8
+   */
+  public static Transition deferred(CompletionStage<Transition> stage) {
+    if (stage instanceof CompletableFuture) {
+      CompletableFuture<Transition> future = (CompletableFuture<Transition>) stage;
+      if (future.isDone() && !future.isCompletedExceptionally()) {
+        Transition transition = future.join();
+        if (transition != null) {
+          return transition;
+        }
+      }
+    }
+    return new Transition(stage);
+  }
+
+  /**
+   * @return true if this Transition was created by {@link #deferred(CompletionStage)}
+   * @since 1.0.8
+   */
+  public boolean isDeferred() {
+    return deferred != null;
+  }
+
+  /**
+   * @return The stage passed to {@link #deferred(CompletionStage)}, or null if this Transition is
+   *     not deferred.
+   * @since 1.0.8
+   */
+  public CompletionStage<Transition> getDeferred() {
+    return deferred;
   }
 
   /**
@@ -60,6 +170,9 @@ public class Transition {
 
   @Override
   public String toString() {
+    if (deferred != null) {
+      return "Transition [deferred]";
+    }
     return "Transition [reply=" + reply + ", nextState=" + nextState.name() + "]";
   }
 }
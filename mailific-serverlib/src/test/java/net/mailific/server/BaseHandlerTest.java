@@ -19,9 +19,12 @@
 package net.mailific.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import net.mailific.server.commands.BaseHandler;
+import net.mailific.server.commands.Mail;
 import net.mailific.server.session.Reply;
 import net.mailific.server.session.SessionState;
 import net.mailific.server.session.SmtpSession;
@@ -150,4 +153,106 @@ public class BaseHandlerTest {
 
     assertEquals(transition, actual);
   }
+
+  @Test
+  public void stateOnly_askedOncePerState() {
+    AtomicInteger checks = new AtomicInteger();
+    BaseHandler subject =
+        new BaseHandler() {
+          @Override
+          public String verb() {
+            return "foo";
+          }
+
+          @Override
+          protected boolean validForState(SessionState state) {
+            checks.incrementAndGet();
+            return state == StandardStates.AFTER_MAIL;
+          }
+
+          @Override
+          protected boolean validityDependsOnlyOnState() {
+            return true;
+          }
+        };
+
+    assertSame(Transition.BAD_SEQUENCE, subject.handleCommand(session, new Line("foo")));
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_MAIL);
+    assertEquals(Reply._250_OK, subject.handleCommand(session, new Line("foo")).getReply());
+    assertEquals(Reply._250_OK, subject.handleCommand(session, new Line("foo")).getReply());
+
+    assertEquals(StandardStates.values().length, checks.get());
+  }
+
+  @Test
+  public void stateOnly_customState() {
+    AtomicInteger checks = new AtomicInteger();
+    BaseHandler subject =
+        new BaseHandler() {
+          @Override
+          public String verb() {
+            return "foo";
+          }
+
+          @Override
+          protected boolean validForState(SessionState state) {
+            checks.incrementAndGet();
+            return false;
+          }
+
+          @Override
+          protected boolean validityDependsOnlyOnState() {
+            return true;
+          }
+        };
+    when(session.getConnectionState()).thenReturn(() -> "CUSTOM");
+
+    assertSame(Transition.BAD_SEQUENCE, subject.handleCommand(session, new Line("foo")));
+    assertSame(Transition.BAD_SEQUENCE, subject.handleCommand(session, new Line("foo")));
+
+    // Not one of the StandardStates, so asked every time
+    assertEquals(2, checks.get());
+  }
+
+  @Test
+  public void notStateOnly_askedEveryTime() {
+    AtomicInteger checks = new AtomicInteger();
+    BaseHandler subject =
+        new BaseHandler() {
+          @Override
+          public String verb() {
+            return "foo";
+          }
+
+          @Override
+          protected boolean validForSession(SmtpSession session) {
+            checks.incrementAndGet();
+            return true;
+          }
+        };
+
+    subject.handleCommand(session, new Line("foo"));
+    subject.handleCommand(session, new Line("foo"));
+
+    assertEquals(2, checks.get());
+  }
+
+  @Test
+  public void stateOnly_subclassOverridesValidForSession() {
+    AtomicInteger checks = new AtomicInteger();
+    // e.g. a deployment that requires AUTH before MAIL
+    BaseHandler subject =
+        new Mail(null) {
+          @Override
+          protected boolean validForSession(SmtpSession session) {
+            checks.incrementAndGet();
+            return false;
+          }
+        };
+
+    assertSame(Transition.BAD_SEQUENCE, subject.handleCommand(session, new Line("MAIL")));
+    assertSame(Transition.BAD_SEQUENCE, subject.handleCommand(session, new Line("MAIL")));
+
+    assertEquals(2, checks.get());
+  }
 }
@@ -20,7 +20,12 @@ package net.mailific.server;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import org.junit.Assert;
 import org.junit.Test;
@@ -44,6 +49,71 @@ public class LineTest {
     assertArrayEquals(b1, it.getOriginalLine());
   }
 
+  @Test
+  public void bufferConstructor() {
+    ByteBuffer buffer = ByteBuffer.allocate(20);
+    buffer.put("xx".getBytes(StandardCharsets.UTF_8)).put(b1).flip().position(2);
+    it = new Line(buffer);
+    assertArrayEquals(b1, it.getOriginalLine());
+    assertArrayEquals(b1, it.getLine());
+    assertEquals("foo bar", it.getStripped());
+    assertEquals(2, buffer.position());
+  }
+
+  @Test
+  public void bufferConstructor_getBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(20);
+    buffer.put(b1).flip();
+    it = new Line(buffer);
+    ByteBuffer actual = it.getBuffer();
+    actual.position(actual.position() + 4);
+    // each call returns an independent view
+    assertEquals(b1.length, it.getBuffer().remaining());
+  }
+
+  @Test
+  public void getBuffer_arrayLine() {
+    ByteBuffer actual = it.getBuffer();
+    assertEquals(b1, actual.array());
+    assertEquals(b1.length, actual.remaining());
+  }
+
+  @Test
+  public void getBuffer_changed() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(20);
+    buffer.put(b1).flip();
+    it = new Line(buffer);
+    it.setLine(b2);
+    assertEquals(b2, it.getBuffer().array());
+    assertArrayEquals(b1, it.getOriginalLine());
+  }
+
+  @Test
+  public void byteAt() {
+    assertEquals(b1.length, it.length());
+    assertEquals('f', it.byteAt(0));
+    assertEquals('\n', it.byteAt(b1.length - 1));
+  }
+
+  @Test
+  public void byteAt_buffer() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(20);
+    buffer.put("xx".getBytes(StandardCharsets.UTF_8)).put(b1).flip().position(2);
+    it = new Line(buffer);
+    assertEquals(b1.length, it.length());
+    assertEquals('f', it.byteAt(0));
+    assertEquals(' ', it.byteAt(3));
+    Assert.assertThrows(IndexOutOfBoundsException.class, () -> it.byteAt(b1.length));
+    assertEquals(2, buffer.position());
+  }
+
+  @Test
+  public void byteAt_changed() {
+    it.setLine(b2);
+    assertEquals(b2.length, it.length());
+    assertEquals('b', it.byteAt(0));
+  }
+
   @Test
   public void getLine_notChanged() {
     assertEquals(b1, it.getLine());
@@ -109,4 +179,75 @@ public class LineTest {
     assertEquals("frobozz", it.getStripped());
     assertEquals("frobozz", it.getVerb());
   }
+
+  @Test
+  public void nonAscii() {
+    it = new Line("MAIL FROM:<j\u00f6rg@example.com>");
+    assertFalse(it.isAscii());
+    assertEquals("MAIL FROM:<j\u00f6rg@example.com>", it.getStripped());
+    assertEquals("MAIL", it.getVerb());
+    assertSame(it.getStripped(), it.getChars());
+  }
+
+  @Test
+  public void nonAsciiVerb() {
+    it = new Line("\u00e9t\u00e9 foo");
+    assertEquals("\u00e9t\u00e9", it.getVerb());
+  }
+
+  @Test
+  public void isAscii_changed() {
+    assertTrue(it.isAscii());
+    it.setLine("caf\u00e9\r\n".getBytes(StandardCharsets.UTF_8));
+    assertFalse(it.isAscii());
+    assertEquals("caf\u00e9", it.getStripped());
+  }
+
+  @Test
+  public void getChars() {
+    CharSequence chars = it.getChars();
+    assertEquals(7, chars.length());
+    assertEquals('f', chars.charAt(0));
+    assertEquals('r', chars.charAt(6));
+    assertThrows(IndexOutOfBoundsException.class, () -> chars.charAt(7));
+    assertEquals("foo bar", chars.toString());
+    assertSame(it.getStripped(), chars.toString());
+  }
+
+  @Test
+  public void getChars_subSequence() {
+    CharSequence bar = it.getChars().subSequence(4, 7);
+    assertEquals(3, bar.length());
+    assertEquals('b', bar.charAt(0));
+    assertEquals("bar", bar.toString());
+    assertEquals("a", bar.subSequence(1, 2).toString());
+    assertThrows(IndexOutOfBoundsException.class, () -> bar.subSequence(2, 4));
+  }
+
+  @Test
+  public void getChars_buffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(20);
+    buffer.put("xxfoo bar\r\nyy".getBytes(StandardCharsets.US_ASCII));
+    buffer.position(2).limit(11);
+    it = new Line(buffer);
+    buffer.position(0).limit(20);
+
+    assertEquals("foo bar", it.getChars().toString());
+    assertEquals("bar", it.getChars().subSequence(4, 7).toString());
+    assertEquals("foo", it.getVerb());
+    assertEquals("foo bar", it.getStripped());
+    assertArrayEquals(b1, it.getOriginalLine());
+  }
+
+  @Test
+  public void getStripped_directBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(20);
+    buffer.put("xxcaf\u00e9 au lait\r\n".getBytes(StandardCharsets.UTF_8));
+    buffer.flip().position(2);
+    it = new Line(buffer);
+
+    assertEquals("caf\u00e9", it.getVerb());
+    assertEquals("caf\u00e9 au lait", it.getStripped());
+    assertEquals("caf\u00e9 au lait", it.getChars().toString());
+  }
 }
@@ -21,18 +21,29 @@ package net.mailific.server;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslProvider;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import net.mailific.main.Main;
 import net.mailific.server.commands.Connect;
 import net.mailific.server.extension.EightBitMime;
@@ -40,8 +51,10 @@ import net.mailific.server.extension.Extension;
 import net.mailific.server.extension.Pipelining;
 import net.mailific.server.extension.SmtpUtf8;
 import net.mailific.server.extension.starttls.StartTls;
+import net.mailific.server.netty.Transport;
 import net.mailific.server.reference.BaseMailObjectFactory;
 import net.mailific.server.session.SmtpSessionFactory;
+import net.mailific.server.session.StandardStates;
 import org.hamcrest.collection.IsIterableContainingInAnyOrder;
 import org.junit.After;
 import org.junit.Before;
@@ -55,6 +68,10 @@ public class ServerConfigTest {
 
   @Mock Extension extension;
 
+  @Mock EventLoopGroup bossGroup;
+
+  @Mock EventLoopGroup workerGroup;
+
   ServerConfig.Builder builder = ServerConfig.builder();
 
   private AutoCloseable closeable;
@@ -153,6 +170,307 @@ public class ServerConfigTest {
             is(extension)));
   }
 
+  @Test
+  public void transportDefaultsToNull() {
+    assertNull(builder.build().getTransport());
+  }
+
+  @Test
+  public void transport() {
+    ServerConfig config = builder.withTransport(Transport.NIO).build();
+
+    assertEquals(Transport.NIO, config.getTransport());
+  }
+
+  @Test
+  public void completionExecutorDefaultsToNull() {
+    assertNull(builder.build().getCompletionExecutor());
+  }
+
+  @Test
+  public void completionExecutor() {
+    Executor executor = Runnable::run;
+
+    ServerConfig config = builder.withCompletionExecutor(executor).build();
+
+    assertEquals(executor, config.getCompletionExecutor());
+  }
+
+  @Test
+  public void completionExecutor_withSessionFactory() {
+    builder.withCompletionExecutor(Runnable::run).withSessionFactory(sessionFactory);
+
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
+
+  @Test
+  public void dataExecutorDefaults() {
+    ServerConfig config = builder.build();
+
+    assertNull(config.getDataExecutor());
+    assertEquals(ServerConfig.DEFAULT_DATA_LOW_WATER_MARK, config.getDataLowWaterMark());
+    assertEquals(ServerConfig.DEFAULT_DATA_HIGH_WATER_MARK, config.getDataHighWaterMark());
+  }
+
+  @Test
+  public void dataExecutor() {
+    Executor executor = Runnable::run;
+
+    ServerConfig config = builder.withDataExecutor(executor).withDataWaterMarks(100, 200).build();
+
+    assertEquals(executor, config.getDataExecutor());
+    assertEquals(100, config.getDataLowWaterMark());
+    assertEquals(200, config.getDataHighWaterMark());
+  }
+
+  @Test
+  public void dataWaterMarks_invalid() {
+    assertThrows(IllegalArgumentException.class, () -> builder.withDataWaterMarks(-1, 200));
+    assertThrows(IllegalArgumentException.class, () -> builder.withDataWaterMarks(201, 200));
+  }
+
+  @Test
+  public void maxLineLengths() {
+    assertEquals(ServerConfig.DEFAULT_MAX_LINE_LENGTH, builder.build().getMaxCommandLineLength());
+    assertEquals(ServerConfig.DEFAULT_MAX_LINE_LENGTH, builder.build().getMaxDataLineLength());
+
+    ServerConfig config = builder.withMaxLineLengths(510, 998).build();
+
+    assertEquals(510, config.getMaxCommandLineLength());
+    assertEquals(998, config.getMaxDataLineLength());
+  }
+
+  @Test
+  public void maxLineLengths_invalid() {
+    assertThrows(IllegalArgumentException.class, () -> builder.withMaxLineLengths(0, 998));
+    assertThrows(IllegalArgumentException.class, () -> builder.withMaxLineLengths(510, 0));
+  }
+
+  @Test
+  public void idleTimeouts() {
+    assertEquals(ServerConfig.DEFAULT_IDLE_TIMEOUT, builder.build().getIdleTimeout());
+    assertTrue(builder.build().getIdleTimeouts().isEmpty());
+
+    ServerConfig config =
+        builder
+            .withIdleTimeout(Duration.ofMinutes(2))
+            .withIdleTimeout(StandardStates.AFTER_RCPT, Duration.ofSeconds(30))
+            .build();
+
+    assertEquals(Duration.ofMinutes(2), config.getIdleTimeout());
+    assertEquals(
+        Map.of(StandardStates.AFTER_RCPT, Duration.ofSeconds(30)), config.getIdleTimeouts());
+  }
+
+  @Test
+  public void idleTimeouts_invalid() {
+    assertThrows(IllegalArgumentException.class, () -> builder.withIdleTimeout(Duration.ZERO));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> builder.withIdleTimeout(StandardStates.CONNECTED, Duration.ofSeconds(-1)));
+  }
+
+  @Test
+  public void drainTimeout() {
+    assertEquals(ServerConfig.DEFAULT_DRAIN_TIMEOUT, builder.build().getDrainTimeout());
+    assertEquals(Duration.ZERO, builder.withDrainTimeout(Duration.ZERO).build().getDrainTimeout());
+    assertThrows(
+        IllegalArgumentException.class, () -> builder.withDrainTimeout(Duration.ofSeconds(-1)));
+  }
+
+  @Test
+  public void eventLoopDefaults() {
+    ServerConfig config = builder.build();
+
+    assertEquals(0, config.getBossThreads());
+    assertEquals(0, config.getWorkerThreads());
+    assertNull(config.getBossThreadFactory());
+    assertNull(config.getWorkerThreadFactory());
+    assertNull(config.getBossGroup());
+    assertNull(config.getWorkerGroup());
+  }
+
+  @Test
+  public void acceptorsAndBacklog() {
+    assertEquals(1, builder.build().getAcceptors());
+    assertEquals(0, builder.build().getBacklog());
+
+    ServerConfig config = builder.withAcceptors(4).withBacklog(1024).build();
+
+    assertEquals(4, config.getAcceptors());
+    assertEquals(1024, config.getBacklog());
+  }
+
+  @Test
+  public void acceptorsAndBacklog_invalid() {
+    assertThrows(IllegalArgumentException.class, () -> builder.withAcceptors(0));
+    assertThrows(IllegalArgumentException.class, () -> builder.withBacklog(-1));
+  }
+
+  @Test
+  public void eventLoops() {
+    ThreadFactory bossFactory = Thread::new;
+    ThreadFactory workerFactory = Thread::new;
+
+    ServerConfig config =
+        builder
+            .withBossThreads(1)
+            .withWorkerThreads(4)
+            .withBossThreadFactory(bossFactory)
+            .withWorkerThreadFactory(workerFactory)
+            .withBossGroup(bossGroup)
+            .withWorkerGroup(workerGroup)
+            .build();
+
+    assertEquals(1, config.getBossThreads());
+    assertEquals(4, config.getWorkerThreads());
+    assertEquals(bossFactory, config.getBossThreadFactory());
+    assertEquals(workerFactory, config.getWorkerThreadFactory());
+    assertEquals(bossGroup, config.getBossGroup());
+    assertEquals(workerGroup, config.getWorkerGroup());
+  }
+
+  @Test
+  public void threads_negative() {
+    assertThrows(IllegalArgumentException.class, () -> builder.withBossThreads(-1));
+    assertThrows(IllegalArgumentException.class, () -> builder.withWorkerThreads(-1));
+  }
+
+  @Test
+  public void listeners() {
+    ListenerConfig submission =
+        ListenerConfig.builder().withListenPort(587).withSessionFactory(sessionFactory).build();
+
+    ServerConfig config =
+        builder
+            .withListenHost("mx.example")
+            .withListenPort(25)
+            .withTlsCert(new File("foo"))
+            .withAdditionalListener(submission)
+            .build();
+
+    assertEquals(2, config.getListeners().size());
+    ListenerConfig primary = config.getListeners().get(0);
+    assertEquals("mx.example", primary.getListenHost());
+    assertEquals(25, primary.getListenPort());
+    assertEquals(new File("foo"), primary.getTlsCert());
+    assertEquals(config.getSessionFactory(), primary.getSessionFactory());
+    assertEquals(submission, config.getListeners().get(1));
+  }
+
+  @Test
+  public void listener_requiresSessionFactory() {
+    assertThrows(NullPointerException.class, () -> ListenerConfig.builder().build());
+  }
+
+  @Test
+  public void implicitTls() {
+    builder.withTlsCert(new File("foo")).withImplicitTls(true);
+
+    ServerConfig config = builder.build();
+    Collection<Extension> sessionExtensions =
+        config
+            .getSessionFactory()
+            .newSmtpSession(new InetSocketAddress(1234))
+            .getSupportedExtensions();
+
+    assertTrue(config.isImplicitTls());
+    assertTrue(config.getListeners().get(0).isImplicitTls());
+    assertThat(sessionExtensions, not(hasItem(instanceOf(StartTls.class))));
+  }
+
+  @Test
+  public void implicitTls_requiresCert() {
+    builder.withImplicitTls(true);
+
+    assertThrows(IllegalArgumentException.class, () -> builder.build());
+  }
+
+  @Test
+  public void sni() {
+    File dir = new File("src/test/resources/certs/sni");
+    ServerConfig config =
+        builder
+            .withTlsCert(new File("cert.pem"))
+            .withSniCertDirectory(dir)
+            .withSniCacheSize(10)
+            .build();
+
+    assertEquals(dir, config.getSniCertDirectory());
+    assertEquals(dir, config.getListeners().get(0).getSniCertDirectory());
+    assertEquals(10, config.getSniCacheSize());
+    assertEquals(
+        ServerConfig.DEFAULT_SNI_CACHE_SIZE, ServerConfig.builder().build().getSniCacheSize());
+  }
+
+  @Test
+  public void sni_requiresCert() {
+    builder.withSniCertDirectory(new File("src/test/resources/certs/sni"));
+
+    assertThrows(IllegalArgumentException.class, () -> builder.build());
+    assertThrows(IllegalArgumentException.class, () -> builder.withSniCacheSize(0));
+  }
+
+  @Test
+  public void proxyProtocol() {
+    ServerConfig config = builder.withProxyProtocol(true).build();
+
+    assertTrue(config.isProxyProtocol());
+    assertTrue(config.getListeners().get(0).isProxyProtocol());
+    assertFalse(ServerConfig.builder().build().getListeners().get(0).isProxyProtocol());
+  }
+
+  @Test
+  public void tlsTuning() {
+    ServerConfig config =
+        builder
+            .withSslProvider(SslProvider.OPENSSL)
+            .withTlsSessionCache(1000, 300)
+            .withTlsTicketKeyRotation(Duration.ofHours(1))
+            .build();
+
+    assertEquals(SslProvider.OPENSSL, config.getSslProvider());
+    assertEquals(1000, config.getTlsSessionCacheSize());
+    assertEquals(300, config.getTlsSessionTimeout());
+    assertEquals(Duration.ofHours(1), config.getTlsTicketKeyRotation());
+  }
+
+  @Test
+  public void tlsTuning_invalid() {
+    assertThrows(IllegalArgumentException.class, () -> builder.withTlsSessionCache(-1, 300));
+    assertThrows(IllegalArgumentException.class, () -> builder.withTlsSessionCache(1000, -1));
+    assertThrows(
+        IllegalArgumentException.class, () -> builder.withTlsTicketKeyRotation(Duration.ZERO));
+  }
+
+  @Test
+  public void tlsTaskExecutor() {
+    Executor executor = Runnable::run;
+    assertNull(builder.build().getTlsTaskExecutor());
+    assertSame(executor, builder.withTlsTaskExecutor(executor).build().getTlsTaskExecutor());
+  }
+
+  @Test
+  public void tlsCertCheckInterval() {
+    assertNull(builder.build().getTlsCertCheckInterval());
+    assertEquals(
+        Duration.ofMinutes(5),
+        builder.withTlsCertCheckInterval(Duration.ofMinutes(5)).build().getTlsCertCheckInterval());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> builder.withTlsCertCheckInterval(Duration.ofSeconds(-1)));
+  }
+
+  @Test
+  public void eventLoopLagSampling() {
+    assertNull(builder.build().getEventLoopLagSampling());
+    assertEquals(
+        Duration.ofMillis(100),
+        builder.withEventLoopLagSampling(Duration.ofMillis(100)).build().getEventLoopLagSampling());
+    assertThrows(
+        IllegalArgumentException.class, () -> builder.withEventLoopLagSampling(Duration.ZERO));
+  }
+
   // Checkmarx wants to be sure ServerConfig isn't serializable since it can hold a password. I
   // don't want to follow Checkmarx's
   // suggestion of adding a writeObject method that throws, because it's untestable. So my
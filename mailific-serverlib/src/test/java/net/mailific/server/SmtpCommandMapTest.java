@@ -20,8 +20,10 @@ package net.mailific.server;
 
 import static org.junit.Assert.assertEquals;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
 import net.mailific.server.commands.CommandHandler;
 import net.mailific.server.session.Reply;
 import net.mailific.server.session.SessionState;
@@ -102,6 +104,56 @@ public class SmtpCommandMapTest {
     assertEquals(FOO_TRANSITION, commandMap.consume(session, new Line("FOO BAZ")));
   }
 
+  @Test
+  public void prefixNotRecognized() {
+    assertUnhandled(commandMap.consume(session, new Line("FO")));
+    assertUnhandled(commandMap.consume(session, new Line("FO O")));
+  }
+
+  @Test
+  public void bufferLine() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(20);
+    buffer.put("bar baz\r\n".getBytes(StandardCharsets.US_ASCII)).flip();
+    assertEquals(BAR_TRANSITION, commandMap.consume(session, new Line(buffer)));
+  }
+
+  @Test
+  public void changedLine() {
+    Line line = new Line("BAZ");
+    line.setLine("bar\r\n".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(BAR_TRANSITION, commandMap.consume(session, line));
+  }
+
+  @Test
+  public void nonAsciiNotFolded() {
+    // 'ı' (dotless i) upper-cases to 'I' in Java, but only ASCII letters are folded.
+    commandMap = new SmtpCommandMap(List.of(handler("INFO", FOO_TRANSITION)), null);
+    assertEquals(FOO_TRANSITION, commandMap.consume(session, new Line("info")));
+    assertUnhandled(commandMap.consume(session, new Line("\u0131nfo")));
+  }
+
+  @Test
+  public void laterHandlerWins() {
+    commandMap =
+        new SmtpCommandMap(
+            List.of(handler("foo", FOO_TRANSITION), handler("FOO", BAR_TRANSITION)), null);
+    assertEquals(BAR_TRANSITION, commandMap.consume(session, new Line("Foo")));
+  }
+
+  private static CommandHandler handler(String verb, Transition transition) {
+    return new CommandHandler() {
+      @Override
+      public Transition handleCommand(SmtpSession session, Line commandLine) {
+        return transition;
+      }
+
+      @Override
+      public String verb() {
+        return verb;
+      }
+    };
+  }
+
   @Test
   public void commandWithOutSpaceNotRecognized() {
     assertUnhandled(commandMap.consume(session, new Line("FOOBAZ")));
@@ -0,0 +1,69 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class VerbTrieTest {
+
+  VerbTrie<String> it = new VerbTrie<>();
+
+  @Test
+  public void childrenAddedOutOfOrder() {
+    // Each of these widens the root's children on a different side
+    it.put("MAIL", "mail");
+    it.put("DATA", "data");
+    it.put("VRFY", "vrfy");
+    it.put("RCPT", "rcpt");
+
+    assertEquals("mail", it.get(new Line("mail FROM:<>")));
+    assertEquals("data", it.get(new Line("DATA")));
+    assertEquals("vrfy", it.get(new Line("Vrfy bob")));
+    assertEquals("rcpt", it.get(new Line("RCPT TO:<a@b.c>")));
+    assertNull(it.get(new Line("EHLO")));
+  }
+
+  @Test
+  public void verbIsPrefixOfAnother() {
+    it.put("X", "x");
+    it.put("XCLIENT", "xclient");
+
+    assertEquals("x", it.get(new Line("x")));
+    assertEquals("xclient", it.get(new Line("xclient ADDR=1.2.3.4")));
+    assertNull(it.get(new Line("XCL")));
+  }
+
+  @Test
+  public void emptyVerb() {
+    it.put("FOO", "foo");
+
+    assertNull(it.get(new Line("")));
+    assertNull(it.get(new Line(" FOO")));
+  }
+
+  @Test
+  public void nonLetters() {
+    it.put("X-FOO_1", "x");
+
+    assertEquals("x", it.get(new Line("x-foo_1")));
+  }
+}
@@ -20,12 +20,16 @@ package net.mailific.server.commands;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 import net.mailific.server.Line;
 import net.mailific.server.MailObject;
 import net.mailific.server.extension.auth.TransitionMatcher;
@@ -37,6 +41,7 @@ import net.mailific.server.session.Transition;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -45,7 +50,8 @@ public class DataLineConsumerTest {
 
   @Mock SmtpSession session;
 
-  @Mock MailObject mailObject;
+  @Mock(answer = Answers.CALLS_REAL_METHODS)
+  MailObject mailObject;
 
   ByteArrayOutputStream dataSink = new ByteArrayOutputStream();
 
@@ -96,7 +102,7 @@ public class DataLineConsumerTest {
   @Test
   public void endOfData() throws Exception {
     final Reply okReply = new Reply(250, "okay, boss");
-    when(session.completeMailObject()).thenReturn(okReply);
+    when(session.completeMailObjectAsync()).thenReturn(CompletableFuture.completedFuture(okReply));
 
     Transition actual = it.consume(session, new Line("."));
 
@@ -107,7 +113,7 @@ public class DataLineConsumerTest {
 
   @Test
   public void endOfData_completeThrows() throws Exception {
-    when(session.completeMailObject()).thenThrow(new RuntimeException("zoinks"));
+    when(session.completeMailObjectAsync()).thenThrow(new RuntimeException("zoinks"));
 
     Transition actual = it.consume(session, new Line("."));
 
@@ -116,6 +122,31 @@ public class DataLineConsumerTest {
     assertThat(actual, TransitionMatcher.with(Reply._554_SERVER_ERROR, StandardStates.AFTER_EHLO));
   }
 
+  @Test
+  public void endOfData_async() throws Exception {
+    final Reply okReply = new Reply(250, "okay, boss");
+    CompletableFuture<Reply> future = new CompletableFuture<>();
+    when(session.completeMailObjectAsync()).thenReturn(future);
+
+    Transition actual = it.consume(session, new Line("."));
+
+    assertTrue(actual.isDeferred());
+    future.complete(okReply);
+    assertThat(
+        actual.getDeferred().toCompletableFuture().join(),
+        TransitionMatcher.with(okReply, StandardStates.AFTER_EHLO));
+  }
+
+  @Test
+  public void endOfData_asyncFails() throws Exception {
+    when(session.completeMailObjectAsync())
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException("zoinks")));
+
+    Transition actual = it.consume(session, new Line("."));
+
+    assertThat(actual, TransitionMatcher.with(Reply._554_SERVER_ERROR, StandardStates.AFTER_EHLO));
+  }
+
   @Test
   public void dotStuffing() throws Exception {
     byte[] line = "..foo\r\n".getBytes("UTF-8");
@@ -126,6 +157,54 @@ public class DataLineConsumerTest {
     verify(session, never()).removeLineConsumer(Data.DATA_FILTER_KEY);
   }
 
+  @Test
+  public void directBuffer() throws Exception {
+    byte[] line = "..foo\r\n".getBytes("UTF-8");
+    ByteBuffer buffer = ByteBuffer.allocateDirect(line.length);
+    buffer.put(line).flip();
+
+    it.consume(session, new Line(buffer));
+
+    verify(mailObject).writeLine(Arrays.copyOfRange(line, 1, line.length), 0, line.length - 1);
+    // The line must not have moved the caller's buffer
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void consumeData() throws Exception {
+    byte[] data = "foo\r\nbar\r\n".getBytes("UTF-8");
+
+    it.consumeData(session, ByteBuffer.wrap(data));
+
+    verify(mailObject).writeLine(data, 0, 5);
+    verify(mailObject).writeLine(data, 5, 5);
+  }
+
+  @Test
+  public void endOfData_bulk() throws Exception {
+    final Reply okReply = new Reply(250, "okay, boss");
+    when(session.completeMailObjectAsync()).thenReturn(CompletableFuture.completedFuture(okReply));
+
+    Transition actual = it.endOfData(session);
+
+    verify(session).removeLineConsumer(Data.DATA_FILTER_KEY);
+    assertThat(actual, TransitionMatcher.with(okReply, StandardStates.AFTER_EHLO));
+  }
+
+  @Test
+  public void lineTooLong() throws Exception {
+    byte[] data = "foo\r\n".getBytes("UTF-8");
+
+    it.lineTooLong(session);
+    it.consumeData(session, ByteBuffer.wrap(data));
+    Transition actual = it.endOfData(session);
+
+    verify(mailObject, never()).writeLine(data, 0, 5);
+    verify(session).clearMailObject();
+    verify(session, never()).completeMailObjectAsync();
+    assertThat(actual, TransitionMatcher.with(Reply._500_LINE_TOO_LONG, StandardStates.AFTER_EHLO));
+  }
+
   @Test
   public void errorWritingData() throws Exception {
     byte[] line = "foo\r\n".getBytes("UTF-8");
@@ -18,8 +18,11 @@
 
 package net.mailific.server.commands;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.nio.charset.StandardCharsets;
+import net.mailific.server.session.Reply;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -40,6 +43,17 @@ public class ExtendedReplyTest {
     assertEquals("275-foo\r\n275-bar\r\n275 baz\r\n", builder.build().replyString());
   }
 
+  @Test
+  public void multiDetails_replyBytes() {
+    ExtendedReply.Builder builder = new ExtendedReply.Builder(250).withDetail("foo");
+    Reply reply = builder.withDetail("bar").build();
+    // Later changes to the builder must not leak into the reply
+    builder.withDetail("baz");
+
+    assertArrayEquals(
+        "250-foo\r\n250 bar\r\n".getBytes(StandardCharsets.US_ASCII), reply.replyBytes());
+  }
+
   @Test
   public void noDetails() {
     ExtendedReply.Builder builder = new ExtendedReply.Builder(275);
@@ -0,0 +1,142 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import net.mailific.server.MailObject;
+import net.mailific.server.extension.auth.TransitionMatcher;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+import net.mailific.server.session.Transition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class BdatCommandHandlerTest {
+
+  @Mock SmtpSession session;
+  @Mock MailObject mailObject;
+
+  BdatCommandHandler it = new BdatCommandHandler();
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setUp() {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    when(session.getMailObject()).thenReturn(mailObject);
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_RCPT);
+  }
+
+  @After
+  public void releaseMocks() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void firstChunk() {
+    Transition t = it.handleValidCommand(session, "BDAT 100");
+
+    ChunkLineConsumer consumer = installedConsumer();
+    assertEquals(100, consumer.getRemaining());
+    verify(mailObject).prepareForData(session);
+    assertThat(t, TransitionMatcher.with(Reply.DO_NOT_REPLY, SessionState.NO_STATE_CHANGE));
+  }
+
+  @Test
+  public void laterChunk() {
+    when(session.getConnectionState()).thenReturn(Chunking.RECEIVING_CHUNKS);
+
+    it.handleValidCommand(session, "bdat 7 last");
+
+    assertEquals(7, installedConsumer().getRemaining());
+    verify(mailObject, never()).prepareForData(session);
+  }
+
+  @Test
+  public void emptyLastChunk() {
+    when(session.getConnectionState()).thenReturn(Chunking.RECEIVING_CHUNKS);
+    when(session.completeMailObjectAsync())
+        .thenReturn(CompletableFuture.completedFuture(Reply._250_OK));
+
+    Transition t = it.handleValidCommand(session, "BDAT 0 LAST");
+
+    verify(session, never()).addLineConsumer(any(), any());
+    assertThat(t, TransitionMatcher.with(Reply._250_OK, StandardStates.AFTER_EHLO));
+  }
+
+  @Test
+  public void outOfSequence() {
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_MAIL);
+
+    Transition t = it.handleValidCommand(session, "BDAT 3");
+
+    // The chunk still has to be read
+    ChunkLineConsumer consumer = installedConsumer();
+    assertThat(t, TransitionMatcher.with(Reply.DO_NOT_REPLY, SessionState.NO_STATE_CHANGE));
+    verify(mailObject, never()).prepareForData(session);
+
+    assertThat(
+        consumer.endOfChunk(session),
+        TransitionMatcher.with(Reply._503_BAD_SEQUENCE, SessionState.NO_STATE_CHANGE));
+  }
+
+  @Test
+  public void badArgs() {
+    for (String line :
+        new String[] {"BDAT", "BDAT x", "BDAT -1", "BDAT 1 FIRST", "BDAT 1 LAST x"}) {
+      Transition t = it.handleValidCommand(session, line);
+      assertThat(t, TransitionMatcher.with(Reply._501_BAD_ARGS, SessionState.NO_STATE_CHANGE));
+    }
+    verify(session, never()).addLineConsumer(any(), any());
+  }
+
+  @Test
+  public void validInAnyState() {
+    when(session.getConnectionState()).thenReturn(StandardStates.CONNECTED);
+
+    assertTrue(it.validForSession(session));
+  }
+
+  @Test
+  public void command() {
+    assertEquals("BDAT", it.verb());
+  }
+
+  private ChunkLineConsumer installedConsumer() {
+    ArgumentCaptor<ChunkLineConsumer> captor = ArgumentCaptor.forClass(ChunkLineConsumer.class);
+    verify(session).addLineConsumer(eq(BdatCommandHandler.CHUNK_FILTER_KEY), captor.capture());
+    return captor.getValue();
+  }
+}
@@ -0,0 +1,85 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+import net.mailific.server.Line;
+import net.mailific.server.MailObject;
+import net.mailific.server.Parameters;
+import net.mailific.server.commands.ParsedCommandLine;
+import net.mailific.server.extension.auth.TransitionMatcher;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.Transition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class BinaryMimeDataHandlerTest {
+
+  @Mock SmtpSession session;
+  @Mock MailObject mailObject;
+
+  BinaryMimeDataHandler it = new BinaryMimeDataHandler();
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setUp() {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    when(session.getMailObject()).thenReturn(mailObject);
+  }
+
+  @After
+  public void releaseMocks() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void binaryMime() {
+    String mailFrom = "MAIL FROM:<a@b.c> BODY=BINARYMIME";
+    when(mailObject.getMailFromLine())
+        .thenReturn(new ParsedCommandLine(mailFrom, "MAIL", "a@b.c", new Parameters(mailFrom, 18)));
+
+    Transition t = it.handleCommand(session, new Line("DATA"));
+
+    assertThat(
+        t,
+        TransitionMatcher.with(
+            BinaryMimeDataHandler._503_BDAT_REQUIRED, SessionState.NO_STATE_CHANGE));
+  }
+
+  @Test
+  public void notBinaryMime() {
+    Transition t = it.handleCommand(session, new Line("DATA"));
+
+    assertEquals(Transition.UNHANDLED, t);
+  }
+
+  @Test
+  public void verb() {
+    assertEquals("DATA", it.verb());
+  }
+}
@@ -0,0 +1,107 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import net.mailific.server.MailObject;
+import net.mailific.server.Parameters;
+import net.mailific.server.commands.CommandHandler;
+import net.mailific.server.commands.ParsedCommandLine;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class BinaryMimeTest {
+
+  @Mock MailObject mailObject;
+
+  BinaryMime it = new BinaryMime();
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setup() {
+    closeable = MockitoAnnotations.openMocks(this);
+  }
+
+  @After
+  public void releaseMocks() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void name() {
+    assertEquals(BinaryMime.NAME, it.getName());
+  }
+
+  @Test
+  public void ehloKeyword() {
+    assertEquals(BinaryMime.EHLO_KEYWORD, it.getEhloKeyword());
+  }
+
+  @Test
+  public void verbs() {
+    Collection<CommandHandler> verbs = it.commandHandlers();
+    assertThat(verbs, Matchers.hasSize(1));
+    assertThat(verbs.iterator().next(), instanceOf(BinaryMimeDataHandler.class));
+  }
+
+  @Test
+  public void isBinaryMime() {
+    mailFrom("MAIL FROM:<a@b.c> BODY=binarymime");
+
+    assertTrue(BinaryMime.isBinaryMime(mailObject));
+  }
+
+  @Test
+  public void isBinaryMime_otherBody() {
+    mailFrom("MAIL FROM:<a@b.c> BODY=8BITMIME");
+
+    assertFalse(BinaryMime.isBinaryMime(mailObject));
+  }
+
+  @Test
+  public void isBinaryMime_noParams() {
+    when(mailObject.getMailFromLine())
+        .thenReturn(new ParsedCommandLine("MAIL FROM:<a@b.c>", "MAIL", "a@b.c", null));
+
+    assertFalse(BinaryMime.isBinaryMime(mailObject));
+  }
+
+  @Test
+  public void isBinaryMime_noMailFrom() {
+    assertFalse(BinaryMime.isBinaryMime(mailObject));
+    assertFalse(BinaryMime.isBinaryMime(null));
+  }
+
+  private void mailFrom(String line) {
+    when(mailObject.getMailFromLine())
+        .thenReturn(new ParsedCommandLine(line, "MAIL", "a@b.c", new Parameters(line, 18)));
+  }
+}
@@ -0,0 +1,177 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import net.mailific.server.Line;
+import net.mailific.server.MailObject;
+import net.mailific.server.extension.auth.TransitionMatcher;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+import net.mailific.server.session.Transition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class ChunkLineConsumerTest {
+
+  @Mock SmtpSession session;
+  @Mock MailObject mailObject;
+
+  ByteArrayOutputStream dataSink = new ByteArrayOutputStream();
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setUp() throws IOException {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    when(session.getMailObject()).thenReturn(mailObject);
+    doAnswer(
+            inv -> {
+              ByteBuffer data = inv.getArgument(0);
+              byte[] bytes = new byte[data.remaining()];
+              data.get(bytes);
+              dataSink.write(bytes);
+              return null;
+            })
+        .when(mailObject)
+        .writeChunk(any());
+  }
+
+  @After
+  public void releaseMocks() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void consumeChunk() {
+    ChunkLineConsumer it = new ChunkLineConsumer(9, false);
+
+    it.consumeChunk(session, buffer("foo\r"));
+    it.consumeChunk(session, buffer("\nbar\0"));
+
+    assertEquals(0, it.getRemaining());
+    assertArrayEquals("foo\r\nbar\0".getBytes(StandardCharsets.UTF_8), dataSink.toByteArray());
+  }
+
+  @Test
+  public void endOfChunk_notLast() {
+    ChunkLineConsumer it = new ChunkLineConsumer(3, false);
+    it.consumeChunk(session, buffer("foo"));
+
+    Transition t = it.endOfChunk(session);
+
+    verify(session).removeLineConsumer(BdatCommandHandler.CHUNK_FILTER_KEY);
+    verify(session, never()).completeMailObjectAsync();
+    assertEquals(250, t.getReply().getCode());
+    assertEquals("3 octets received", t.getReply().getDetail());
+    assertFalse(t.getReply().isImmediate());
+    assertEquals(Chunking.RECEIVING_CHUNKS, t.getNextState());
+  }
+
+  @Test
+  public void endOfChunk_last() {
+    Reply reply = new Reply(250, "queued", false);
+    when(session.completeMailObjectAsync()).thenReturn(CompletableFuture.completedFuture(reply));
+    ChunkLineConsumer it = new ChunkLineConsumer(3, true);
+    it.consumeChunk(session, buffer("foo"));
+
+    Transition t = it.endOfChunk(session);
+
+    verify(session).removeLineConsumer(BdatCommandHandler.CHUNK_FILTER_KEY);
+    assertThat(t, TransitionMatcher.with(reply, StandardStates.AFTER_EHLO));
+  }
+
+  @Test
+  public void endOfChunk_completeThrows() {
+    when(session.completeMailObjectAsync()).thenThrow(new RuntimeException());
+    ChunkLineConsumer it = new ChunkLineConsumer(0, true);
+
+    Transition t = it.endOfChunk(session);
+
+    assertThat(t, TransitionMatcher.with(Reply._554_SERVER_ERROR, StandardStates.AFTER_EHLO));
+  }
+
+  @Test
+  public void writeError() throws IOException {
+    doThrow(IOException.class).when(mailObject).writeChunk(any());
+    ChunkLineConsumer it = new ChunkLineConsumer(6, true);
+
+    it.consumeChunk(session, buffer("foo"));
+    it.consumeChunk(session, buffer("bar"));
+    Transition t = it.endOfChunk(session);
+
+    verify(mailObject, times(1)).writeChunk(any());
+    verify(session).clearMailObject();
+    verify(session, never()).completeMailObjectAsync();
+    assertThat(t, TransitionMatcher.with(Reply._554_SERVER_ERROR, StandardStates.AFTER_EHLO));
+  }
+
+  @Test
+  public void rejected() throws IOException {
+    ChunkLineConsumer it = new ChunkLineConsumer(3, Reply._503_BAD_SEQUENCE);
+
+    it.consumeChunk(session, buffer("foo"));
+    Transition t = it.endOfChunk(session);
+
+    verify(mailObject, never()).writeChunk(any());
+    verify(session).removeLineConsumer(BdatCommandHandler.CHUNK_FILTER_KEY);
+    assertThat(t, TransitionMatcher.with(Reply._503_BAD_SEQUENCE, SessionState.NO_STATE_CHANGE));
+  }
+
+  @Test
+  public void consumeLines() {
+    when(session.completeMailObjectAsync())
+        .thenReturn(CompletableFuture.completedFuture(Reply._250_OK));
+    ChunkLineConsumer it = new ChunkLineConsumer(8, true);
+
+    Transition t = it.consume(session, new Line("foo\r\n"));
+    assertThat(t, TransitionMatcher.with(Reply.DO_NOT_REPLY, SessionState.NO_STATE_CHANGE));
+
+    // Chunk ends mid-line. The rest of the line is dropped.
+    t = it.consume(session, new Line("bar\r\n"));
+    assertThat(t, TransitionMatcher.with(Reply._250_OK, StandardStates.AFTER_EHLO));
+    assertArrayEquals("foo\r\nbar".getBytes(StandardCharsets.UTF_8), dataSink.toByteArray());
+  }
+
+  private ByteBuffer buffer(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,55 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.extension.chunking;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import net.mailific.server.commands.CommandHandler;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class ChunkingTest {
+
+  Chunking it = new Chunking();
+
+  @Test
+  public void name() {
+    assertEquals(Chunking.NAME, it.getName());
+  }
+
+  @Test
+  public void ehloKeyword() {
+    assertEquals(Chunking.EHLO_KEYWORD, it.getEhloKeyword());
+  }
+
+  @Test
+  public void verbs() {
+    Collection<CommandHandler> verbs = it.commandHandlers();
+    assertThat(verbs, Matchers.hasSize(1));
+    assertThat(verbs.iterator().next(), instanceOf(BdatCommandHandler.class));
+  }
+
+  @Test
+  public void stateName() {
+    assertEquals("RECEIVING_CHUNKS", Chunking.RECEIVING_CHUNKS.name());
+  }
+}
@@ -0,0 +1,103 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Test;
+
+public class ChunkDecoderTest {
+
+  EmbeddedChannel channel = new EmbeddedChannel(new ChunkDecoder(10));
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void contentIgnored() {
+    write("a\r\n.\r\n\nb");
+
+    assertEquals("a\r\n.\r\n\nb", readChunk());
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void exactSize() {
+    write("0123456789");
+
+    assertEquals("0123456789", readChunk());
+    assertEquals(ChunkDecoder.END_OF_CHUNK, channel.readInbound());
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void split() {
+    write("0123");
+    assertEquals("0123", readChunk());
+    assertNull(channel.readInbound());
+
+    write("456789");
+    assertEquals("456789", readChunk());
+    assertEquals(ChunkDecoder.END_OF_CHUNK, channel.readInbound());
+  }
+
+  @Test
+  public void stopsAtEndOfChunk() {
+    write("0123456789BDAT 3 LAST\r\n");
+
+    assertEquals("0123456789", readChunk());
+    assertEquals(ChunkDecoder.END_OF_CHUNK, channel.readInbound());
+    assertNull(channel.readInbound());
+
+    write("more");
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void leftoverPassedOnWhenRemoved() {
+    write("0123456789QUIT\r\n");
+    readChunk();
+    channel.readInbound();
+
+    channel.pipeline().removeFirst();
+
+    assertEquals("QUIT\r\n", readChunk());
+  }
+
+  private void write(String s) {
+    channel.writeInbound(Unpooled.copiedBuffer(s, StandardCharsets.UTF_8));
+  }
+
+  private String readChunk() {
+    ByteBuf buf = channel.readInbound();
+    try {
+      return buf.toString(StandardCharsets.UTF_8);
+    } finally {
+      buf.release();
+    }
+  }
+}
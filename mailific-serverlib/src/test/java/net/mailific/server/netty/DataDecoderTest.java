@@ -0,0 +1,165 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Test;
+
+public class DataDecoderTest {
+
+  EmbeddedChannel channel = new EmbeddedChannel(new DataDecoder(20));
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void wholeLinesInOneChunk() {
+    write("foo\r\nbar\r\nbaz");
+
+    assertEquals("foo\r\nbar\r\n", readChunk());
+    assertNull(channel.readInbound());
+
+    write("\r\n");
+    assertEquals("baz\r\n", readChunk());
+  }
+
+  @Test
+  public void bareLfIsNotALineEnd() {
+    write("foo\nbar\r\n");
+
+    assertEquals("foo\nbar\r\n", readChunk());
+  }
+
+  @Test
+  public void dotStuffing() {
+    write("foo\r\n..bar\r\n.baz\r\nquux\r\n");
+
+    assertEquals("foo\r\n", readChunk());
+    assertEquals(".bar\r\n", readChunk());
+    assertEquals("baz\r\nquux\r\n", readChunk());
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void endOfData() {
+    write("foo\r\n.\r\nQUIT\r\n");
+
+    assertEquals("foo\r\n", readChunk());
+    assertEquals(DataDecoder.END_OF_DATA, channel.readInbound());
+    assertNull(channel.readInbound());
+
+    // Stops reading after the marker.
+    write("more\r\n");
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void endOfData_leftoverPassedOnWhenRemoved() {
+    write("foo\r\n.\r\nQUIT\r\n");
+    readChunk();
+    channel.readInbound();
+
+    channel.pipeline().removeFirst();
+
+    assertEquals("QUIT\r\n", readChunk());
+  }
+
+  @Test
+  public void endOfData_split() {
+    write("foo\r\n.");
+    assertEquals("foo\r\n", readChunk());
+    assertNull(channel.readInbound());
+
+    write("\r");
+    assertNull(channel.readInbound());
+
+    write("\n");
+    assertEquals(DataDecoder.END_OF_DATA, channel.readInbound());
+  }
+
+  @Test
+  public void dotFollowedByBareLf() {
+    write(".\n.\r\n");
+
+    assertEquals("\n.\r\n", readChunk());
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void lineTooLong() {
+    write("foo\r\n0123456789012345678901234");
+    assertEquals("foo\r\n", readChunk());
+    assertNull(channel.readInbound());
+
+    // The rest of the long line is dropped, but the following lines come through
+    write("more of the same line\r\nbar\r\n");
+    assertEquals(SmtpLineDecoder.LINE_TOO_LONG, channel.readInbound());
+    assertEquals("bar\r\n", readChunk());
+  }
+
+  @Test
+  public void lineTooLong_complete() {
+    write("foo\r\n0123456789012345678901234\r\nbar\r\n");
+
+    assertEquals("foo\r\n", readChunk());
+    assertEquals(SmtpLineDecoder.LINE_TOO_LONG, channel.readInbound());
+    assertEquals("bar\r\n", readChunk());
+  }
+
+  @Test
+  public void lineTooLong_crlfSplit() {
+    write("0123456789012345678901234\r");
+    assertNull(channel.readInbound());
+
+    write("\nfoo\r\n");
+    assertEquals(SmtpLineDecoder.LINE_TOO_LONG, channel.readInbound());
+    assertEquals("foo\r\n", readChunk());
+  }
+
+  @Test
+  public void maxLength_crlfSplit() {
+    write("01234567890123456789\r");
+    assertNull(channel.readInbound());
+
+    write("\nfoo\r\n");
+    assertEquals("01234567890123456789\r\nfoo\r\n", readChunk());
+  }
+
+  private void write(String s) {
+    channel.writeInbound(Unpooled.copiedBuffer(s, StandardCharsets.UTF_8));
+  }
+
+  private String readChunk() {
+    ByteBuf buf = channel.readInbound();
+    try {
+      return buf.toString(StandardCharsets.UTF_8);
+    } finally {
+      buf.release();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.mailific.server.session.Reply;
+import net.mailific.server.session.SmtpSession;
+import org.junit.Test;
+
+public class DataOffloadTest {
+
+  List<Runnable> scheduled = new ArrayList<>();
+  SmtpSession session = mock(SmtpSession.class);
+  DataOffload it = new DataOffload(null, scheduled::add, 0, 100, () -> {});
+
+  private void runScheduled() {
+    while (!scheduled.isEmpty()) {
+      scheduled.remove(0).run();
+    }
+  }
+
+  @Test
+  public void end() throws Exception {
+    when(session.getPendingReply()).thenReturn(null);
+
+    CompletableFuture<Reply> reply = it.end(session, () -> Reply._250_OK).toCompletableFuture();
+    runScheduled();
+
+    assertEquals(Reply._250_OK, reply.get());
+  }
+
+  @Test
+  public void end_afterClose() {
+    AtomicInteger ended = new AtomicInteger();
+
+    CompletableFuture<Reply> reply =
+        it.end(
+                session,
+                () -> {
+                  ended.incrementAndGet();
+                  return Reply._250_OK;
+                })
+            .toCompletableFuture();
+    it.close(session);
+    runScheduled();
+
+    // The data was cut short, so it isn't delivered
+    assertEquals(0, ended.get());
+    ExecutionException e = assertThrows(ExecutionException.class, reply::get);
+    assertTrue(e.getCause() instanceof ClosedChannelException);
+    verify(session).clearMailObject();
+  }
+}
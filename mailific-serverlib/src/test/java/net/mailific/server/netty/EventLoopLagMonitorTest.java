@@ -0,0 +1,92 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class EventLoopLagMonitorTest {
+
+  EventLoopGroup group = new DefaultEventLoopGroup(1);
+  EventLoopLagMonitor it = new EventLoopLagMonitor(group, Duration.ofMillis(5));
+
+  @After
+  public void teardown() throws Exception {
+    it.stop();
+    group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+  }
+
+  private void awaitSamples(long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (it.getSampleCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(it.getSampleCount() >= count);
+  }
+
+  @Test
+  public void nothingBeforeStart() {
+    assertEquals(0, it.getSampleCount());
+    assertEquals(Duration.ZERO, it.getMaxLag());
+    assertEquals(Duration.ZERO, it.getMeanLag());
+    assertEquals(Duration.ofMillis(5), it.getInterval());
+  }
+
+  @Test
+  public void measuresBlockedLoop() throws Exception {
+    it.start();
+    awaitSamples(1);
+
+    group.execute(
+        () -> {
+          try {
+            Thread.sleep(200);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    awaitSamples(it.getSampleCount() + 2);
+
+    assertTrue(it.getMaxLag().toMillis() >= 100);
+    assertTrue(it.getMeanLag().compareTo(it.getMaxLag()) <= 0);
+
+    it.resetMaxLag();
+    assertEquals(Duration.ZERO, it.getMaxLag());
+  }
+
+  @Test
+  public void stop() throws Exception {
+    it.start();
+    awaitSamples(1);
+
+    it.stop();
+    long count = it.getSampleCount();
+    Thread.sleep(50);
+
+    // A sample already running when stop was called may still land
+    assertTrue(it.getSampleCount() <= count + 1);
+  }
+}
@@ -0,0 +1,87 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Test;
+
+public class HoldDecoderTest {
+
+  EmbeddedChannel channel = new EmbeddedChannel(new HoldDecoder());
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void holdsInput() {
+    write("NOOP\r\n");
+    write("QUIT\r\n");
+
+    assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void passesInputOnWhenRemoved() {
+    write("NOOP\r\n");
+    write("QUIT\r\n");
+
+    channel.pipeline().removeFirst();
+
+    ByteBuf buf = channel.readInbound();
+    try {
+      assertEquals("NOOP\r\nQUIT\r\n", buf.toString(StandardCharsets.UTF_8));
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Test
+  public void doesNotAskForMore() {
+    channel.config().setAutoRead(false);
+    int[] reads = new int[1];
+    channel
+        .pipeline()
+        .addFirst(
+            new ChannelOutboundHandlerAdapter() {
+              @Override
+              public void read(ChannelHandlerContext ctx) {
+                reads[0]++;
+              }
+            });
+
+    write("NOOP\r\n");
+
+    assertEquals(0, reads[0]);
+  }
+
+  private void write(String s) {
+    channel.writeInbound(Unpooled.copiedBuffer(s, StandardCharsets.UTF_8));
+  }
+}
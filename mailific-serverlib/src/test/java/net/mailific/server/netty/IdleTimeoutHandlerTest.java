@@ -0,0 +1,273 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.mailific.server.session.SessionState;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class IdleTimeoutHandlerTest {
+
+  @Mock SmtpSession session;
+
+  ManualTimer timer = new ManualTimer();
+
+  IdleTimeouts timeouts;
+
+  EmbeddedChannel channel;
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setup() {
+    closeable = MockitoAnnotations.openMocks(this);
+    when(session.getConnectionState()).thenReturn(StandardStates.CONNECTED);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    channel.finishAndReleaseAll();
+    timeouts.stop();
+    closeable.close();
+  }
+
+  private void start(Duration defaultTimeout, Map<SessionState, Duration> byState) {
+    timeouts = new IdleTimeouts(defaultTimeout, byState, timer, timer::now);
+    channel = new EmbeddedChannel();
+    channel.attr(SmtpServerHandler.SESSION_KEY).set(session);
+    channel.pipeline().addLast(new IdleTimeoutHandler(timeouts));
+  }
+
+  private void idle(long millis) {
+    timer.advance(millis);
+    channel.runPendingTasks();
+  }
+
+  private void read() {
+    channel.writeInbound(Unpooled.wrappedBuffer(new byte[] {'x'}));
+    channel.releaseInbound();
+  }
+
+  @Test
+  public void timesOut() throws Exception {
+    start(Duration.ofMillis(200), Map.of());
+
+    idle(199);
+    channel.checkException();
+    idle(1);
+
+    assertThrows(ReadTimeoutException.class, channel::checkException);
+  }
+
+  @Test
+  public void readsPostponeTimeout() throws Exception {
+    start(Duration.ofMillis(400), Map.of());
+
+    for (int i = 0; i < 6; i++) {
+      idle(300);
+      read();
+    }
+
+    channel.checkException();
+  }
+
+  @Test
+  public void shorterTimeoutForNewState() throws Exception {
+    start(Duration.ofSeconds(30), Map.of(StandardStates.AFTER_MAIL, Duration.ofMillis(200)));
+    idle(300);
+    channel.checkException();
+
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_MAIL);
+    read();
+    idle(200);
+
+    assertThrows(ReadTimeoutException.class, channel::checkException);
+  }
+
+  @Test
+  public void longerTimeoutForNewState() throws Exception {
+    start(Duration.ofMillis(300), Map.of(StandardStates.READING_DATA, Duration.ofSeconds(30)));
+
+    when(session.getConnectionState()).thenReturn(StandardStates.READING_DATA);
+    read();
+    idle(600);
+
+    channel.checkException();
+  }
+
+  @Test
+  public void noSession() throws Exception {
+    channel = new EmbeddedChannel();
+    timeouts =
+        new IdleTimeouts(
+            Duration.ofSeconds(30),
+            Map.of(StandardStates.BEFORE_CONNECT, Duration.ofMillis(200)),
+            timer,
+            timer::now);
+    channel.pipeline().addLast(new IdleTimeoutHandler(timeouts));
+
+    idle(200);
+
+    assertThrows(ReadTimeoutException.class, channel::checkException);
+  }
+
+  @Test
+  public void closedConnectionDoesNotTimeOut() throws Exception {
+    start(Duration.ofMillis(200), Map.of());
+
+    channel.close();
+    idle(500);
+
+    channel.checkException();
+    assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void notReading() throws Exception {
+    start(Duration.ofMillis(200), Map.of());
+
+    // e.g. waiting on a deferred reply
+    channel.config().setAutoRead(false);
+    idle(1000);
+    channel.checkException();
+
+    // The client gets the full timeout from when reading resumes
+    idle(100);
+    channel.config().setAutoRead(true);
+    idle(199);
+    channel.checkException();
+    idle(200);
+
+    assertThrows(ReadTimeoutException.class, channel::checkException);
+  }
+
+  @Test
+  public void onEventLoop() throws Exception {
+    channel = new EmbeddedChannel();
+    channel.freezeTime();
+    timeouts = new IdleTimeouts(Duration.ofMillis(200), Map.of(), null, timer::now);
+    channel.pipeline().addLast(new IdleTimeoutHandler(timeouts));
+
+    timer.advance(200);
+    channel.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+    channel.runPendingTasks();
+
+    assertThrows(ReadTimeoutException.class, channel::checkException);
+  }
+
+  /** Fires its timeouts when the test moves its clock on. */
+  static class ManualTimer implements Timer {
+
+    private long now;
+    private final List<ManualTimeout> timeouts = new ArrayList<>();
+
+    long now() {
+      return now;
+    }
+
+    void advance(long millis) {
+      now += TimeUnit.MILLISECONDS.toNanos(millis);
+      for (ManualTimeout timeout : new ArrayList<>(timeouts)) {
+        if (!timeout.cancelled && timeout.deadline - now <= 0) {
+          timeouts.remove(timeout);
+          timeout.expired = true;
+          try {
+            timeout.task.run(timeout);
+          } catch (Exception e) {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+      ManualTimeout timeout = new ManualTimeout(task, now + unit.toNanos(delay));
+      timeouts.add(timeout);
+      return timeout;
+    }
+
+    @Override
+    public Set<Timeout> stop() {
+      Set<Timeout> pending = new HashSet<>(timeouts);
+      timeouts.clear();
+      return pending;
+    }
+
+    class ManualTimeout implements Timeout {
+      final TimerTask task;
+      final long deadline;
+      boolean cancelled;
+      boolean expired;
+
+      ManualTimeout(TimerTask task, long deadline) {
+        this.task = task;
+        this.deadline = deadline;
+      }
+
+      @Override
+      public Timer timer() {
+        return ManualTimer.this;
+      }
+
+      @Override
+      public TimerTask task() {
+        return task;
+      }
+
+      @Override
+      public boolean isExpired() {
+        return expired;
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return cancelled;
+      }
+
+      @Override
+      public boolean cancel() {
+        cancelled = true;
+        return timeouts.remove(this);
+      }
+    }
+  }
+}
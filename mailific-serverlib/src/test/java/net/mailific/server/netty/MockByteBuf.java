@@ -863,7 +863,7 @@ public class MockByteBuf extends ByteBuf {
 
   @Override
   public ByteBuffer nioBuffer() {
-    throw new UnsupportedOperationException();
+    return ByteBuffer.wrap(data);
   }
 
   @Override
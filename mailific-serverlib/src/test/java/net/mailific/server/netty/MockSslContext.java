@@ -23,6 +23,7 @@ import io.netty.handler.ssl.ApplicationProtocolNegotiator;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import java.util.List;
+import java.util.concurrent.Executor;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSessionContext;
 
@@ -30,6 +31,7 @@ import javax.net.ssl.SSLSessionContext;
 public class MockSslContext extends SslContext {
 
   MockSslHandler mockSslHandler;
+  Executor delegatedTaskExecutor;
 
   public MockSslHandler getSslHandler() {
     return mockSslHandler;
@@ -87,4 +89,10 @@ public class MockSslContext extends SslContext {
     mockSslHandler = new MockSslHandler(newEngine(alloc));
     return mockSslHandler;
   }
+
+  @Override
+  protected SslHandler newHandler(ByteBufAllocator alloc, boolean startTls, Executor executor) {
+    delegatedTaskExecutor = executor;
+    return newHandler(alloc, startTls);
+  }
 }
@@ -18,17 +18,72 @@
 
 package net.mailific.server.netty;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslProvider;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import net.mailific.main.Main;
+import net.mailific.server.ListenerConfig;
 import net.mailific.server.ServerConfig;
+import net.mailific.server.SmtpCommandMap;
+import net.mailific.server.commands.CommandHandler;
+import net.mailific.server.commands.Connect;
+import net.mailific.server.reference.BaseMailObjectFactory;
+import net.mailific.server.session.SmtpSessionFactory;
+import net.mailific.server.session.SmtpSessionFactoryImp;
+import net.mailific.server.session.StandardStates;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class NettySmtpServerTest {
 
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
   NettySmtpServer it;
   ServerConfig.Builder builder;
   int port = 12525;
@@ -56,6 +111,51 @@ public class NettySmtpServerTest {
     assertEquals(future1, future2);
   }
 
+  @Test
+  public void transportBeforeStart() {
+    assertNull(it.getTransport());
+  }
+
+  @Test
+  public void defaultTransport() throws Exception {
+    it.start();
+    assertEquals(Transport.preferred(), it.getTransport());
+  }
+
+  @Test
+  public void nioTransport() throws Exception {
+    it = new NettySmtpServer(builder.withTransport(Transport.NIO).build());
+    it.start();
+    assertEquals(Transport.NIO, it.getTransport());
+  }
+
+  @Test
+  public void reusePort() throws Exception {
+    Assume.assumeTrue(Transport.EPOLL.isAvailable());
+    withStandardCommands("reuse.example")
+        .withTransport(Transport.EPOLL)
+        .withAcceptors(3)
+        .withBacklog(128);
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    assertEquals(3, it.getServerChannels().size());
+    for (int i = 0; i < 6; i++) {
+      try (Socket socket = new Socket("localhost", port)) {
+        BufferedReader in = reader(socket);
+        assertTrue(in.readLine().startsWith("220 reuse.example"));
+      }
+    }
+  }
+
+  @Test
+  public void reusePort_unsupported() throws Exception {
+    it = new NettySmtpServer(builder.withTransport(Transport.NIO).withAcceptors(3).build());
+    it.start();
+
+    assertEquals(1, it.getServerChannels().size());
+  }
+
   @Test
   public void withTls() throws Exception {
     builder
@@ -64,4 +164,662 @@ public class NettySmtpServerTest {
     it = new NettySmtpServer(builder.build());
     it.start();
   }
+
+  @Test
+  public void threadFactory() throws Exception {
+    AtomicInteger created = new AtomicInteger();
+    it =
+        new NettySmtpServer(
+            builder
+                .withBossThreads(1)
+                .withBossThreadFactory(
+                    r -> {
+                      created.incrementAndGet();
+                      return new Thread(r);
+                    })
+                .build());
+
+    it.start();
+
+    assertEquals(1, created.get());
+  }
+
+  @Test
+  public void suppliedGroups() throws Exception {
+    EventLoopGroup group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+    try {
+      builder.withBossGroup(group).withWorkerGroup(group);
+      it = new NettySmtpServer(builder.build());
+      it.start();
+      assertEquals(Transport.NIO, it.getTransport());
+
+      it.shutdown().get();
+      assertFalse(group.isShuttingDown());
+
+      // The port was released, and the group can be used again
+      it = new NettySmtpServer(builder.build());
+      it.start();
+    } finally {
+      it.shutdown().get();
+      group.shutdownGracefully().sync();
+    }
+  }
+
+  @Test
+  public void additionalListener() throws Exception {
+    builder.withAdditionalListener(
+        ListenerConfig.builder()
+            .withListenHost("localhost")
+            .withListenPort(port + 1)
+            .withSessionFactory(sessionFactory("submission.example"))
+            .build());
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (Socket socket = new Socket("localhost", port + 1)) {
+      BufferedReader in = reader(socket);
+      assertEquals("220 submission.example", in.readLine().split(" ESMTP")[0]);
+    }
+  }
+
+  @Test
+  public void bindFailure() throws Exception {
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+    ThreadFactory threadFactory =
+        r -> {
+          Thread thread = new Thread(r);
+          threads.add(thread);
+          return thread;
+        };
+    builder
+        .withBossThreadFactory(threadFactory)
+        .withWorkerThreadFactory(threadFactory)
+        .withAdditionalListener(
+            ListenerConfig.builder()
+                .withListenHost("localhost")
+                .withListenPort(port + 1)
+                .withSessionFactory(sessionFactory("second.example"))
+                .build());
+
+    try (ServerSocket taken = new ServerSocket(port + 1, 50, InetAddress.getByName("localhost"))) {
+      it = new NettySmtpServer(builder.build());
+      assertThrows(Exception.class, it::start);
+    }
+
+    // The first listener was closed again, and the server's event loops stopped
+    new ServerSocket(port, 50, InetAddress.getByName("localhost")).close();
+    assertFalse(threads.isEmpty());
+    for (Thread thread : threads) {
+      thread.join(5000);
+      assertFalse(thread.isAlive());
+    }
+
+    // Now the port is free, starting again works
+    it.start();
+    assertEquals(2, it.getServerChannels().size());
+    try (Socket socket = new Socket("localhost", port + 1)) {
+      assertTrue(reader(socket).readLine().startsWith("220 second.example"));
+    }
+  }
+
+  @Test
+  public void lineTooLong() throws Exception {
+    withStandardCommands("lines.example").withMaxLineLengths(510, 998);
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (Socket socket = new Socket("localhost", port)) {
+      BufferedReader in = reader(socket);
+      assertTrue(in.readLine().startsWith("220"));
+      send(socket, "NOOP " + "x".repeat(600) + "\r\nNOOP\r\n");
+      assertEquals("500 Line too long", in.readLine());
+      assertTrue(in.readLine().startsWith("250"));
+
+      send(socket, "HELO me\r\nMAIL FROM:<a@example.com>\r\nRCPT TO:<b@example.com>\r\n");
+      assertTrue(in.readLine().startsWith("250"));
+      assertTrue(in.readLine().startsWith("250"));
+      assertTrue(in.readLine().startsWith("250"));
+      send(socket, "DATA\r\n");
+      assertTrue(in.readLine().startsWith("354"));
+      send(socket, "Subject: hi\r\n\r\n" + "y".repeat(1200) + "\r\nbye\r\n.\r\n");
+      assertEquals("500 Line too long", in.readLine());
+
+      // The session carries on
+      send(socket, "NOOP\r\n");
+      assertTrue(in.readLine().startsWith("250"));
+    }
+  }
+
+  @Test
+  public void idleTimeout() throws Exception {
+    withStandardCommands("idle.example")
+        .withIdleTimeout(StandardStates.AFTER_EHLO, Duration.ofSeconds(1));
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (Socket socket = new Socket("localhost", port)) {
+      // Far longer than the AFTER_EHLO timeout, and far shorter than the default. The timing
+      // itself is covered by IdleTimeoutHandlerTest.
+      socket.setSoTimeout(30000);
+      BufferedReader in = reader(socket);
+      assertTrue(in.readLine().startsWith("220"));
+      send(socket, "HELO me\r\n");
+      assertTrue(in.readLine().startsWith("250"));
+
+      assertNull(in.readLine());
+    }
+  }
+
+  @Test
+  public void drain() throws Exception {
+    withStandardCommands("drain.example");
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (Socket idle = new Socket("localhost", port);
+        Socket busy = new Socket("localhost", port)) {
+      idle.setSoTimeout(5000);
+      busy.setSoTimeout(5000);
+      BufferedReader idleIn = reader(idle);
+      BufferedReader busyIn = reader(busy);
+      assertTrue(idleIn.readLine().startsWith("220"));
+      assertTrue(busyIn.readLine().startsWith("220"));
+      send(idle, "HELO me\r\n");
+      assertTrue(idleIn.readLine().startsWith("250"));
+      send(busy, "HELO me\r\nMAIL FROM:<a@example.com>\r\nRCPT TO:<b@example.com>\r\nDATA\r\n");
+      for (int i = 0; i < 3; i++) {
+        assertTrue(busyIn.readLine().startsWith("250"));
+      }
+      assertTrue(busyIn.readLine().startsWith("354"));
+
+      CompletableFuture<Void> done = it.shutdown(Duration.ofSeconds(10));
+
+      assertTrue(idleIn.readLine().startsWith("421"));
+      assertNull(idleIn.readLine());
+      assertThrows(IOException.class, () -> new Socket("localhost", port).close());
+      assertFalse(done.isDone());
+
+      // The transaction in progress gets to finish
+      send(busy, "Subject: hi\r\n\r\nbye\r\n.\r\n");
+      assertTrue(busyIn.readLine().startsWith("250"));
+      assertTrue(busyIn.readLine().startsWith("421"));
+      assertNull(busyIn.readLine());
+      done.get(5, TimeUnit.SECONDS);
+      assertEquals(0, it.getConnectionCount());
+    }
+  }
+
+  @Test
+  public void drainTimeout() throws Exception {
+    withStandardCommands("drain.example");
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      BufferedReader in = reader(socket);
+      assertTrue(in.readLine().startsWith("220"));
+      send(socket, "HELO me\r\nMAIL FROM:<a@example.com>\r\n");
+      assertTrue(in.readLine().startsWith("250"));
+      assertTrue(in.readLine().startsWith("250"));
+
+      long start = System.nanoTime();
+      it.shutdown(Duration.ofMillis(300)).get(5, TimeUnit.SECONDS);
+      assertTrue(System.nanoTime() - start < Duration.ofSeconds(3).toNanos());
+      assertNull(in.readLine());
+    }
+  }
+
+  @Test
+  public void shutdownTwice() throws Exception {
+    it.start();
+    assertSame(it.shutdown(), it.shutdown(Duration.ZERO));
+  }
+
+  @Test
+  public void implicitTls() throws Exception {
+    withStandardCommands("tls.example")
+        .withTlsCert(new File("src/test/resources/certs/cert.pem"))
+        .withTlsCertKey(new File("src/test/resources/certs/pk8.pem"))
+        .withImplicitTls(true)
+        .withExtensions(Main.harmlessExtensions());
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (SSLSocket socket =
+        (SSLSocket) trustAllContext().getSocketFactory().createSocket("localhost", port)) {
+      BufferedReader in = reader(socket);
+      assertEquals("220 tls.example", in.readLine().split(" ESMTP")[0]);
+
+      send(socket, "EHLO me\r\n");
+      String line;
+      do {
+        line = in.readLine();
+        assertFalse(line.contains("STARTTLS"));
+      } while (line.startsWith("250-"));
+    }
+  }
+
+  @Test
+  public void tlsTaskExecutor() throws Exception {
+    AtomicInteger tasks = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    builder
+        .withTlsCert(new File("src/test/resources/certs/cert.pem"))
+        .withTlsCertKey(new File("src/test/resources/certs/pk8.pem"))
+        .withImplicitTls(true)
+        .withConnectHandler(new Connect("tls.example"))
+        .withTlsTaskExecutor(
+            r -> {
+              tasks.incrementAndGet();
+              pool.execute(r);
+            });
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (SSLSocket socket =
+        (SSLSocket) trustAllContext().getSocketFactory().createSocket("localhost", port)) {
+      BufferedReader in = reader(socket);
+      assertEquals("220 tls.example", in.readLine().split(" ESMTP")[0]);
+    } finally {
+      pool.shutdown();
+    }
+    assertTrue(tasks.get() > 0);
+  }
+
+  private ServerConfig.Builder reloadableTls() throws IOException {
+    File cert = tmp.newFile("cert.pem");
+    File key = tmp.newFile("key.pem");
+    Files.copy(Path.of("src/test/resources/certs/cert.pem"), cert.toPath(), REPLACE_EXISTING);
+    Files.copy(Path.of("src/test/resources/certs/pk8.pem"), key.toPath(), REPLACE_EXISTING);
+    return withStandardCommands("tls.example")
+        .withTlsCert(cert)
+        .withTlsCertKey(key)
+        .withImplicitTls(true);
+  }
+
+  private void renewCert() throws IOException {
+    File cert = new File(tmp.getRoot(), "cert.pem");
+    File key = new File(tmp.getRoot(), "key.pem");
+    Files.copy(Path.of("src/test/resources/certs/cert2.pem"), cert.toPath(), REPLACE_EXISTING);
+    Files.copy(Path.of("src/test/resources/certs/pk8_2.pem"), key.toPath(), REPLACE_EXISTING);
+    // In case the copy lands within the file system's timestamp resolution
+    cert.setLastModified(cert.lastModified() + 10000);
+    key.setLastModified(key.lastModified() + 10000);
+  }
+
+  private SSLSocket connectTls() throws Exception {
+    SSLSocket socket =
+        (SSLSocket) trustAllContext().getSocketFactory().createSocket("localhost", port);
+    socket.startHandshake();
+    return socket;
+  }
+
+  private String serverCertSubject(SSLSocket socket) throws Exception {
+    X509Certificate cert = (X509Certificate) socket.getSession().getPeerCertificates()[0];
+    return cert.getSubjectX500Principal().getName();
+  }
+
+  @Test
+  public void reloadTlsCerts() throws Exception {
+    it = new NettySmtpServer(reloadableTls().build());
+    it.start();
+
+    try (SSLSocket before = connectTls()) {
+      assertTrue(serverCertSubject(before).contains("O=localhost"));
+
+      renewCert();
+      it.reloadTlsCerts();
+
+      try (SSLSocket after = connectTls()) {
+        assertTrue(serverCertSubject(after).contains("O=renewed"));
+      }
+      // The earlier connection carries on as it was
+      BufferedReader in = reader(before);
+      assertTrue(in.readLine().startsWith("220 tls.example"));
+      send(before, "NOOP\r\n");
+      assertTrue(in.readLine().startsWith("250"));
+    }
+  }
+
+  @Test
+  public void reloadTlsCerts_badFiles() throws Exception {
+    it = new NettySmtpServer(reloadableTls().build());
+    it.start();
+
+    Files.writeString(new File(tmp.getRoot(), "key.pem").toPath(), "not a key");
+    assertThrows(SSLException.class, () -> it.reloadTlsCerts());
+
+    try (SSLSocket socket = connectTls()) {
+      assertTrue(serverCertSubject(socket).contains("O=localhost"));
+    }
+  }
+
+  @Test
+  public void tlsCertCheckInterval() throws Exception {
+    it =
+        new NettySmtpServer(
+            reloadableTls().withTlsCertCheckInterval(Duration.ofMillis(20)).build());
+    it.start();
+
+    renewCert();
+
+    long deadline = System.currentTimeMillis() + 5000;
+    String subject;
+    do {
+      Thread.sleep(20);
+      try (SSLSocket socket = connectTls()) {
+        subject = serverCertSubject(socket);
+      }
+    } while (!subject.contains("O=renewed") && System.currentTimeMillis() < deadline);
+    assertTrue(subject.contains("O=renewed"));
+  }
+
+  private ServerConfig.Builder sni() {
+    return withStandardCommands("sni.example")
+        .withTlsCert(new File("src/test/resources/certs/cert.pem"))
+        .withTlsCertKey(new File("src/test/resources/certs/pk8.pem"))
+        .withSniCertDirectory(new File("src/test/resources/certs/sni"));
+  }
+
+  private SSLSocket layerTls(Socket plain, String host) throws Exception {
+    SSLSocket socket =
+        (SSLSocket)
+            trustAllContext().getSocketFactory().createSocket(plain, "localhost", port, true);
+    if (host != null) {
+      SSLParameters params = socket.getSSLParameters();
+      params.setServerNames(List.of(new SNIHostName(host)));
+      socket.setSSLParameters(params);
+    }
+    socket.startHandshake();
+    return socket;
+  }
+
+  private String implicitTlsSubject(String host) throws Exception {
+    try (Socket plain = new Socket("localhost", port);
+        SSLSocket socket = layerTls(plain, host)) {
+      BufferedReader in = reader(socket);
+      assertTrue(in.readLine().startsWith("220 sni.example"));
+      return serverCertSubject(socket);
+    }
+  }
+
+  @Test
+  public void sni_implicitTls() throws Exception {
+    it = new NettySmtpServer(sni().withImplicitTls(true).build());
+    it.start();
+
+    assertTrue(implicitTlsSubject("mail.example.com").contains("O=example"));
+    assertTrue(implicitTlsSubject("mx.example.net").contains("O=example"));
+    assertTrue(implicitTlsSubject("other.test").contains("O=other"));
+    assertTrue(implicitTlsSubject("unknown.example.org").contains("O=localhost"));
+    assertTrue(implicitTlsSubject(null).contains("O=localhost"));
+  }
+
+  @Test
+  public void sni_startTls() throws Exception {
+    it = new NettySmtpServer(sni().build());
+    it.start();
+
+    try (Socket plain = new Socket("localhost", port)) {
+      BufferedReader in = reader(plain);
+      assertTrue(in.readLine().startsWith("220 sni.example"));
+      send(plain, "EHLO me\r\n");
+      String line;
+      do {
+        line = in.readLine();
+      } while (line.startsWith("250-"));
+      send(plain, "STARTTLS\r\n");
+      assertTrue(in.readLine().startsWith("220"));
+
+      try (SSLSocket socket = layerTls(plain, "other.test")) {
+        assertTrue(serverCertSubject(socket).contains("O=other"));
+        BufferedReader tlsIn = reader(socket);
+        send(socket, "EHLO me\r\n");
+        do {
+          line = tlsIn.readLine();
+          assertFalse(line.contains("STARTTLS"));
+        } while (line.startsWith("250-"));
+      }
+    }
+  }
+
+  private BlockingQueue<InetSocketAddress> proxied() {
+    BlockingQueue<InetSocketAddress> remoteAddresses = new LinkedBlockingQueue<>();
+    SmtpSessionFactory factory = sessionFactory("proxied.example");
+    builder
+        .withProxyProtocol(true)
+        .withSessionFactory(
+            remoteAddress -> {
+              remoteAddresses.add(remoteAddress);
+              return factory.newSmtpSession(remoteAddress);
+            });
+    return remoteAddresses;
+  }
+
+  /** Sends header, which is followed by EHLO in the same packet, and reads the replies. */
+  private String proxiedGreeting(byte[] header) throws Exception {
+    try (Socket socket = new Socket("localhost", port)) {
+      byte[] ehlo = "EHLO client.example\r\n".getBytes(StandardCharsets.US_ASCII);
+      byte[] packet = new byte[header.length + ehlo.length];
+      System.arraycopy(header, 0, packet, 0, header.length);
+      System.arraycopy(ehlo, 0, packet, header.length, ehlo.length);
+      socket.getOutputStream().write(packet);
+      BufferedReader in = reader(socket);
+      String greeting = in.readLine();
+      if (greeting != null) {
+        assertTrue(in.readLine().startsWith("250"));
+      }
+      return greeting;
+    }
+  }
+
+  @Test
+  public void proxyProtocol_v1() throws Exception {
+    BlockingQueue<InetSocketAddress> remoteAddresses = proxied();
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    String header = "PROXY TCP4 192.0.2.7 127.0.0.1 40123 25\r\n";
+    assertTrue(
+        proxiedGreeting(header.getBytes(StandardCharsets.US_ASCII))
+            .startsWith("220 proxied.example"));
+
+    InetSocketAddress remoteAddress = remoteAddresses.poll(5, TimeUnit.SECONDS);
+    assertEquals(InetAddress.getByName("192.0.2.7"), remoteAddress.getAddress());
+    assertEquals(40123, remoteAddress.getPort());
+  }
+
+  @Test
+  public void proxyProtocol_drain() throws Exception {
+    proxied();
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      for (int i = 0; i < 100 && it.getConnectionCount() == 0; i++) {
+        Thread.sleep(10);
+      }
+      CompletableFuture<Void> done = it.shutdown(Duration.ofSeconds(10));
+      send(socket, "PROXY TCP4 192.0.2.7 127.0.0.1 40123 25\r\n");
+      BufferedReader in = reader(socket);
+
+      // The session is told about the drain as soon as it exists
+      assertTrue(in.readLine().startsWith("220"));
+      assertTrue(in.readLine().startsWith("421"));
+      done.get(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void proxyProtocol_v2() throws Exception {
+    BlockingQueue<InetSocketAddress> remoteAddresses = proxied();
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    byte[] header = {
+      0x0D,
+      0x0A,
+      0x0D,
+      0x0A,
+      0x00,
+      0x0D,
+      0x0A,
+      0x51,
+      0x55,
+      0x49,
+      0x54,
+      0x0A, // signature
+      0x21, // version 2, PROXY
+      0x11, // TCP over IPv4
+      0x00,
+      0x0C, // address length
+      (byte) 198,
+      51,
+      100,
+      9, // source
+      127,
+      0,
+      0,
+      1, // destination
+      (byte) 0x9C,
+      0x40, // source port 40000
+      0x00,
+      0x19 // destination port 25
+    };
+    assertTrue(proxiedGreeting(header).startsWith("220 proxied.example"));
+
+    InetSocketAddress remoteAddress = remoteAddresses.poll(5, TimeUnit.SECONDS);
+    assertEquals(InetAddress.getByName("198.51.100.9"), remoteAddress.getAddress());
+    assertEquals(40000, remoteAddress.getPort());
+  }
+
+  @Test
+  public void proxyProtocol_v2Local() throws Exception {
+    BlockingQueue<InetSocketAddress> remoteAddresses = proxied();
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    byte[] header = {
+      0x0D,
+      0x0A,
+      0x0D,
+      0x0A,
+      0x00,
+      0x0D,
+      0x0A,
+      0x51,
+      0x55,
+      0x49,
+      0x54,
+      0x0A, // signature
+      0x20, // version 2, LOCAL
+      0x00, // unspecified
+      0x00,
+      0x00 // address length
+    };
+    assertTrue(proxiedGreeting(header).startsWith("220 proxied.example"));
+
+    InetSocketAddress remoteAddress = remoteAddresses.poll(5, TimeUnit.SECONDS);
+    assertTrue(remoteAddress.getAddress().isLoopbackAddress());
+  }
+
+  @Test
+  public void proxyProtocol_noHeader() throws Exception {
+    BlockingQueue<InetSocketAddress> remoteAddresses = proxied();
+    it = new NettySmtpServer(builder.build());
+    it.start();
+
+    assertNull(proxiedGreeting(new byte[0]));
+    assertTrue(remoteAddresses.isEmpty());
+  }
+
+  @Test
+  public void sslProviderDefaultsToJdk() {
+    assertEquals(SslProvider.JDK, NettySmtpServer.resolveSslProvider(null));
+  }
+
+  @Test
+  public void openSslWithTicketKeyRotation() throws Exception {
+    Assume.assumeTrue(OpenSsl.isAvailable());
+    builder
+        .withTlsCert(new File("src/test/resources/certs/cert.pem"))
+        .withTlsCertKey(new File("src/test/resources/certs/pk8.pem"))
+        .withSslProvider(SslProvider.OPENSSL)
+        .withTlsSessionCache(1000, 300)
+        .withTlsTicketKeyRotation(Duration.ofHours(1));
+    it = new NettySmtpServer(builder.build());
+
+    it.start();
+
+    assertEquals(SslProvider.OPENSSL, it.getSslProvider());
+  }
+
+  @Test
+  public void eventLoopLag() throws Exception {
+    assertNull(it.getEventLoopLagMonitor());
+    it =
+        new NettySmtpServer(
+            builder.withWorkerThreads(1).withEventLoopLagSampling(Duration.ofMillis(5)).build());
+    it.start();
+
+    EventLoopLagMonitor monitor = it.getEventLoopLagMonitor();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (monitor.getSampleCount() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(monitor.getSampleCount() >= 3);
+  }
+
+  /**
+   * @return A factory for sessions with the standard commands, whose banner names the domain.
+   */
+  private static SmtpSessionFactory sessionFactory(String domain) {
+    return new SmtpSessionFactoryImp(
+        new SmtpCommandMap(commandHandlers(domain), new Connect(domain)),
+        Main.harmlessExtensions());
+  }
+
+  /** Gives the server's default listener the standard commands, with a banner naming the domain. */
+  private ServerConfig.Builder withStandardCommands(String domain) {
+    return builder
+        .withCommandHandlers(commandHandlers(domain))
+        .withConnectHandler(new Connect(domain));
+  }
+
+  private static Collection<CommandHandler> commandHandlers(String domain) {
+    return Main.baseCommandHandlers(domain, null, new BaseMailObjectFactory()).values();
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+  }
+
+  private static void send(Socket socket, String s) throws IOException {
+    socket.getOutputStream().write(s.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * @return A client context that accepts the server's self-signed test certificates.
+   */
+  private static SSLContext trustAllContext() throws Exception {
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(null, new TrustManager[] {new TrustAllManager()}, null);
+    return context;
+  }
+
+  static class TrustAllManager implements X509TrustManager {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
 }
@@ -0,0 +1,143 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.haproxy.HAProxyCommand;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
+import io.netty.handler.codec.haproxy.HAProxyProtocolVersion;
+import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol;
+import io.netty.handler.timeout.ReadTimeoutException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.Test;
+
+public class ProxyProtocolHandlerTest {
+
+  InetSocketAddress proxy = new InetSocketAddress("127.0.0.1", 50000);
+
+  @Test
+  public void clientAddress_tcp4() throws Exception {
+    HAProxyMessage header =
+        new HAProxyMessage(
+            HAProxyProtocolVersion.V1,
+            HAProxyCommand.PROXY,
+            HAProxyProxiedProtocol.TCP4,
+            "192.0.2.7",
+            "127.0.0.1",
+            40123,
+            25);
+
+    InetSocketAddress actual = ProxyProtocolHandler.clientAddress(header, proxy);
+
+    assertEquals(InetAddress.getByName("192.0.2.7"), actual.getAddress());
+    assertEquals(40123, actual.getPort());
+  }
+
+  @Test
+  public void clientAddress_tcp6() throws Exception {
+    HAProxyMessage header =
+        new HAProxyMessage(
+            HAProxyProtocolVersion.V2,
+            HAProxyCommand.PROXY,
+            HAProxyProxiedProtocol.TCP6,
+            "2001:db8::7",
+            "::1",
+            40123,
+            25);
+
+    InetSocketAddress actual = ProxyProtocolHandler.clientAddress(header, proxy);
+
+    assertEquals(InetAddress.getByName("2001:db8::7"), actual.getAddress());
+    assertEquals(40123, actual.getPort());
+  }
+
+  @Test
+  public void clientAddress_local() throws Exception {
+    HAProxyMessage header =
+        new HAProxyMessage(
+            HAProxyProtocolVersion.V2,
+            HAProxyCommand.LOCAL,
+            HAProxyProxiedProtocol.UNKNOWN,
+            null,
+            null,
+            0,
+            0);
+
+    assertSame(proxy, ProxyProtocolHandler.clientAddress(header, proxy));
+  }
+
+  @Test
+  public void clientAddress_unknown() throws Exception {
+    HAProxyMessage header =
+        new HAProxyMessage(
+            HAProxyProtocolVersion.V1,
+            HAProxyCommand.PROXY,
+            HAProxyProxiedProtocol.UNKNOWN,
+            null,
+            null,
+            0,
+            0);
+
+    assertSame(proxy, ProxyProtocolHandler.clientAddress(header, proxy));
+  }
+
+  @Test
+  public void idleBeforeHeader() {
+    List<LogRecord> records = new CopyOnWriteArrayList<>();
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            records.add(record);
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    Logger logger = Logger.getLogger(ProxyProtocolHandler.class.getName());
+    logger.addHandler(handler);
+    try {
+      EmbeddedChannel channel = new EmbeddedChannel(new ProxyProtocolHandler(null));
+
+      channel.pipeline().fireExceptionCaught(ReadTimeoutException.INSTANCE);
+
+      assertFalse(channel.isOpen());
+      assertEquals(1, records.size());
+      assertTrue(records.get(0).getMessage().startsWith("CHANNEL_TIMEOUT:"));
+      assertNull(records.get(0).getThrown());
+    } finally {
+      logger.removeHandler(handler);
+    }
+  }
+}
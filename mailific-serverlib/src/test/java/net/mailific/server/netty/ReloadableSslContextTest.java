@@ -0,0 +1,100 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.handler.ssl.SslContext;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.SSLException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReloadableSslContextTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  File cert;
+  File key;
+  List<SslContext> loaded = new ArrayList<>();
+  RuntimeException loadError;
+  ReloadableSslContext it;
+
+  @Before
+  public void setup() throws Exception {
+    cert = tmp.newFile("cert.pem");
+    key = tmp.newFile("key.pem");
+    it = new ReloadableSslContext(cert, key, this::load);
+  }
+
+  private SslContext load() {
+    if (loadError != null) {
+      throw loadError;
+    }
+    SslContext context = new MockSslContext();
+    loaded.add(context);
+    return context;
+  }
+
+  @Test
+  public void loadsOnCreation() {
+    assertEquals(1, loaded.size());
+    assertSame(loaded.get(0), it.get());
+    assertFalse(it.isStale());
+  }
+
+  @Test
+  public void reload() throws Exception {
+    SslContext previous = it.reload();
+
+    assertSame(loaded.get(0), previous);
+    assertSame(loaded.get(1), it.get());
+  }
+
+  @Test
+  public void staleWhenEitherFileChanges() throws Exception {
+    cert.setLastModified(cert.lastModified() + 10000);
+    assertTrue(it.isStale());
+    it.reload();
+    assertFalse(it.isStale());
+
+    key.setLastModified(key.lastModified() + 10000);
+    assertTrue(it.isStale());
+  }
+
+  @Test
+  public void failedReloadKeepsContext() throws Exception {
+    key.setLastModified(key.lastModified() + 10000);
+    loadError = new IllegalArgumentException("bad key");
+
+    assertThrows(SSLException.class, () -> it.reload());
+
+    assertSame(loaded.get(0), it.get());
+    // So it's tried again
+    assertTrue(it.isStale());
+  }
+}
@@ -0,0 +1,72 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import net.mailific.server.session.Reply;
+import org.junit.After;
+import org.junit.Test;
+
+public class ReplyEncoderTest {
+
+  EmbeddedChannel channel = new EmbeddedChannel(new ReplyEncoder());
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void encodeReply() {
+    channel.writeOutbound(Reply._354_CONTINUE);
+
+    assertEquals("354 Your dime\r\n", readOutbound());
+  }
+
+  @Test
+  public void encodeTwice() {
+    channel.writeOutbound(Reply._250_OK);
+    channel.writeOutbound(Reply._250_OK);
+
+    assertEquals("250 OK\r\n", readOutbound());
+    assertEquals("250 OK\r\n", readOutbound());
+  }
+
+  @Test
+  public void passThroughOtherMessages() {
+    channel.writeOutbound("foo");
+
+    assertEquals("foo", channel.readOutbound());
+    assertNull(channel.readOutbound());
+  }
+
+  private String readOutbound() {
+    ByteBuf buf = channel.readOutbound();
+    try {
+      return buf.toString(StandardCharsets.UTF_8);
+    } finally {
+      buf.release();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import net.mailific.server.session.Reply;
+
+/**
+ * Measures the bytes allocated to put a reply on the wire, the way {@link ReplyEncoder} does it
+ * (wrapping the Reply's cached bytes) and the way it used to be done (String.format, then a
+ * StringEncoder into a pooled buffer). Both a constant reply and one made per command are tried.
+ * Allocations are counted with the JVM's per-thread counter, so there's no harness to set up.
+ *
+ * <p>Not a unit test. Needs a JVM that supports thread allocation counting (HotSpot does). Run it
+ * with something like:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     net.mailific.server.netty.ReplyEncodingBenchmark [replies per run]
+ * </pre>
+ */
+public class ReplyEncodingBenchmark {
+
+  interface Encoding {
+    ByteBuf encode(Reply reply);
+  }
+
+  public static void main(String[] args) {
+    int replies = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Encoding cached = reply -> Unpooled.wrappedBuffer(reply.replyBytes());
+    Encoding formatted =
+        reply ->
+            ByteBufUtil.encodeString(
+                PooledByteBufAllocator.DEFAULT,
+                CharBuffer.wrap(String.format("%d %s\r\n", reply.getCode(), reply.getDetail())),
+                StandardCharsets.UTF_8);
+    Supplier<Reply> constant = () -> Reply._250_OK;
+    Supplier<Reply> dynamic = () -> new Reply(250, "recipient <someone@example.com> OK", false);
+
+    System.out.printf("%-10s %-8s %14s%n", "encoding", "reply", "bytes/reply");
+    for (String name : new String[] {"cached", "formatted"}) {
+      Encoding encoding = name.equals("cached") ? cached : formatted;
+      for (String kind : new String[] {"constant", "dynamic"}) {
+        Supplier<Reply> replySupplier = kind.equals("constant") ? constant : dynamic;
+        // Warm up, then measure
+        run(threads, encoding, replySupplier, replies);
+        double perReply = run(threads, encoding, replySupplier, replies);
+        System.out.printf("%-10s %-8s %14.1f%n", name, kind, perReply);
+      }
+    }
+  }
+
+  private static double run(
+      com.sun.management.ThreadMXBean threads,
+      Encoding encoding,
+      Supplier<Reply> replySupplier,
+      int replies) {
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < replies; i++) {
+      encoding.encode(replySupplier.get()).release();
+    }
+    long after = threads.getThreadAllocatedBytes(thread);
+    return (double) (after - before) / replies;
+  }
+}
@@ -0,0 +1,107 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+
+public class SerialExecutorTest {
+
+  List<Runnable> scheduled = new ArrayList<>();
+  List<String> ran = new ArrayList<>();
+  SerialExecutor it = new SerialExecutor(scheduled::add);
+
+  @Test
+  public void runsInOrderOneAtATime() {
+    it.execute(() -> ran.add("a"));
+    it.execute(() -> ran.add("b"));
+
+    // Only one drain is scheduled while one is outstanding
+    assertEquals(1, scheduled.size());
+    scheduled.remove(0).run();
+
+    assertEquals(List.of("a", "b"), ran);
+  }
+
+  @Test
+  public void reschedulesAfterDrain() {
+    it.execute(() -> ran.add("a"));
+    scheduled.remove(0).run();
+
+    it.execute(() -> ran.add("b"));
+    assertEquals(1, scheduled.size());
+    scheduled.remove(0).run();
+
+    assertEquals(List.of("a", "b"), ran);
+  }
+
+  @Test
+  public void carriesOnAfterFailure() {
+    it.execute(
+        () -> {
+          throw new RuntimeException("oops");
+        });
+    it.execute(() -> ran.add("b"));
+    scheduled.remove(0).run();
+
+    assertEquals(List.of("b"), ran);
+  }
+
+  @Test
+  public void rejected() {
+    it =
+        new SerialExecutor(
+            r -> {
+              throw new RejectedExecutionException();
+            });
+
+    assertThrows(RejectedExecutionException.class, () -> it.execute(() -> ran.add("a")));
+
+    // Not stuck thinking a drain is scheduled
+    it = new SerialExecutor(scheduled::add);
+    it.execute(() -> ran.add("b"));
+    assertEquals(1, scheduled.size());
+  }
+
+  @Test
+  public void rejectedOnceThenAccepted() {
+    boolean[] reject = {true};
+    it =
+        new SerialExecutor(
+            r -> {
+              if (reject[0]) {
+                reject[0] = false;
+                throw new RejectedExecutionException();
+              }
+              scheduled.add(r);
+            });
+
+    assertThrows(RejectedExecutionException.class, () -> it.execute(() -> ran.add("a")));
+    it.execute(() -> ran.add("b"));
+    scheduled.remove(0).run();
+
+    // The rejected task is not run later
+    assertEquals(List.of("b"), ran);
+  }
+}
@@ -0,0 +1,160 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class SmtpLineDecoderTest {
+
+  @Mock SmtpSession session;
+
+  EmbeddedChannel channel;
+
+  private AutoCloseable closeable;
+
+  @Before
+  public void setup() {
+    closeable = MockitoAnnotations.openMocks(this);
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_EHLO);
+    channel = new EmbeddedChannel(new SmtpLineDecoder(session, 10, 20));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    channel.finishAndReleaseAll();
+    closeable.close();
+  }
+
+  @Test
+  public void oneLinePerFrame() {
+    write("foo\r\nbar\r\nbaz");
+
+    assertEquals("foo\r\n", readLine());
+    assertEquals("bar\r\n", readLine());
+    assertNull(channel.readInbound());
+
+    write("\r\n");
+    assertEquals("baz\r\n", readLine());
+  }
+
+  @Test
+  public void bareCrAndLfAreNotLineEnds() {
+    write("a\rb\nc\r\n");
+
+    assertEquals("a\rb\nc\r\n", readLine());
+  }
+
+  @Test
+  public void crlfSplit() {
+    write("foo\r");
+    assertNull(channel.readInbound());
+
+    write("\n");
+    assertEquals("foo\r\n", readLine());
+  }
+
+  @Test
+  public void byteAtATime() {
+    for (char c : "NOOP\r\n".toCharArray()) {
+      write(String.valueOf(c));
+    }
+
+    assertEquals("NOOP\r\n", readLine());
+  }
+
+  @Test
+  public void longestLine() {
+    write("0123456789\r\n");
+
+    assertEquals("0123456789\r\n", readLine());
+  }
+
+  @Test
+  public void longestLine_crSplit() {
+    write("0123456789\r");
+    write("\n");
+
+    assertEquals("0123456789\r\n", readLine());
+  }
+
+  @Test
+  public void lineTooLong() {
+    write("01234567890\r\nfoo\r\n");
+
+    assertEquals(SmtpLineDecoder.LINE_TOO_LONG, channel.readInbound());
+    assertEquals("foo\r\n", readLine());
+  }
+
+  @Test
+  public void lineTooLong_discardedAsItArrives() {
+    // Once they're discarded, nothing holds on to the buffers
+    ByteBuf first = write("01234567890123");
+    assertNull(channel.readInbound());
+    assertEquals(0, first.refCnt());
+
+    ByteBuf second = write("more of the same line");
+    assertEquals(0, second.refCnt());
+
+    write("\r");
+    assertNull(channel.readInbound());
+
+    write("\nfoo\r\n");
+    assertEquals(SmtpLineDecoder.LINE_TOO_LONG, channel.readInbound());
+    assertEquals("foo\r\n", readLine());
+  }
+
+  @Test
+  public void dataLimit() {
+    when(session.getConnectionState()).thenReturn(StandardStates.READING_DATA);
+
+    write("01234567890123456789\r\n012345678901234567890\r\n");
+
+    assertEquals("01234567890123456789\r\n", readLine());
+    assertEquals(SmtpLineDecoder.LINE_TOO_LONG, channel.readInbound());
+  }
+
+  private ByteBuf write(String s) {
+    ByteBuf buf = Unpooled.copiedBuffer(s, StandardCharsets.UTF_8);
+    channel.writeInbound(buf);
+    return buf;
+  }
+
+  private String readLine() {
+    ByteBuf buf = channel.readInbound();
+    try {
+      return buf.toString(StandardCharsets.UTF_8);
+    } finally {
+      buf.release();
+    }
+  }
+}
@@ -19,41 +19,63 @@
 package net.mailific.server.netty;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.EmptyByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.SocketChannelConfig;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
 import io.netty.util.Attribute;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import javax.net.ssl.SSLSession;
 import net.mailific.server.extension.starttls.StartTls;
 import net.mailific.server.netty.SmtpServerHandler.TlsStartListener;
+import net.mailific.server.session.BulkDataSession;
+import net.mailific.server.session.ChunkingSession;
 import net.mailific.server.session.Reply;
 import net.mailific.server.session.SmtpSession;
+import net.mailific.server.session.StandardStates;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 public class SmtpServerHandlerTest {
 
+  interface BulkSession extends BulkDataSession, ChunkingSession {}
+
   @Mock ChannelHandlerContext ctx;
 
   @Mock SocketChannel socketChannel;
@@ -62,7 +84,7 @@ public class SmtpServerHandlerTest {
 
   @Mock ChannelFuture channelFuture;
 
-  @Mock SmtpSession session;
+  @Mock BulkSession session;
 
   @Mock Attribute<SmtpSession> sessionAttr;
 
@@ -72,6 +94,8 @@ public class SmtpServerHandlerTest {
 
   @Mock SSLSession sslSession;
 
+  @Mock SocketChannelConfig channelConfig;
+
   MockSslContext sslContext;
 
   MockSslHandler sslHandler;
@@ -95,8 +119,12 @@ public class SmtpServerHandlerTest {
 
     when(socketChannel.attr(SmtpServerHandler.SESSION_KEY)).thenReturn(sessionAttr);
     when(socketChannel.remoteAddress()).thenReturn(remoteHost);
+    when(socketChannel.config()).thenReturn(channelConfig);
+    when(socketChannel.isActive()).thenReturn(true);
 
     when(session.connect()).thenReturn(new Reply(220, "example.com"));
+    // Mockito would otherwise return a completed future
+    when(session.getPendingReply()).thenReturn(null);
 
     sslContext = new MockSslContext();
     sslHandler = new MockSslHandler(new MockSSLEngine(sslSession));
@@ -117,7 +145,7 @@ public class SmtpServerHandlerTest {
   }
 
   private void verifyShuttingDown() {
-    verify(ctx).write("421 Server shutting down\r\n");
+    verify(ctx).write(Reply._421_SHUTTING_DOWN);
     verify(ctx).flush();
     verify(channelFuture).addListener(ChannelFutureListener.CLOSE);
   }
@@ -133,7 +161,9 @@ public class SmtpServerHandlerTest {
   public void channelActive() throws Exception {
     it.channelActive(ctx);
 
-    verify(ctx).write("220 example.com\r\n");
+    ArgumentCaptor<Reply> replyCaptor = ArgumentCaptor.forClass(Reply.class);
+    verify(ctx).write(replyCaptor.capture());
+    assertEquals("220 example.com\r\n", replyCaptor.getValue().replyString());
     verify(ctx).flush();
   }
 
@@ -157,16 +187,72 @@ public class SmtpServerHandlerTest {
     verifyShuttingDown();
   }
 
+  @Test
+  public void drain_idle() throws Exception {
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_EHLO);
+
+    it.userEventTriggered(ctx, SmtpServerHandler.DRAIN);
+
+    verifyShuttingDown();
+  }
+
+  @Test
+  public void drain_afterTransaction() throws Exception {
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_MAIL);
+
+    it.userEventTriggered(ctx, SmtpServerHandler.DRAIN);
+
+    verify(ctx, never()).write(any());
+
+    // e.g. RSET
+    when(session.consumeLine(any(ByteBuffer.class)))
+        .thenAnswer(
+            invocation -> {
+              when(session.getConnectionState()).thenReturn(StandardStates.AFTER_EHLO);
+              return Reply._250_OK;
+            });
+    it.channelRead(ctx, new MockByteBuf("foo\r\n"));
+
+    InOrder inOrder = inOrder(ctx);
+    inOrder.verify(ctx).write(Reply._250_OK);
+    inOrder.verify(ctx).write(Reply._421_SHUTTING_DOWN);
+    verify(channelFuture).addListener(ChannelFutureListener.CLOSE);
+  }
+
+  @Test
+  public void drain_nextCommand() throws Exception {
+    when(session.getConnectionState()).thenReturn(StandardStates.AFTER_MAIL);
+    it.userEventTriggered(ctx, SmtpServerHandler.DRAIN);
+    // The state changed without a reply, e.g. in a handler's pending reply
+    when(session.getConnectionState()).thenReturn(StandardStates.CONNECTED);
+    MockByteBuf buf = new MockByteBuf("foo\r\n");
+
+    it.channelRead(ctx, buf);
+
+    verify(session, never()).consumeLine(any(ByteBuffer.class));
+    verifyShuttingDown();
+    assertTrue(buf.released);
+  }
+
+  @Test
+  public void userEventTriggered_other() throws Exception {
+    Object evt = new Object();
+
+    it.userEventTriggered(ctx, evt);
+
+    verify(ctx).fireUserEventTriggered(evt);
+  }
+
   @Test
   public void channelRead_noReply() throws Exception {
     final String line = "foo\r\n";
     MockByteBuf buf = new MockByteBuf(line);
-    ArgumentCaptor<byte[]> lineCaptor = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<ByteBuffer> lineCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
     when(session.consumeLine(lineCaptor.capture())).thenReturn(Reply.DO_NOT_REPLY);
 
     it.channelRead(ctx, buf);
 
-    assertArrayEquals(line.getBytes("UTF-8"), lineCaptor.getValue());
+    assertArrayEquals(line.getBytes("UTF-8"), bytes(lineCaptor.getValue()));
     verify(ctx, never()).write(any());
     verify(ctx, never()).flush();
     assertTrue(buf.released);
@@ -176,13 +262,13 @@ public class SmtpServerHandlerTest {
   public void channelRead_withImmediateReply() throws Exception {
     final String line = "foo\r\n";
     MockByteBuf buf = new MockByteBuf(line);
-    ArgumentCaptor<byte[]> lineCaptor = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<ByteBuffer> lineCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
     when(session.consumeLine(lineCaptor.capture())).thenReturn(Reply._250_OK);
 
     it.channelRead(ctx, buf);
 
-    assertArrayEquals(line.getBytes("UTF-8"), lineCaptor.getValue());
-    verify(ctx).write(Reply._250_OK.replyString());
+    assertArrayEquals(line.getBytes("UTF-8"), bytes(lineCaptor.getValue()));
+    verify(ctx).write(Reply._250_OK);
     verify(ctx).flush();
     verify(channelFuture, never()).addListener(ChannelFutureListener.CLOSE);
     assertTrue(buf.released);
@@ -192,13 +278,13 @@ public class SmtpServerHandlerTest {
   public void channelRead_withNonImmediateReply() throws Exception {
     final String line = "foo\r\n";
     MockByteBuf buf = new MockByteBuf(line);
-    ArgumentCaptor<byte[]> lineCaptor = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<ByteBuffer> lineCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
     when(session.consumeLine(lineCaptor.capture())).thenReturn(Reply._500_UNRECOGNIZED_BUFFERED);
 
     it.channelRead(ctx, buf);
 
-    assertArrayEquals(line.getBytes("UTF-8"), lineCaptor.getValue());
-    verify(ctx).write(Reply._500_UNRECOGNIZED_BUFFERED.replyString());
+    assertArrayEquals(line.getBytes("UTF-8"), bytes(lineCaptor.getValue()));
+    verify(ctx).write(Reply._500_UNRECOGNIZED_BUFFERED);
     verify(ctx, never()).flush();
     verify(channelFuture, never()).addListener(ChannelFutureListener.CLOSE);
     assertTrue(buf.released);
@@ -209,13 +295,13 @@ public class SmtpServerHandlerTest {
     final String line = "foo\r\n";
     MockByteBuf buf = new MockByteBuf(line);
     buf.hasArray = true;
-    ArgumentCaptor<byte[]> lineCaptor = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<ByteBuffer> lineCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
     when(session.consumeLine(lineCaptor.capture())).thenReturn(Reply._250_OK);
 
     it.channelRead(ctx, buf);
 
-    assertArrayEquals(line.getBytes("UTF-8"), lineCaptor.getValue());
-    verify(ctx).write(Reply._250_OK.replyString());
+    assertArrayEquals(line.getBytes("UTF-8"), bytes(lineCaptor.getValue()));
+    verify(ctx).write(Reply._250_OK);
     verify(ctx).flush();
     verify(channelFuture, never()).addListener(ChannelFutureListener.CLOSE);
     assertTrue(buf.released);
@@ -225,18 +311,389 @@ public class SmtpServerHandlerTest {
   public void channelRead_with221Reply() throws Exception {
     final String line = "foo\r\n";
     MockByteBuf buf = new MockByteBuf(line);
-    ArgumentCaptor<byte[]> lineCaptor = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<ByteBuffer> lineCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
     when(session.consumeLine(lineCaptor.capture())).thenReturn(Reply._221_OK);
 
     it.channelRead(ctx, buf);
 
-    assertArrayEquals(line.getBytes("UTF-8"), lineCaptor.getValue());
-    verify(ctx).write(Reply._221_OK.replyString());
+    assertArrayEquals(line.getBytes("UTF-8"), bytes(lineCaptor.getValue()));
+    verify(ctx).write(Reply._221_OK);
     verify(ctx).flush();
     verify(channelFuture).addListener(ChannelFutureListener.CLOSE);
     assertTrue(buf.released);
   }
 
+  @Test
+  public void channelRead_startBulkData() throws Exception {
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._354_CONTINUE);
+    when(session.isReadingBulkData()).thenReturn(true);
+
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+
+    InOrder inOrder = inOrder(ctx, pipeline);
+    inOrder.verify(ctx).write(Reply._354_CONTINUE);
+    inOrder
+        .verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            eq(SmtpSessionInitializer.DATA_DECODER),
+            any(DataDecoder.class));
+  }
+
+  @Test
+  public void channelRead_plainSessionKeepsLines() throws Exception {
+    SmtpSession plain = mock(SmtpSession.class);
+    when(sessionAttr.get()).thenReturn(plain);
+    when(plain.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._354_CONTINUE);
+    when(plain.getPendingReply()).thenReturn(null);
+
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+    it.channelRead(ctx, new MockByteBuf("foo\r\n"));
+
+    verify(ctx, times(2)).write(Reply._354_CONTINUE);
+    verify(pipeline, never()).replace(any(String.class), any(String.class), any());
+    verify(plain, times(2)).consumeLine(any(ByteBuffer.class));
+  }
+
+  @Test
+  public void channelRead_bulkData() throws Exception {
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._354_CONTINUE);
+    when(session.isReadingBulkData()).thenReturn(true);
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+
+    MockByteBuf buf = new MockByteBuf("foo\r\nbar\r\n");
+    ArgumentCaptor<ByteBuffer> dataCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+    it.channelRead(ctx, buf);
+
+    verify(session).consumeData(dataCaptor.capture());
+    assertArrayEquals("foo\r\nbar\r\n".getBytes("UTF-8"), bytes(dataCaptor.getValue()));
+    verify(session, times(1)).consumeLine(any(ByteBuffer.class));
+    assertTrue(buf.released);
+  }
+
+  @Test
+  public void channelRead_endOfData() throws Exception {
+    Reply okReply = new Reply(250, "got it", false);
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._354_CONTINUE);
+    when(session.isReadingBulkData()).thenReturn(true);
+    when(session.endOfData()).thenReturn(okReply);
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+    when(session.isReadingBulkData()).thenReturn(false);
+
+    it.channelRead(ctx, DataDecoder.END_OF_DATA);
+
+    InOrder inOrder = inOrder(ctx, pipeline);
+    inOrder.verify(ctx).write(okReply);
+    inOrder
+        .verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.DATA_DECODER),
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            any(SmtpLineDecoder.class));
+
+    // Back to reading lines
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._250_OK);
+    it.channelRead(ctx, new MockByteBuf("NOOP\r\n"));
+    verify(session, times(2)).consumeLine(any(ByteBuffer.class));
+    verify(session, never()).consumeData(any());
+  }
+
+  @Test
+  public void channelRead_startChunk() throws Exception {
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingChunkSize()).thenReturn(10L);
+
+    it.channelRead(ctx, new MockByteBuf("BDAT 10\r\n"));
+
+    verify(ctx, never()).write(any());
+    verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            eq(SmtpSessionInitializer.CHUNK_DECODER),
+            any(ChunkDecoder.class));
+  }
+
+  @Test
+  public void channelRead_chunk() throws Exception {
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingChunkSize()).thenReturn(8L);
+    it.channelRead(ctx, new MockByteBuf("BDAT 8\r\n"));
+
+    MockByteBuf buf = new MockByteBuf("foo\r\nba");
+    ArgumentCaptor<ByteBuffer> dataCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+    it.channelRead(ctx, buf);
+
+    verify(session).consumeChunk(dataCaptor.capture());
+    assertArrayEquals("foo\r\nba".getBytes("UTF-8"), bytes(dataCaptor.getValue()));
+    verify(session, times(1)).consumeLine(any(ByteBuffer.class));
+    assertTrue(buf.released);
+  }
+
+  @Test
+  public void channelRead_endOfChunk() throws Exception {
+    Reply okReply = new Reply(250, "8 octets received", false);
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingChunkSize()).thenReturn(8L);
+    when(session.endOfChunk()).thenReturn(okReply);
+    it.channelRead(ctx, new MockByteBuf("BDAT 8\r\n"));
+    when(session.getPendingChunkSize()).thenReturn(0L);
+
+    it.channelRead(ctx, ChunkDecoder.END_OF_CHUNK);
+
+    InOrder inOrder = inOrder(ctx, pipeline);
+    inOrder.verify(ctx).write(okReply);
+    inOrder
+        .verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.CHUNK_DECODER),
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            any(SmtpLineDecoder.class));
+
+    // Back to reading lines
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._250_OK);
+    it.channelRead(ctx, new MockByteBuf("NOOP\r\n"));
+    verify(session, times(2)).consumeLine(any(ByteBuffer.class));
+    verify(session, never()).consumeChunk(any());
+  }
+
+  @Test
+  public void channelRead_deferredReply() throws Exception {
+    Reply reply = new Reply(250, "later", false);
+    CompletableFuture<Reply> pending = new CompletableFuture<>();
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingReply()).thenReturn(pending);
+    MockByteBuf buf = new MockByteBuf("RCPT TO:<a@b.c>\r\n");
+
+    it.channelRead(ctx, buf);
+
+    verify(channelConfig).setAutoRead(false);
+    verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            eq(SmtpSessionInitializer.HOLD_DECODER),
+            any(HoldDecoder.class));
+    verify(ctx, never()).write(any());
+    assertTrue(buf.released);
+
+    pending.complete(reply);
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(eventExecutor).execute(task.capture());
+    verify(ctx, never()).write(any());
+
+    when(session.getPendingReply()).thenReturn(null);
+    task.getValue().run();
+
+    InOrder inOrder = inOrder(ctx, channelConfig, pipeline);
+    inOrder.verify(ctx).write(reply);
+    inOrder.verify(channelConfig).setAutoRead(true);
+    inOrder
+        .verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.HOLD_DECODER),
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            any(SmtpLineDecoder.class));
+    inOrder.verify(ctx).flush();
+  }
+
+  @Test
+  public void channelRead_deferredReplyFails() throws Exception {
+    CompletableFuture<Reply> pending = new CompletableFuture<>();
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingReply()).thenReturn(pending);
+    it.channelRead(ctx, new MockByteBuf("RCPT TO:<a@b.c>\r\n"));
+
+    pending.completeExceptionally(new RuntimeException());
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(eventExecutor).execute(task.capture());
+    when(session.getPendingReply()).thenReturn(null);
+    task.getValue().run();
+
+    verify(ctx).write(Reply._451_LOCAL_ERROR);
+  }
+
+  @Test
+  public void channelRead_deferredReplyAfterClose() throws Exception {
+    CompletableFuture<Reply> pending = new CompletableFuture<>();
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingReply()).thenReturn(pending);
+    it.channelRead(ctx, new MockByteBuf("RCPT TO:<a@b.c>\r\n"));
+
+    when(socketChannel.isActive()).thenReturn(false);
+    pending.complete(Reply._250_OK);
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(eventExecutor).execute(task.capture());
+    task.getValue().run();
+
+    verify(ctx, never()).write(any());
+    verify(channelConfig, never()).setAutoRead(true);
+  }
+
+  @Test
+  public void channelRead_deferredReplyStartsData() throws Exception {
+    CompletableFuture<Reply> pending = new CompletableFuture<>();
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply.DO_NOT_REPLY);
+    when(session.getPendingReply()).thenReturn(pending);
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+
+    pending.complete(Reply._354_CONTINUE);
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(eventExecutor).execute(task.capture());
+    when(session.getPendingReply()).thenReturn(null);
+    when(session.isReadingBulkData()).thenReturn(true);
+    task.getValue().run();
+
+    verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.HOLD_DECODER),
+            eq(SmtpSessionInitializer.DATA_DECODER),
+            any(DataDecoder.class));
+  }
+
+  @Test
+  public void channelRead_lineTooLong() throws Exception {
+    it.channelRead(ctx, SmtpLineDecoder.LINE_TOO_LONG);
+
+    verify(ctx).write(Reply._500_LINE_TOO_LONG);
+    verify(session, never()).consumeLine(any(ByteBuffer.class));
+    verify(session, never()).dataLineTooLong();
+  }
+
+  @Test
+  public void channelRead_dataLineTooLong() throws Exception {
+    when(session.getConnectionState()).thenReturn(StandardStates.READING_DATA);
+
+    it.channelRead(ctx, SmtpLineDecoder.LINE_TOO_LONG);
+
+    verify(session).dataLineTooLong();
+    verify(ctx, never()).write(any());
+  }
+
+  @Test
+  public void channelRead_bulkDataLineTooLong() throws Exception {
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._354_CONTINUE);
+    when(session.isReadingBulkData()).thenReturn(true);
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+
+    it.channelRead(ctx, SmtpLineDecoder.LINE_TOO_LONG);
+
+    verify(session).dataLineTooLong();
+    verify(ctx, never()).write(Reply._500_LINE_TOO_LONG);
+  }
+
+  private List<Runnable> offloadData() throws Exception {
+    List<Runnable> tasks = new ArrayList<>();
+    it = new SmtpServerHandler(() -> sslContext, null, null, tasks::add, 4, 8, 2048, 2048);
+    it.handlerAdded(ctx);
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(Reply._354_CONTINUE);
+    when(session.isReadingBulkData()).thenReturn(true);
+    it.channelRead(ctx, new MockByteBuf("DATA\r\n"));
+    return tasks;
+  }
+
+  private static void runAll(List<Runnable> tasks) {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+
+  @Test
+  public void channelRead_offloadedData() throws Exception {
+    List<Runnable> tasks = offloadData();
+    ByteBuf buf = Unpooled.copiedBuffer("foo\r\n", StandardCharsets.UTF_8);
+
+    it.channelRead(ctx, buf);
+
+    verify(session, never()).consumeData(any());
+    assertEquals(1, buf.refCnt());
+    ArgumentCaptor<ByteBuffer> dataCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+    runAll(tasks);
+    verify(session).consumeData(dataCaptor.capture());
+    assertArrayEquals("foo\r\n".getBytes("UTF-8"), bytes(dataCaptor.getValue()));
+    assertEquals(0, buf.refCnt());
+    verify(channelConfig, never()).setAutoRead(anyBoolean());
+  }
+
+  @Test
+  public void channelRead_offloadedDataBacksUp() throws Exception {
+    List<Runnable> tasks = offloadData();
+
+    it.channelRead(ctx, Unpooled.copiedBuffer("foo\r\n", StandardCharsets.UTF_8));
+    verify(channelConfig, never()).setAutoRead(anyBoolean());
+    it.channelRead(ctx, Unpooled.copiedBuffer("bar\r\n", StandardCharsets.UTF_8));
+    verify(channelConfig).setAutoRead(false);
+
+    runAll(tasks);
+    ArgumentCaptor<Runnable> resume = ArgumentCaptor.forClass(Runnable.class);
+    verify(eventExecutor).execute(resume.capture());
+    verify(channelConfig, never()).setAutoRead(true);
+    resume.getValue().run();
+    verify(channelConfig).setAutoRead(true);
+  }
+
+  @Test
+  public void channelRead_offloadedDataLineTooLong() throws Exception {
+    List<Runnable> tasks = offloadData();
+    it.channelRead(ctx, Unpooled.copiedBuffer("foo\r\n", StandardCharsets.UTF_8));
+
+    it.channelRead(ctx, SmtpLineDecoder.LINE_TOO_LONG);
+
+    verify(session, never()).dataLineTooLong();
+    runAll(tasks);
+    InOrder inOrder = inOrder(session);
+    inOrder.verify(session).consumeData(any());
+    inOrder.verify(session).dataLineTooLong();
+  }
+
+  @Test
+  public void channelRead_offloadedEndOfData() throws Exception {
+    List<Runnable> tasks = offloadData();
+    Reply okReply = new Reply(250, "got it", false);
+    when(session.endOfData()).thenReturn(okReply);
+    it.channelRead(ctx, Unpooled.copiedBuffer("foo\r\n", StandardCharsets.UTF_8));
+
+    it.channelRead(ctx, DataDecoder.END_OF_DATA);
+
+    verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.DATA_DECODER),
+            eq(SmtpSessionInitializer.HOLD_DECODER),
+            any(HoldDecoder.class));
+    verify(session, never()).endOfData();
+
+    when(session.isReadingBulkData()).thenReturn(false);
+    runAll(tasks);
+    InOrder sessionOrder = inOrder(session);
+    sessionOrder.verify(session).consumeData(any());
+    sessionOrder.verify(session).endOfData();
+    verify(ctx, never()).write(okReply);
+
+    ArgumentCaptor<Runnable> ready = ArgumentCaptor.forClass(Runnable.class);
+    verify(eventExecutor).execute(ready.capture());
+    ready.getValue().run();
+
+    InOrder inOrder = inOrder(ctx, pipeline);
+    inOrder.verify(ctx).write(okReply);
+    inOrder
+        .verify(pipeline)
+        .replace(
+            eq(SmtpSessionInitializer.HOLD_DECODER),
+            eq(SmtpSessionInitializer.FRAME_DECODER),
+            any(SmtpLineDecoder.class));
+  }
+
+  @Test
+  public void channelInactive_offloadedData() throws Exception {
+    List<Runnable> tasks = offloadData();
+    it.channelRead(ctx, Unpooled.copiedBuffer("foo\r\n", StandardCharsets.UTF_8));
+
+    it.channelInactive(ctx);
+
+    verify(session, never()).clearMailObject();
+    runAll(tasks);
+    verify(session, never()).consumeData(any());
+    verify(session).clearMailObject();
+  }
+
   @Test
   public void exceptionCaught() throws Exception {
     RuntimeException cause = new RuntimeException();
@@ -244,7 +701,7 @@ public class SmtpServerHandlerTest {
     it.exceptionCaught(ctx, cause);
 
     // TODO: Verify logging
-    verify(ctx).write("451 Requested action aborted: local error in processing\r\n");
+    verify(ctx).write(Reply._451_LOCAL_ERROR);
     verify(ctx).flush();
   }
 
@@ -262,7 +719,7 @@ public class SmtpServerHandlerTest {
   public void channelRead_startTLS() throws Exception {
     final String line = "STARTTLS\r\n";
     MockByteBuf buf = new MockByteBuf(line);
-    when(session.consumeLine(any())).thenReturn(StartTls._220_READY);
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(StartTls._220_READY);
 
     it.channelRead(ctx, buf);
 
@@ -271,11 +728,39 @@ public class SmtpServerHandlerTest {
     MockSslHandler sslHandler = sslContext.getSslHandler();
     verify(sslHandler.handshakeFuture).addListener(any(SmtpServerHandler.TlsStartListener.class));
 
-    verify(ctx).write(StartTls._220_READY.replyString());
+    verify(ctx).write(StartTls._220_READY);
     verify(ctx).flush();
     assertTrue(buf.released);
   }
 
+  @Test
+  public void channelRead_startTLS_tlsTaskExecutor() throws Exception {
+    Executor tlsTaskExecutor = Runnable::run;
+    it = new SmtpServerHandler(() -> sslContext, null, tlsTaskExecutor, null, 0, 0, 2048, 2048);
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(StartTls._220_READY);
+
+    it.channelRead(ctx, new MockByteBuf("STARTTLS\r\n"));
+
+    verify(pipeline).addFirst(any(SslHandler.class));
+    assertSame(tlsTaskExecutor, sslContext.delegatedTaskExecutor);
+  }
+
+  @Test
+  public void channelRead_startTLS_sni() throws Exception {
+    it =
+        new SmtpServerHandler(
+            () -> sslContext, (host, promise) -> promise, null, null, 0, 0, 2048, 2048);
+    when(session.consumeLine(any(ByteBuffer.class))).thenReturn(StartTls._220_READY);
+
+    it.channelRead(ctx, new MockByteBuf("STARTTLS\r\n"));
+
+    // The reply goes out before anything that could hold it up
+    InOrder inOrder = inOrder(ctx, pipeline);
+    inOrder.verify(ctx).write(StartTls._220_READY);
+    inOrder.verify(pipeline).addFirst(any(SmtpSniHandler.class));
+    assertNull(sslContext.getSslHandler());
+  }
+
   @Test
   public void tlsStartListener_success() throws Exception {
     when(sslHandlerFuture.isSuccess()).thenReturn(true);
@@ -303,4 +788,10 @@ public class SmtpServerHandlerTest {
     it.channelReadComplete(ctx);
     verify(ctx).flush();
   }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
 }
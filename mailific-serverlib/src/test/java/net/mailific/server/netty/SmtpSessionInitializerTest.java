@@ -20,13 +20,15 @@ package net.mailific.server.netty;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.util.Attribute;
 import java.net.InetSocketAddress;
 import net.mailific.server.session.SmtpSession;
@@ -77,8 +79,95 @@ public class SmtpSessionInitializerTest {
     it.initChannel(channel);
 
     verify(attribute).set(session);
-    verify(pipeline).addLast(anyString(), any(DelimiterBasedFrameDecoder.class));
-    verify(pipeline).addLast(any(StringEncoder.class));
+    verify(pipeline)
+        .addLast(eq(SmtpSessionInitializer.IDLE_TIMEOUT_HANDLER), any(IdleTimeoutHandler.class));
+    verify(pipeline).addLast(anyString(), any(SmtpLineDecoder.class));
+    verify(pipeline).addLast(any(ReplyEncoder.class));
+    verify(pipeline).addLast(anyString(), any(SmtpServerHandler.class));
+  }
+
+  @Test
+  public void init_implicitTls() throws Exception {
+    it =
+        new SmtpSessionInitializer(
+            sessionFactory,
+            false,
+            MockSslContext::new,
+            null,
+            true,
+            null,
+            null,
+            0,
+            0,
+            2048,
+            2048,
+            null);
+
+    it.initChannel(channel);
+
+    verify(pipeline).addLast(eq(SmtpSessionInitializer.SSL_HANDLER), any(SslHandler.class));
+    verify(session).setSslSession(any());
+  }
+
+  @Test
+  public void init_implicitTls_sni() throws Exception {
+    it =
+        new SmtpSessionInitializer(
+            sessionFactory,
+            false,
+            MockSslContext::new,
+            (host, promise) -> promise,
+            true,
+            null,
+            null,
+            0,
+            0,
+            2048,
+            2048,
+            null);
+
+    it.initChannel(channel);
+
+    verify(pipeline).addLast(eq(SmtpSessionInitializer.SNI_HANDLER), any(SmtpSniHandler.class));
+    // Left to the SmtpSniHandler, so no engine is built just for a placeholder
+    verify(session, never()).setSslSession(any());
+  }
+
+  @Test
+  public void init_proxyProtocol() throws Exception {
+    it =
+        new SmtpSessionInitializer(
+            sessionFactory,
+            true,
+            MockSslContext::new,
+            null,
+            false,
+            null,
+            null,
+            0,
+            0,
+            2048,
+            2048,
+            null);
+
+    it.initChannel(channel);
+
+    verify(pipeline)
+        .addLast(eq(SmtpSessionInitializer.PROXY_DECODER), any(HAProxyMessageDecoder.class));
+    verify(pipeline)
+        .addLast(eq(SmtpSessionInitializer.PROXY_HANDLER), any(ProxyProtocolHandler.class));
+    verify(sessionFactory, never()).newSmtpSession(any());
+    verify(pipeline, never()).addLast(anyString(), any(SmtpServerHandler.class));
+  }
+
+  @Test
+  public void initSession() throws Exception {
+    InetSocketAddress client = InetSocketAddress.createUnresolved("client.example", 40000);
+    when(sessionFactory.newSmtpSession(client)).thenReturn(session);
+
+    it.initSession(channel, client);
+
+    verify(attribute).set(session);
     verify(pipeline).addLast(anyString(), any(SmtpServerHandler.class));
   }
 }
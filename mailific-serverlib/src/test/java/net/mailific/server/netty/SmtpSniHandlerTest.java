@@ -0,0 +1,40 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.SslHandler;
+import net.mailific.server.session.SmtpSession;
+import org.junit.Test;
+
+public class SmtpSniHandlerTest {
+
+  @Test
+  public void newSslHandler_marksSessionTls() {
+    SmtpSession session = mock(SmtpSession.class);
+    SmtpSniHandler it = new SmtpSniHandler((host, promise) -> promise, session, null);
+
+    SslHandler sslHandler = it.newSslHandler(new MockSslContext(), ByteBufAllocator.DEFAULT);
+
+    verify(session).setSslSession(sslHandler.engine().getSession());
+  }
+}
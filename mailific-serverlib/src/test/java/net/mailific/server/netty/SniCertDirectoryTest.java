@@ -0,0 +1,106 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SniCertDirectoryTest {
+
+  static final File SNI_DIR = new File("src/test/resources/certs/sni");
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  SniCertDirectory it = SniCertDirectory.scan(SNI_DIR);
+
+  @Test
+  public void exact() {
+    assertEquals("example.pem", it.find("mail.example.com").cert.getName());
+    assertEquals("example.key", it.find("mail.example.com").key.getName());
+    assertEquals("example.pem", it.find("MAIL.Example.COM").cert.getName());
+  }
+
+  @Test
+  public void wildcard() {
+    assertEquals("example.pem", it.find("mx.example.net").cert.getName());
+    // Only one label
+    assertNull(it.find("a.mx.example.net"));
+    assertNull(it.find("example.net"));
+  }
+
+  @Test
+  public void commonNameWithoutAltNames() {
+    assertEquals("other.pem", it.find("other.test").cert.getName());
+  }
+
+  @Test
+  public void unknown() {
+    assertNull(it.find("nowhere.example.org"));
+    assertNull(it.find("localhost"));
+    assertNull(it.find(null));
+  }
+
+  @Test
+  public void certWithoutKeySkipped() throws Exception {
+    Files.copy(
+        new File(SNI_DIR, "example.pem").toPath(),
+        tmp.newFile("example.pem").toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+
+    it = SniCertDirectory.scan(tmp.getRoot());
+
+    assertEquals(0, it.size());
+  }
+
+  @Test
+  public void stale() throws Exception {
+    File dir = tmp.newFolder();
+    for (String name : new String[] {"other.pem", "other.key"}) {
+      Files.copy(new File(SNI_DIR, name).toPath(), new File(dir, name).toPath());
+    }
+    it = SniCertDirectory.scan(dir);
+    assertFalse(it.isStale());
+
+    File key = new File(dir, "other.key");
+    key.setLastModified(key.lastModified() + 10000);
+    assertTrue(it.isStale());
+
+    it = SniCertDirectory.scan(dir);
+    assertFalse(it.isStale());
+    Files.copy(new File(SNI_DIR, "example.pem").toPath(), new File(dir, "example.pem").toPath());
+    assertTrue(it.isStale());
+  }
+
+  @Test
+  public void notADirectory() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> SniCertDirectory.scan(new File(SNI_DIR, "nonexistent")));
+  }
+}
@@ -0,0 +1,184 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.net.ssl.SSLException;
+import org.junit.Test;
+
+public class SniContextMappingTest {
+
+  SslContext defaultContext = new MockSslContext();
+  List<File> loaded = new ArrayList<>();
+  List<SslContext> evicted = new ArrayList<>();
+  List<Runnable> tasks = new ArrayList<>();
+  boolean failLoad;
+
+  SniContextMapping it = newMapping(10, null);
+
+  private SniContextMapping newMapping(int cacheSize, Executor executor) {
+    return new SniContextMapping(
+        SniCertDirectoryTest.SNI_DIR,
+        () -> defaultContext,
+        this::load,
+        cacheSize,
+        executor,
+        evicted::add);
+  }
+
+  private SslContext load(File cert, File key) throws SSLException {
+    if (failLoad) {
+      throw new SSLException("bad cert");
+    }
+    loaded.add(cert);
+    return new MockSslContext();
+  }
+
+  private Future<SslContext> map(String host) {
+    return it.map(host, ImmediateEventExecutor.INSTANCE.newPromise());
+  }
+
+  @Test
+  public void unknownHostGetsDefault() {
+    assertSame(defaultContext, map("nowhere.example.org").getNow());
+    assertSame(defaultContext, map(null).getNow());
+    assertTrue(loaded.isEmpty());
+  }
+
+  @Test
+  public void builtOnceAndShared() {
+    SslContext first = map("mail.example.com").getNow();
+    // Same cert, via the wildcard
+    SslContext second = map("mx.example.net").getNow();
+
+    assertNotSame(defaultContext, first);
+    assertSame(first, second);
+    assertEquals(1, loaded.size());
+    assertEquals(1, it.cachedContexts());
+  }
+
+  @Test
+  public void leastRecentlyUsedEvicted() {
+    it = newMapping(1, null);
+    SslContext example = map("mail.example.com").getNow();
+    map("other.test");
+
+    assertEquals(List.of(example), evicted);
+    assertEquals(1, it.cachedContexts());
+
+    map("mail.example.com");
+    assertEquals(3, loaded.size());
+  }
+
+  @Test
+  public void builtOnExecutor() {
+    it = newMapping(10, tasks::add);
+
+    Future<SslContext> future = map("mail.example.com");
+
+    assertFalse(future.isDone());
+    tasks.remove(0).run();
+    assertTrue(future.isSuccess());
+    assertNotSame(defaultContext, future.getNow());
+  }
+
+  @Test
+  public void concurrentMissesBuildOnce() {
+    it = newMapping(10, tasks::add);
+
+    Future<SslContext> first = map("mail.example.com");
+    Future<SslContext> second = map("mx.example.net");
+
+    assertEquals(1, tasks.size());
+    tasks.remove(0).run();
+    assertEquals(1, loaded.size());
+    assertSame(first.getNow(), second.getNow());
+    assertNotSame(defaultContext, first.getNow());
+    assertTrue(evicted.isEmpty());
+
+    // Built again only after it's gone from the cache
+    it.reload();
+    map("mail.example.com");
+    assertEquals(1, tasks.size());
+  }
+
+  @Test
+  public void concurrentMisses_loadFailure() {
+    it = newMapping(10, tasks::add);
+    failLoad = true;
+
+    Future<SslContext> first = map("mail.example.com");
+    Future<SslContext> second = map("mail.example.com");
+    tasks.remove(0).run();
+
+    assertSame(defaultContext, first.getNow());
+    assertSame(defaultContext, second.getNow());
+
+    // Nothing left waiting, so the next miss tries again
+    failLoad = false;
+    map("mail.example.com");
+    assertEquals(1, tasks.size());
+  }
+
+  @Test
+  public void executorRejects() {
+    it =
+        newMapping(
+            10,
+            r -> {
+              throw new RejectedExecutionException();
+            });
+
+    SslContext context = map("mail.example.com").getNow();
+
+    assertNotSame(defaultContext, context);
+    assertEquals(1, loaded.size());
+  }
+
+  @Test
+  public void loadFailureFallsBackToDefault() {
+    failLoad = true;
+
+    assertSame(defaultContext, map("mail.example.com").getNow());
+    assertEquals(0, it.cachedContexts());
+  }
+
+  @Test
+  public void reload() {
+    SslContext example = map("mail.example.com").getNow();
+
+    it.reload();
+
+    assertEquals(List.of(example), evicted);
+    assertEquals(0, it.cachedContexts());
+  }
+}
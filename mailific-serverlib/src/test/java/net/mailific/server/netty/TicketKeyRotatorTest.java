@@ -0,0 +1,110 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import java.util.Arrays;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class TicketKeyRotatorTest {
+
+  TicketKeyRotator it = new TicketKeyRotator();
+
+  @Test
+  public void keepsPreviousKey() {
+    OpenSslSessionContext context = mock(OpenSslSessionContext.class);
+    it.add(context);
+
+    it.run();
+    ArgumentCaptor<OpenSslSessionTicketKey> first =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    verify(context).setTicketKeys(first.capture());
+
+    it.run();
+    ArgumentCaptor<OpenSslSessionTicketKey> current =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    ArgumentCaptor<OpenSslSessionTicketKey> previous =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    verify(context).setTicketKeys(current.capture(), previous.capture());
+
+    assertSame(first.getValue(), previous.getValue());
+    assertFalse(Arrays.equals(first.getValue().name(), current.getValue().name()));
+    assertEquals(OpenSslSessionTicketKey.AES_KEY_SIZE, current.getValue().aesKey().length);
+  }
+
+  @Test
+  public void allContexts() {
+    OpenSslSessionContext context1 = mock(OpenSslSessionContext.class);
+    OpenSslSessionContext context2 = mock(OpenSslSessionContext.class);
+    assertTrue(it.isEmpty());
+    it.add(context1);
+    it.add(context2);
+
+    it.run();
+
+    ArgumentCaptor<OpenSslSessionTicketKey> key1 =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    ArgumentCaptor<OpenSslSessionTicketKey> key2 =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    verify(context1).setTicketKeys(key1.capture());
+    verify(context2).setTicketKeys(key2.capture());
+    assertArrayEquals(key1.getValue().name(), key2.getValue().name());
+  }
+
+  @Test
+  public void addedLater() {
+    OpenSslSessionContext context1 = mock(OpenSslSessionContext.class);
+    it.add(context1);
+    it.run();
+
+    OpenSslSessionContext context2 = mock(OpenSslSessionContext.class);
+    it.add(context2);
+
+    ArgumentCaptor<OpenSslSessionTicketKey> key1 =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    ArgumentCaptor<OpenSslSessionTicketKey> key2 =
+        ArgumentCaptor.forClass(OpenSslSessionTicketKey.class);
+    verify(context1).setTicketKeys(key1.capture());
+    verify(context2).setTicketKeys(key2.capture());
+    assertSame(key1.getValue(), key2.getValue());
+  }
+
+  @Test
+  public void removed() {
+    OpenSslSessionContext context = mock(OpenSslSessionContext.class);
+    it.add(context);
+    it.remove(context);
+
+    it.run();
+
+    assertTrue(it.isEmpty());
+    verifyNoInteractions(context);
+  }
+}
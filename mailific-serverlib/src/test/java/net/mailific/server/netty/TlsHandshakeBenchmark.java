@@ -0,0 +1,118 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import java.io.File;
+
+/**
+ * Measures server-side TLS handshakes per second for each {@link SslProvider}, with and without
+ * session resumption. Client and server talk through EmbeddedChannels, so no sockets are involved
+ * and the numbers are the cost of the handshakes themselves (both ends, on one thread).
+ *
+ * <p>Not a unit test. Run it with something like:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     net.mailific.server.netty.TlsHandshakeBenchmark [seconds per run]
+ * </pre>
+ */
+public class TlsHandshakeBenchmark {
+
+  private static final File CERT = new File("src/test/resources/certs/cert.pem");
+  private static final File KEY = new File("src/test/resources/certs/pk8.pem");
+
+  public static void main(String[] args) throws Exception {
+    long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+    System.out.printf("%-8s %-8s %12s%n", "provider", "resume", "handshakes/s");
+    for (SslProvider provider : new SslProvider[] {SslProvider.JDK, SslProvider.OPENSSL}) {
+      if (provider == SslProvider.OPENSSL && !OpenSsl.isAvailable()) {
+        System.out.println("OPENSSL not available: " + OpenSsl.unavailabilityCause());
+        continue;
+      }
+      for (boolean resume : new boolean[] {false, true}) {
+        // Warm up, then measure
+        run(provider, resume, Math.max(1, seconds / 2));
+        double rate = run(provider, resume, seconds);
+        System.out.printf("%-8s %-8s %12.0f%n", provider, resume, rate);
+      }
+    }
+  }
+
+  private static double run(SslProvider provider, boolean resume, long seconds) throws Exception {
+    SslContext server =
+        SslContextBuilder.forServer(CERT, KEY).sslProvider(provider).startTls(true).build();
+    SslContext client =
+        SslContextBuilder.forClient()
+            .sslProvider(provider)
+            .trustManager(InsecureTrustManagerFactory.INSTANCE)
+            .build();
+    long end = System.nanoTime() + seconds * 1_000_000_000L;
+    long start = System.nanoTime();
+    int count = 0;
+    while (System.nanoTime() < end) {
+      handshake(server, client, resume);
+      count++;
+    }
+    return count / ((System.nanoTime() - start) / 1e9);
+  }
+
+  private static void handshake(SslContext server, SslContext client, boolean resume) {
+    // A client handler with a peer host and port will offer a cached session to resume
+    SslHandler clientHandler =
+        resume
+            ? client.newHandler(ByteBufAllocator.DEFAULT, "localhost", 25)
+            : client.newHandler(ByteBufAllocator.DEFAULT);
+    EmbeddedChannel clientChannel = new EmbeddedChannel(clientHandler);
+    EmbeddedChannel serverChannel =
+        new EmbeddedChannel(server.newHandler(ByteBufAllocator.DEFAULT));
+    try {
+      while (!clientHandler.handshakeFuture().isDone()) {
+        if (!(shuttle(clientChannel, serverChannel) | shuttle(serverChannel, clientChannel))) {
+          throw new IllegalStateException("Handshake stalled");
+        }
+      }
+      if (!clientHandler.handshakeFuture().isSuccess()) {
+        throw new IllegalStateException(clientHandler.handshakeFuture().cause());
+      }
+    } finally {
+      clientChannel.finishAndReleaseAll();
+      serverChannel.finishAndReleaseAll();
+    }
+  }
+
+  private static boolean shuttle(EmbeddedChannel from, EmbeddedChannel to) {
+    boolean moved = false;
+    ByteBuf buf;
+    while ((buf = from.readOutbound()) != null) {
+      to.writeInbound(buf);
+      moved = true;
+    }
+    return moved;
+  }
+}
@@ -0,0 +1,184 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.mailific.main.Main;
+import net.mailific.server.ServerConfig;
+import net.mailific.server.commands.Connect;
+import net.mailific.server.reference.BaseMailObjectFactory;
+
+/**
+ * Compares connections per second and messages per second for each available {@link Transport}. A
+ * server with the standard commands (and a MailObject that discards the message) is started on
+ * localhost, and some client threads hammer it over plain sockets: for connections, each one
+ * connects, reads the banner and QUITs, over and over; for messages, each one sends message after
+ * message on a single connection. Client and server share the machine, so treat the numbers as a
+ * comparison between transports rather than as what the server can do on its own.
+ *
+ * <p>Not a unit test. Run it with something like:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     net.mailific.server.netty.TransportBenchmark [seconds per run] [client threads]
+ * </pre>
+ */
+public class TransportBenchmark {
+
+  private static final int PORT = 12600;
+  private static final byte[] TRANSACTION =
+      ("MAIL FROM:<sender@example.com>\r\n" + "RCPT TO:<recipient@example.com>\r\n" + "DATA\r\n")
+          .getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] MESSAGE;
+
+  static {
+    StringBuilder message = new StringBuilder("Subject: benchmark\r\n\r\n");
+    for (int i = 0; i < 20; i++) {
+      message.append("The quick brown fox jumps over the lazy dog, again and again.\r\n");
+    }
+    MESSAGE = message.append(".\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  public static void main(String[] args) throws Exception {
+    long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    System.out.printf("%-9s %14s %14s%n", "transport", "connections/s", "messages/s");
+    ExecutorService pool = Executors.newFixedThreadPool(clients);
+    try {
+      for (Transport transport : Transport.values()) {
+        if (!transport.isAvailable()) {
+          System.out.println(transport + " not available");
+          continue;
+        }
+        NettySmtpServer server = newServer(transport);
+        server.start();
+        try {
+          // Warm up, then measure
+          run(pool, clients, Math.max(1, seconds / 2), TransportBenchmark::connection);
+          double connections = run(pool, clients, seconds, TransportBenchmark::connection);
+          run(pool, clients, Math.max(1, seconds / 2), TransportBenchmark::messages);
+          double messages = run(pool, clients, seconds, TransportBenchmark::messages);
+          System.out.printf("%-9s %14.0f %14.0f%n", transport, connections, messages);
+        } finally {
+          server.shutdown().get();
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static NettySmtpServer newServer(Transport transport) {
+    return new NettySmtpServer(
+        ServerConfig.builder()
+            .withListenHost("localhost")
+            .withListenPort(PORT)
+            .withTransport(transport)
+            .withCommandHandlers(
+                Main.baseCommandHandlers("bench.example", null, new BaseMailObjectFactory())
+                    .values())
+            .withConnectHandler(new Connect("bench.example"))
+            .build());
+  }
+
+  interface Client {
+    /**
+     * @return How many things were done before the deadline.
+     */
+    long run(long deadline) throws IOException;
+  }
+
+  private static double run(ExecutorService pool, int clients, long seconds, Client client)
+      throws Exception {
+    long start = System.nanoTime();
+    long deadline = start + seconds * 1_000_000_000L;
+    List<Future<Long>> counts = new ArrayList<>();
+    for (int i = 0; i < clients; i++) {
+      counts.add(pool.submit(() -> client.run(deadline)));
+    }
+    long total = 0;
+    for (Future<Long> count : counts) {
+      total += count.get();
+    }
+    return total / ((System.nanoTime() - start) / 1e9);
+  }
+
+  private static long connection(long deadline) throws IOException {
+    long count = 0;
+    while (System.nanoTime() < deadline) {
+      try (Socket socket = new Socket("localhost", PORT)) {
+        BufferedReader in = reader(socket);
+        expect(in, "220");
+        socket.getOutputStream().write("QUIT\r\n".getBytes(StandardCharsets.US_ASCII));
+        expect(in, "221");
+      }
+      count++;
+    }
+    return count;
+  }
+
+  private static long messages(long deadline) throws IOException {
+    long count = 0;
+    try (Socket socket = new Socket("localhost", PORT)) {
+      BufferedReader in = reader(socket);
+      OutputStream out = socket.getOutputStream();
+      expect(in, "220");
+      out.write("EHLO client.example\r\n".getBytes(StandardCharsets.US_ASCII));
+      expect(in, "250");
+      while (System.nanoTime() < deadline) {
+        // The envelope is pipelined, as a real client would do it
+        out.write(TRANSACTION);
+        expect(in, "250");
+        expect(in, "250");
+        expect(in, "354");
+        out.write(MESSAGE);
+        expect(in, "250");
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static BufferedReader reader(Socket socket) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+  }
+
+  /** Reads a reply, which may have several lines, and checks its code. */
+  private static void expect(BufferedReader in, String code) throws IOException {
+    String line;
+    do {
+      line = in.readLine();
+      if (line == null || !line.startsWith(code)) {
+        throw new IOException("Expected " + code + " but got: " + line);
+      }
+    } while (line.length() > 3 && line.charAt(3) == '-');
+  }
+}
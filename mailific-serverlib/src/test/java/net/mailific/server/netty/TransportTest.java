@@ -0,0 +1,90 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import org.junit.Test;
+
+public class TransportTest {
+
+  @Test
+  public void nioAlwaysAvailable() {
+    assertTrue(Transport.NIO.isAvailable());
+  }
+
+  @Test
+  public void preferredIsAvailable() {
+    assertTrue(Transport.preferred().isAvailable());
+  }
+
+  @Test
+  public void resolve_null() {
+    assertEquals(Transport.preferred(), Transport.resolve(null));
+  }
+
+  @Test
+  public void resolve_nio() {
+    assertEquals(Transport.NIO, Transport.resolve(Transport.NIO));
+  }
+
+  @Test
+  public void resolve_fallsBackWhenUnavailable() {
+    for (Transport t : Transport.values()) {
+      Transport resolved = Transport.resolve(t);
+      if (t.isAvailable()) {
+        assertEquals(t, resolved);
+      } else {
+        assertEquals(Transport.preferred(), resolved);
+      }
+    }
+  }
+
+  @Test
+  public void factoriesForAvailableTransports() {
+    for (Transport t : Transport.values()) {
+      if (t.isAvailable()) {
+        assertNotNull(t.ioHandlerFactory());
+        assertNotNull(t.serverChannelClass());
+      }
+    }
+  }
+
+  @Test
+  public void of() throws Exception {
+    EventLoopGroup group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+    try {
+      assertEquals(Transport.NIO, Transport.of(group));
+    } finally {
+      group.shutdownGracefully().sync();
+    }
+  }
+
+  @Test
+  public void of_unknown() {
+    assertNull(Transport.of(new DefaultEventLoopGroup(1)));
+  }
+}
@@ -86,9 +86,19 @@ public class BaseMailObjectTest {
 
     assertEquals(250, actual.getCode());
     assertEquals(false, actual.isImmediate());
+    assertEquals("250 sender joe@example.com OK\r\n", actual.replyString());
     assertEquals(fromLine, it.getMailFromLine());
   }
 
+  @Test
+  public void rcptTo() {
+    Reply actual = it.rcptTo(rcpt2, session);
+
+    assertEquals(250, actual.getCode());
+    assertEquals(false, actual.isImmediate());
+    assertEquals("250 recipient notjoe@example.com OK\r\n", actual.replyString());
+  }
+
   @Test
   public void reversePath_nullMailFrom() {
     assertNull(it.getReversePathMailbox());
@@ -20,10 +20,15 @@ package net.mailific.server.reference;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import net.mailific.server.MailObject;
 import net.mailific.server.session.Reply;
 import net.mailific.server.session.SmtpSession;
@@ -77,4 +82,32 @@ public class InMemoryMailObjectTest {
     assertArrayEquals("Subject: hi\r\n\r\nHi.\r\n".getBytes(StandardCharsets.UTF_8), data);
     assertEquals(actual, aReply);
   }
+
+  @Test
+  public void byteBufferLines() throws IOException {
+    ByteBuffer heap = ByteBuffer.wrap("xxSubject: hi\r\n".getBytes(StandardCharsets.UTF_8));
+    heap.position(2);
+    ByteBuffer direct = ByteBuffer.allocateDirect(16);
+    direct.put("Hi.\r\n".getBytes(StandardCharsets.UTF_8)).flip();
+
+    it.prepareForData(session);
+    it.writeLine(heap);
+    it.writeLine(direct);
+    it.complete(session);
+
+    assertArrayEquals("Subject: hi\r\nHi.\r\n".getBytes(StandardCharsets.UTF_8), data);
+    assertEquals(0, direct.position());
+  }
+
+  @Test
+  public void completeAsync() throws IOException {
+    List<Runnable> tasks = new ArrayList<>();
+
+    it.prepareForData(session);
+    CompletableFuture<Reply> actual = it.completeAsync(session, tasks::add).toCompletableFuture();
+
+    assertFalse(actual.isDone());
+    tasks.forEach(Runnable::run);
+    assertEquals(aReply, actual.join());
+  }
 }
@@ -0,0 +1,102 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.session;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import net.mailific.main.Main;
+import net.mailific.server.SmtpCommandMap;
+import net.mailific.server.commands.Connect;
+import net.mailific.server.reference.BaseMailObjectFactory;
+
+/**
+ * Measures the bytes allocated for each line of message data once a session is in a DATA
+ * transaction, for the bulk path the netty server uses ({@link BulkDataSession#consumeData}) and
+ * the line-at-a-time path ({@link SmtpSession#consumeLine(ByteBuffer)}). The same buffer is fed in
+ * every time, so anything counted is the session's own doing. The BaseMailObject discards the data,
+ * so the numbers don't include storing it.
+ *
+ * <p>Not a unit test. Needs a JVM that supports thread allocation counting (HotSpot does). Run it
+ * with something like:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *     net.mailific.server.session.DataLineBenchmark [lines per run]
+ * </pre>
+ */
+public class DataLineBenchmark {
+
+  private static final byte[] LINE =
+      "The quick brown fox jumps over the lazy dog, again and again and again.\r\n"
+          .getBytes(StandardCharsets.US_ASCII);
+
+  public static void main(String[] args) {
+    int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    System.out.printf("%-6s %14s%n", "path", "bytes/line");
+    for (boolean bulk : new boolean[] {true, false}) {
+      // Warm up, then measure
+      run(threads, bulk, lines);
+      double perLine = run(threads, bulk, lines);
+      System.out.printf("%-6s %14.2f%n", bulk ? "bulk" : "line", perLine);
+    }
+  }
+
+  private static double run(com.sun.management.ThreadMXBean threads, boolean bulk, int lines) {
+    SmtpSessionImp session = newSessionInData();
+    ByteBuffer buffer = ByteBuffer.wrap(LINE);
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < lines; i++) {
+      buffer.clear();
+      if (bulk) {
+        session.consumeData(buffer);
+      } else {
+        session.consumeLine(buffer);
+      }
+    }
+    long after = threads.getThreadAllocatedBytes(thread);
+    return (double) (after - before) / lines;
+  }
+
+  private static SmtpSessionImp newSessionInData() {
+    SmtpSessionImp session =
+        new SmtpSessionImp(
+            new InetSocketAddress("127.0.0.1", 2525),
+            new SmtpCommandMap(
+                Main.baseCommandHandlers("bench", null, new BaseMailObjectFactory()).values(),
+                new Connect("bench")),
+            Main.harmlessExtensions());
+    session.connect();
+    for (String command :
+        new String[] {
+          "EHLO client", "MAIL FROM:<a@example.com>", "RCPT TO:<b@example.com>", "DATA"
+        }) {
+      Reply reply = session.consumeLine((command + "\r\n").getBytes(StandardCharsets.US_ASCII));
+      if (reply.getCode() >= 400) {
+        throw new IllegalStateException(command + ": " + reply);
+      }
+    }
+    return session;
+  }
+}
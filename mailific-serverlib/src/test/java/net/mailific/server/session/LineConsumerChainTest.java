@@ -0,0 +1,137 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.mailific.server.Line;
+import net.mailific.server.LineConsumer;
+import org.junit.Test;
+
+public class LineConsumerChainTest {
+
+  LineConsumerChain it = new LineConsumerChain();
+  List<String> tried = new ArrayList<>();
+  Line line = new Line("FOO");
+
+  private LineConsumer consumer(String name) {
+    return (session, line) -> {
+      tried.add(name);
+      return Transition.UNHANDLED;
+    };
+  }
+
+  @Test
+  public void empty() {
+    assertEquals(Transition.UNHANDLED, it.consume(null, line));
+    assertEquals(Transition.UNHANDLED, it.connect(null));
+    assertNull(it.getBulkDataConsumer());
+  }
+
+  @Test
+  public void newestFirst() {
+    it.addLineConsumer("a", consumer("a"));
+    it.addLineConsumer("b", consumer("b"));
+    it.addLineConsumer("c", consumer("c"));
+
+    it.consume(null, line);
+
+    assertEquals(List.of("c", "b", "a"), tried);
+  }
+
+  @Test
+  public void stopsAtFirstHandled() {
+    Transition handled = new Transition(Reply._250_OK, SessionState.NO_STATE_CHANGE);
+    it.addLineConsumer("a", consumer("a"));
+    it.addLineConsumer("b", (session, line) -> handled);
+    it.addLineConsumer("c", consumer("c"));
+
+    assertEquals(handled, it.consume(null, line));
+    assertEquals(List.of("c"), tried);
+  }
+
+  @Test
+  public void replaceMovesToHead() {
+    it.addLineConsumer("a", consumer("a"));
+    it.addLineConsumer("b", consumer("b"));
+    it.addLineConsumer("a", consumer("a2"));
+
+    it.consume(null, line);
+
+    assertEquals(List.of("a2", "b"), tried);
+  }
+
+  @Test
+  public void remove() {
+    it.addLineConsumer("a", consumer("a"));
+    it.addLineConsumer("b", consumer("b"));
+    it.addLineConsumer("c", consumer("c"));
+
+    it.removeLineConsumer("b");
+    it.removeLineConsumer("nope");
+    it.consume(null, line);
+
+    assertEquals(List.of("c", "a"), tried);
+  }
+
+  @Test
+  public void removeAll() {
+    it.addLineConsumer("a", consumer("a"));
+    it.removeLineConsumer("a");
+
+    assertEquals(Transition.UNHANDLED, it.consume(null, line));
+    assertEquals(List.of(), tried);
+  }
+
+  @Test
+  public void sameConsumerTwice() {
+    LineConsumer consumer = consumer("x");
+    it.addLineConsumer("a", consumer);
+    it.addLineConsumer("b", consumer);
+
+    it.removeLineConsumer("a");
+    it.consume(null, line);
+
+    assertEquals(List.of("x"), tried);
+  }
+
+  @Test
+  public void changedDuringConsume() {
+    it.addLineConsumer("a", consumer("a"));
+    it.addLineConsumer(
+        "b",
+        (session, line) -> {
+          tried.add("b");
+          it.removeLineConsumer("a");
+          it.addLineConsumer("c", consumer("c"));
+          return Transition.UNHANDLED;
+        });
+
+    // The pass in progress carries on with the chain it started with
+    it.consume(null, line);
+    assertEquals(List.of("b", "a"), tried);
+
+    tried.clear();
+    it.consume(null, line);
+    assertEquals(List.of("c", "b"), tried);
+  }
+}
@@ -0,0 +1,76 @@
+/*-
+ * Mailific SMTP Server Library
+ *
+ * Copyright (C) 2021-2022 Joe Humphreys
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.mailific.server.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class ReplyTemplateTest {
+
+  ReplyTemplate it = new ReplyTemplate(250, "sender %s OK", false);
+
+  @Test
+  public void with() {
+    Reply reply = it.with("<a@example.com>");
+
+    assertEquals(250, reply.getCode());
+    assertEquals("sender <a@example.com> OK", reply.getDetail());
+    assertFalse(reply.isImmediate());
+    assertEquals("250 sender <a@example.com> OK\r\n", reply.replyString());
+    assertEquals("Reply [250, sender <a@example.com> OK]", reply.toString());
+  }
+
+  @Test
+  public void replyBytes() {
+    Reply reply = it.with("<café@example.com>");
+
+    assertArrayEquals(
+        "250 sender <café@example.com> OK\r\n".getBytes(StandardCharsets.UTF_8),
+        reply.replyBytes());
+    assertSame(reply.replyBytes(), reply.replyBytes());
+  }
+
+  @Test
+  public void sameAsFormat() {
+    for (String value : new String[] {"", "x", null}) {
+      assertEquals(String.format("sender %s OK", value), it.with(value).getDetail());
+    }
+  }
+
+  @Test
+  public void placeholderAtEnds() {
+    assertEquals("550 x", new ReplyTemplate(550, "%s", true).with("x").replyString().trim());
+    assertTrue(new ReplyTemplate(550, "%s", true).with("x").isImmediate());
+    assertEquals("ab", new ReplyTemplate(250, "a%s", false).with("b").getDetail());
+    assertEquals("ab", new ReplyTemplate(250, "%sb", false).with("a").getDetail());
+  }
+
+  @Test
+  public void badDetail() {
+    assertThrows(IllegalArgumentException.class, () -> new ReplyTemplate(250, "OK", false));
+    assertThrows(IllegalArgumentException.class, () -> new ReplyTemplate(250, "%s and %s", false));
+  }
+}
@@ -18,9 +18,13 @@
 
 package net.mailific.server.session;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
 import org.junit.Test;
 
 public class ReplyTest {
@@ -36,4 +40,20 @@ public class ReplyTest {
     assertFalse(new Reply(421, "foo").success());
     assertFalse(new Reply(500, "foo").success());
   }
+
+  @Test
+  public void replyString() {
+    assertEquals("250 OK\r\n", Reply._250_OK.replyString());
+  }
+
+  @Test
+  public void replyBytes() {
+    Reply reply = new Reply(250, "caf\u00e9");
+    assertArrayEquals("250 caf\u00e9\r\n".getBytes(StandardCharsets.UTF_8), reply.replyBytes());
+  }
+
+  @Test
+  public void replyBytes_cached() {
+    assertSame(Reply._354_CONTINUE.replyBytes(), Reply._354_CONTINUE.replyBytes());
+  }
 }
@@ -22,30 +22,43 @@ import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import javax.net.ssl.SSLSession;
 import net.mailific.server.Line;
 import net.mailific.server.LineArgMatcher;
 import net.mailific.server.LineConsumer;
 import net.mailific.server.MailObject;
+import net.mailific.server.commands.Data;
+import net.mailific.server.commands.DataLineConsumer;
 import net.mailific.server.commands.ParsedCommandLine;
 import net.mailific.server.extension.Extension;
+import net.mailific.server.extension.chunking.ChunkLineConsumer;
+import net.mailific.server.extension.chunking.Chunking;
 import org.hamcrest.MatcherAssert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -121,6 +134,54 @@ public class SmtpSessionImpTest {
     it.completeMailObject();
   }
 
+  @Test
+  public void completeMailObjectAsync_noExecutor() {
+    it.newMailObject(oldMailObject);
+    when(oldMailObject.complete(it)).thenReturn(Reply._250_OK);
+
+    CompletableFuture<Reply> actual = it.completeMailObjectAsync().toCompletableFuture();
+
+    assertSame(Reply._250_OK, actual.join());
+    verify(oldMailObject, never()).completeAsync(any(), any());
+    verify(oldMailObject).dispose();
+  }
+
+  @Test
+  public void completeMailObjectAsync_executor() {
+    Executor executor = Runnable::run;
+    it = new SmtpSessionImp(remoteAddress, commandMap, null, executor);
+    it.newMailObject(oldMailObject);
+    CompletableFuture<Reply> future = new CompletableFuture<>();
+    when(oldMailObject.completeAsync(it, executor)).thenReturn(future);
+
+    CompletableFuture<Reply> actual = it.completeMailObjectAsync().toCompletableFuture();
+
+    // Detached from the session straight away, but not disposed till done
+    assertNull(it.getMailObject());
+    verify(oldMailObject, never()).dispose();
+    future.complete(Reply._250_OK);
+    assertSame(Reply._250_OK, actual.join());
+    verify(oldMailObject).dispose();
+  }
+
+  @Test
+  public void completeMailObjectAsync_executorThrows() {
+    Executor executor = Runnable::run;
+    it = new SmtpSessionImp(remoteAddress, commandMap, null, executor);
+    it.newMailObject(oldMailObject);
+    when(oldMailObject.completeAsync(it, executor)).thenThrow(new RuntimeException());
+
+    assertThrows(RuntimeException.class, () -> it.completeMailObjectAsync());
+    verify(oldMailObject).dispose();
+  }
+
+  @Test
+  public void completeMailObjectAsync_executorNoMailObject() {
+    it = new SmtpSessionImp(remoteAddress, commandMap, null, Runnable::run);
+
+    assertSame(Reply._554_SERVER_ERROR, it.completeMailObjectAsync().toCompletableFuture().join());
+  }
+
   @Test
   public void getSetAndClearProperty() {
     Object bar = new Object();
@@ -194,6 +255,120 @@ public class SmtpSessionImpTest {
     assertNotEquals(StandardStates.NO_STATE_CHANGE, it.getConnectionState());
   }
 
+  @Test
+  public void consumeLine_byteBuffer() {
+    Reply reply = new Reply(1, "foo");
+    Transition transition = new Transition(reply, StandardStates.AFTER_MAIL);
+    ArgumentCaptor<Line> lineCaptor = ArgumentCaptor.forClass(Line.class);
+    when(commandMap.consume(any(), lineCaptor.capture())).thenReturn(transition);
+
+    assertEquals(reply, it.consumeLine(ByteBuffer.wrap("bar\r\n".getBytes())));
+    assertEquals(StandardStates.AFTER_MAIL, it.getConnectionState());
+    assertEquals("bar", lineCaptor.getValue().getStripped());
+  }
+
+  @Test
+  public void consumeLine_deferred() {
+    Reply reply = new Reply(250, "later");
+    CompletableFuture<Transition> future = new CompletableFuture<>();
+    when(commandMap.consume(any(), any())).thenReturn(Transition.deferred(future));
+    it.setConnectionState(StandardStates.AFTER_MAIL);
+
+    assertEquals(Reply.DO_NOT_REPLY, it.consumeLine("bar\r\n".getBytes()));
+    CompletableFuture<Reply> pending = it.getPendingReply().toCompletableFuture();
+    assertFalse(pending.isDone());
+    assertEquals(StandardStates.AFTER_MAIL, it.getConnectionState());
+
+    future.complete(new Transition(reply, StandardStates.AFTER_RCPT));
+
+    assertEquals(reply, pending.join());
+    assertEquals(StandardStates.AFTER_RCPT, it.getConnectionState());
+  }
+
+  @Test
+  public void consumeLine_deferredFails() {
+    when(commandMap.consume(any(), any()))
+        .thenReturn(Transition.deferred(CompletableFuture.failedFuture(new RuntimeException())));
+
+    it.consumeLine("bar\r\n".getBytes());
+
+    assertEquals(Reply._451_LOCAL_ERROR, it.getPendingReply().toCompletableFuture().join());
+  }
+
+  @Test
+  public void consumeLine_deferredToNull() {
+    when(commandMap.consume(any(), any()))
+        .thenReturn(Transition.deferred(CompletableFuture.completedFuture(null)));
+
+    it.consumeLine("bar\r\n".getBytes());
+
+    assertEquals(Reply._451_LOCAL_ERROR, it.getPendingReply().toCompletableFuture().join());
+  }
+
+  @Test
+  public void consumeLine_clearsPendingReply() {
+    when(commandMap.consume(any(), any()))
+        .thenReturn(Transition.deferred(new CompletableFuture<>()))
+        .thenReturn(transition2);
+
+    it.consumeLine("bar\r\n".getBytes());
+    assertNotNull(it.getPendingReply());
+
+    it.consumeLine("bar\r\n".getBytes());
+    assertNull(it.getPendingReply());
+  }
+
+  @Test
+  public void bulkData_notReading() {
+    assertFalse(it.isReadingBulkData());
+  }
+
+  @Test
+  public void bulkData() {
+    DataLineConsumer dataConsumer = new DataLineConsumer();
+    when(newMailObject.complete(it)).thenReturn(Reply._250_OK);
+    it.newMailObject(newMailObject);
+    it.setConnectionState(StandardStates.READING_DATA);
+    it.addLineConsumer(Data.class.getName() + ".filterKey", dataConsumer);
+
+    assertTrue(it.isReadingBulkData());
+    it.consumeData(ByteBuffer.wrap("foo\r\n".getBytes()));
+    assertEquals(Reply._250_OK, it.endOfData());
+
+    assertFalse(it.isReadingBulkData());
+    assertEquals(StandardStates.AFTER_EHLO, it.getConnectionState());
+  }
+
+  @Test
+  public void bulkData_notAtHead() {
+    it.addLineConsumer("data", new DataLineConsumer());
+    it.addLineConsumer("other", commandMap);
+
+    assertFalse(it.isReadingBulkData());
+  }
+
+  @Test
+  public void chunk_notReading() {
+    assertEquals(0, it.getPendingChunkSize());
+  }
+
+  @Test
+  public void chunk() throws IOException {
+    when(newMailObject.complete(it)).thenReturn(Reply._250_OK);
+    it.newMailObject(newMailObject);
+    it.setConnectionState(Chunking.RECEIVING_CHUNKS);
+    it.addLineConsumer("chunk", new ChunkLineConsumer(5, true));
+
+    assertEquals(5, it.getPendingChunkSize());
+    it.consumeChunk(ByteBuffer.wrap("foo".getBytes()));
+    assertEquals(2, it.getPendingChunkSize());
+    it.consumeChunk(ByteBuffer.wrap("\r\n".getBytes()));
+    assertEquals(Reply._250_OK, it.endOfChunk());
+
+    verify(newMailObject, times(2)).writeChunk(any());
+    assertEquals(StandardStates.AFTER_EHLO, it.getConnectionState());
+  }
+
   @Test
   public void extension_nullLineConsumer() {
     when(extension.getLineConsumer()).thenReturn(null);
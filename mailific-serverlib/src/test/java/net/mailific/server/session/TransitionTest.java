@@ -20,8 +20,13 @@ package net.mailific.server.session;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.CompletableFuture;
 import org.hamcrest.CoreMatchers;
 import org.junit.Before;
 import org.junit.Test;
@@ -64,4 +69,54 @@ public class TransitionTest {
     assertThat(it.toString(), CoreMatchers.containsString("reply=Reply [234, OK dude]"));
     assertThat(it.toString(), CoreMatchers.containsString("nextState=AFTER_EHLO"));
   }
+
+  @Test
+  public void notDeferred() {
+    assertFalse(it.isDeferred());
+    assertNull(it.getDeferred());
+  }
+
+  @Test
+  public void deferred() {
+    CompletableFuture<Transition> future = new CompletableFuture<>();
+
+    Transition deferred = Transition.deferred(future);
+
+    assertTrue(deferred.isDeferred());
+    assertSame(future, deferred.getDeferred());
+    assertEquals(Reply.DO_NOT_REPLY, deferred.getReply());
+    assertEquals(SessionState.NO_STATE_CHANGE, deferred.getNextState());
+    assertEquals("Transition [deferred]", deferred.toString());
+    assertThrows(NullPointerException.class, () -> Transition.deferred(null));
+  }
+
+  @Test
+  public void deferred_alreadyComplete() {
+    Transition transition = new Transition(Reply._250_OK, StandardStates.AFTER_EHLO);
+
+    assertSame(transition, Transition.deferred(CompletableFuture.completedFuture(transition)));
+    assertTrue(Transition.deferred(CompletableFuture.completedFuture(null)).isDeferred());
+    assertTrue(
+        Transition.deferred(CompletableFuture.failedFuture(new RuntimeException())).isDeferred());
+  }
+
+  @Test
+  public void constants() {
+    assertSame(Reply.DO_NOT_REPLY, Transition.DO_NOT_REPLY.getReply());
+    assertSame(Reply._250_OK, Transition.OK.getReply());
+    assertSame(Reply._501_BAD_ARGS, Transition.BAD_ARGS.getReply());
+    assertSame(Reply._501_BAD_ARGS_BUFFERED, Transition.BAD_ARGS_BUFFERED.getReply());
+    assertSame(Reply._503_BAD_SEQUENCE, Transition.BAD_SEQUENCE.getReply());
+    for (Transition t :
+        new Transition[] {
+          Transition.DO_NOT_REPLY,
+          Transition.OK,
+          Transition.BAD_ARGS,
+          Transition.BAD_ARGS_BUFFERED,
+          Transition.BAD_SEQUENCE
+        }) {
+      assertSame(SessionState.NO_STATE_CHANGE, t.getNextState());
+      assertFalse(t.isDeferred());
+    }
+  }
 }